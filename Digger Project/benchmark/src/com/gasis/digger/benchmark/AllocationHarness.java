@@ -0,0 +1,182 @@
+package com.gasis.digger.benchmark;
+
+import com.badlogic.gdx.Input.Keys;
+import com.gasis.digger.logic.GameWorld;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs headless worlds under scripted input and counts the bytes allocated while they
+ * tick by the thread running the ticks and the physics threads. Once warmed up a tick
+ * must not allocate anything, except for handing partitions to the physics threads
+ * when there are enough vehicles to step them in parallel. Pools that reach a new
+ * high (grid buckets and so on) may allocate a little over a whole run, garbage
+ * created every tick adds up to more than that within a few hundred ticks. Exits with
+ * an error if a run allocates more, so the build breaks when garbage creeps back into
+ * the simulation.
+ *
+ * Arguments: [ticks] (measured ticks per scenario)
+ */
+public class AllocationHarness {
+
+    // ticks run before measuring, so arrays grow to their final size and classes load
+    private static final int WARMUP_TICKS = 2000;
+
+    // number of ticks between changes of the player's keys
+    private static final int INPUT_CHANGE_INTERVAL = 20;
+
+    // keys the player holds
+    private static final int[] KEYS = { Keys.LEFT, Keys.RIGHT, Keys.UP, Keys.DOWN };
+
+    // vehicles of a world stepped on the updating thread alone and of one stepped in
+    // parallel (see VehicleStepper)
+    private static final int SERIAL_VEHICLES = 32;
+    private static final int PARALLEL_VEHICLES = 512;
+
+    // most bytes handing a partition to a physics thread may allocate per tick (the
+    // executor's task and queue node)
+    private static final int BYTES_PER_PARTITION = 128;
+
+    // most bytes a run may allocate no matter how many ticks it has
+    private static final int POOL_GROWTH_BYTES = 8 * 1024;
+
+    // prefix of the names of the threads vehicles are stepped on
+    private static final String PHYSICS_THREADS = "world-physics";
+
+    // counts the allocated bytes of threads
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Runs the scenarios and prints the bytes allocated per tick
+     *
+     * @param args number of measured ticks (optional)
+     */
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("This JVM can't count allocated bytes");
+            System.exit(1);
+        }
+
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        int physicsThreads = Runtime.getRuntime().availableProcessors() - 1;
+
+        boolean passed = run("serial", SERIAL_VEHICLES, ticks, 0);
+        passed &= run("parallel", PARALLEL_VEHICLES, ticks, physicsThreads * BYTES_PER_PARTITION);
+
+        System.out.println(passed ? "Ticks don't allocate" : "Ticks allocate more than they may");
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs a world and measures how much a tick allocates
+     *
+     * @param name name of the scenario
+     * @param vehicles number of vehicles in the world
+     * @param ticks number of ticks to measure
+     * @param budget most bytes a tick may allocate on average (on top of the pool growth)
+     * @return true if ticks allocated no more than the budget
+     */
+    private static boolean run(String name, int vehicles, int ticks, int budget) {
+        GameWorld world = TickBenchmark.createWorld(GameWorld.MAP_SEED, vehicles);
+        Random random = new Random(GameWorld.MAP_SEED);
+
+        play(world, random, WARMUP_TICKS);
+
+        // physics threads are started when they are first needed, so during the warmup
+        long[] ids = findSimulationThreads();
+
+        // reading the counters allocates a little too
+        long overhead = -(allocatedBytes(ids) - allocatedBytes(ids));
+
+        long start = allocatedBytes(ids);
+        play(world, random, ticks);
+        long allocated = allocatedBytes(ids) - start - overhead;
+
+        world.unloadResources();
+
+        boolean passed = allocated <= POOL_GROWTH_BYTES + (long) ticks * budget;
+
+        System.out.println(String.format("%s: %d vehicles, %d ticks, %d bytes allocated, %.2f per tick (at most %d + %d per tick)%s",
+                name, vehicles, ticks, allocated, allocated / (double) ticks, POOL_GROWTH_BYTES, budget, passed ? "" : " FAILED"));
+
+        return passed;
+    }
+
+    /**
+     * Runs ticks while the player presses random keys, the same way the game does
+     *
+     * @param world world to run
+     * @param random picks the keys
+     * @param ticks number of ticks to run
+     */
+    private static void play(GameWorld world, Random random, int ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            if (tick % INPUT_CHANGE_INTERVAL == 0) {
+                for (int key: KEYS) {
+                    if (random.nextInt(3) == 0) {
+                        world.keyDown(key);
+                    } else {
+                        world.keyUp(key);
+                    }
+                }
+            }
+
+            world.update(GameWorld.TICK_LENGTH);
+        }
+    }
+
+    /**
+     * Finds the threads the simulation runs on: the current thread and the physics
+     * threads. Other threads (map generation of other worlds, the JVM's own) don't count
+     * @return ids of the threads
+     */
+    private static long[] findSimulationThreads() {
+        Thread[] all = new Thread[Thread.activeCount() * 2];
+        int count = Thread.enumerate(all);
+
+        List<Long> ids = new ArrayList<Long>();
+        ids.add(Thread.currentThread().getId());
+
+        for (int i = 0; i < count; i++) {
+            if (all[i].getName().startsWith(PHYSICS_THREADS)) {
+                ids.add(all[i].getId());
+            }
+        }
+
+        long[] result = new long[ids.size()];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the bytes allocated by threads so far
+     * @param ids ids of the threads
+     * @return allocated bytes
+     */
+    private static long allocatedBytes(long[] ids) {
+        long total = 0;
+
+        for (long bytes: threads.getThreadAllocatedBytes(ids)) {
+            // -1 for threads that died in between
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,76 @@
+package com.gasis.digger.benchmark;
+
+import com.gasis.digger.logic.terrain.Map;
+import com.gasis.digger.utils.DaemonThreadFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to generate a whole map up front
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationBenchmark {
+
+    // size of the generated map in blocks (400 x 4096 is about 256 times the default map)
+    @Param({"25x256", "400x4096"})
+    public String size;
+
+    // number of threads used to generate the map
+    @Param({"1", "4"})
+    public int threads;
+
+    // threads the map is generated on
+    private ExecutorService workers;
+
+    // map being generated
+    private Map map;
+
+    /**
+     * Creates the map and the worker threads
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] dimensions = size.split("x");
+
+        map = new Map(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("generator"));
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Generates the whole map
+     */
+    @Benchmark
+    public Map generate() {
+        map.generateMap(2019, workers);
+
+        return map;
+    }
+}
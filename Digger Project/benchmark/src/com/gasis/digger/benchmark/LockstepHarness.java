@@ -0,0 +1,129 @@
+package com.gasis.digger.benchmark;
+
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.entities.Vehicle;
+import com.gasis.digger.logic.net.LockstepClient;
+import com.gasis.digger.logic.net.LockstepServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays a networked game between headless players over a loopback socket. Every
+ * player holds random keys, at the end all players must have the same state hash.
+ *
+ * Arguments: [players] [ticks] [desync]. With "desync" one player's vehicle is nudged
+ * halfway through the game, the players must notice that they went out of sync
+ */
+public class LockstepHarness {
+
+    // number of ticks between changes of a player's keys
+    private static final int INPUT_CHANGE_INTERVAL = 20;
+
+    // label of the state hash in a player's result
+    private static final String HASH = "hash ";
+
+    /**
+     * Runs the game and prints the result of every player
+     *
+     * @param args players, ticks and "desync" (all optional)
+     * @throws Exception if the game can't be set up
+     */
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 3600;
+        final boolean desync = args.length > 2 && args[2].equals("desync");
+
+        final LockstepServer server = new LockstepServer(0, players, GameWorld.MAP_SEED);
+        server.start();
+
+        ExecutorService threads = Executors.newFixedThreadPool(players);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+
+        for (int i = 0; i < players; i++) {
+            results.add(threads.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return play(server.getPort(), ticks, desync);
+                }
+            }));
+        }
+
+        String expected = null;
+        boolean inSync = true;
+
+        for (Future<String> result: results) {
+            String line = result.get();
+            System.out.println(line);
+
+            // only successful results end with a hash
+            String hash = line.contains(HASH) ? line.substring(line.lastIndexOf(HASH)) : null;
+
+            if (hash == null || (expected != null && !expected.equals(hash))) {
+                inSync = false;
+            }
+
+            expected = hash;
+        }
+
+        threads.shutdown();
+        server.close();
+
+        System.out.println(inSync ? "All players are in sync" : "Players went out of sync");
+
+        if (inSync == desync) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plays the game as a single player
+     *
+     * @param port port of the server
+     * @param ticks number of ticks to play
+     * @param desync true to nudge player 1's vehicle halfway through the game
+     * @return result of the player: traffic and the final state hash or the error
+     * @throws Exception if the player can't connect
+     */
+    private static String play(int port, int ticks, boolean desync) throws Exception {
+        LockstepClient client = LockstepClient.connect("localhost", port);
+        GameWorld world = new GameWorld(client.getSeed(), client.getPlayerCount());
+
+        Random random = new Random(client.getPlayer());
+        int input = 0;
+
+        String result;
+
+        try {
+            for (int tick = 0; tick < ticks; tick++) {
+                if (tick % INPUT_CHANGE_INTERVAL == 0) {
+                    input = random.nextInt(16);
+                }
+
+                if (desync && client.getPlayer() == 1 && tick == ticks / 2) {
+                    Vehicle vehicle = world.getVehicle(1);
+                    vehicle.setX(vehicle.getX() + 0.01f);
+                }
+
+                client.tick(world, input);
+            }
+
+            result = String.format("player %d: %d ticks, sent %.2f B/tick, received %.2f B/tick, " + HASH + "%08x",
+                    client.getPlayer(), world.getTickCount(),
+                    client.getBytesSent() / (double) ticks, client.getBytesReceived() / (double) ticks,
+                    world.hashState());
+        } catch (Exception ex) {
+            result = "player " + client.getPlayer() + ": stopped at tick " + world.getTickCount() + ": " + ex.getMessage();
+        } finally {
+            client.close();
+            world.unloadResources();
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package com.gasis.digger.benchmark;
+
+import com.badlogic.gdx.Input.Keys;
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.replay.InputRecorder;
+import com.gasis.digger.logic.replay.InputReplay;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+/**
+ * Replays recorded games (see InputRecorder) as fast as the simulation goes and checks
+ * that they are deterministic: every recorded state hash must match the replay's.
+ * Prints how long each replay took, so recordings of real games can be used as
+ * workloads to compare the speed of the simulation between changes.
+ *
+ * Arguments: files to replay, or "record" [file] [ticks] to record a game of a
+ * headless player holding random keys
+ */
+public class ReplayHarness {
+
+    // number of ticks between changes of the recorded player's keys
+    private static final int INPUT_CHANGE_INTERVAL = 20;
+
+    // keys the recorded player holds
+    private static final int[] KEYS = { Keys.LEFT, Keys.RIGHT, Keys.UP, Keys.DOWN };
+
+    /**
+     * Records or replays games
+     *
+     * @param args files to replay or "record" and the file and number of ticks to record
+     * @throws Exception if a recording can't be read or written
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("record")) {
+            record(new File(args.length > 1 ? args[1] : "game.rec"), args.length > 2 ? Integer.parseInt(args[2]) : 3600);
+            return;
+        }
+
+        boolean deterministic = true;
+
+        for (String path: args) {
+            deterministic &= replay(new File(path));
+        }
+
+        if (!deterministic) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Records a game of a player holding random keys
+     *
+     * @param file file to record to
+     * @param ticks number of ticks to record
+     * @throws Exception if the recording can't be written
+     */
+    private static void record(File file, int ticks) throws Exception {
+        GameWorld world = new GameWorld(GameWorld.MAP_SEED);
+        InputRecorder recorder = new InputRecorder(world, new BufferedOutputStream(new FileOutputStream(file)));
+        world.setInputRecorder(recorder);
+
+        Random random = new Random(GameWorld.MAP_SEED);
+
+        for (int tick = 0; tick < ticks; tick++) {
+            if (tick % INPUT_CHANGE_INTERVAL == 0) {
+                for (int key: KEYS) {
+                    if (random.nextInt(3) == 0) {
+                        world.keyDown(key);
+                    } else {
+                        world.keyUp(key);
+                    }
+                }
+            }
+
+            world.tick();
+        }
+
+        recorder.close();
+        world.unloadResources();
+
+        System.out.println(String.format("%s: recorded %d ticks in %d bytes", file, ticks, file.length()));
+    }
+
+    /**
+     * Replays a recording and prints the result
+     *
+     * @param file recording to replay
+     * @return true if every recorded state hash matched
+     * @throws Exception if the recording can't be read
+     */
+    private static boolean replay(File file) throws Exception {
+        InputReplay replay = InputReplay.open(file);
+        GameWorld world = replay.createWorld();
+
+        long start = System.nanoTime();
+        replay.run(world);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long ticks = world.getTickCount();
+        world.unloadResources();
+
+        System.out.println(String.format("%s: %d ticks in %.3f s (%.0f ticks/s, %.1fx real time)%s",
+                file, ticks, seconds, ticks / seconds, ticks * GameWorld.TICK_LENGTH / seconds,
+                replay.isComplete() ? "" : ", recording was cut short"));
+
+        if (replay.getMismatches() > 0) {
+            System.out.println(String.format("%s: %d of %d state hashes don't match, first at tick %d",
+                    file, replay.getMismatches(), replay.getHashesChecked(), replay.getFirstMismatch()));
+            return false;
+        }
+
+        System.out.println(String.format("%s: all %d state hashes match", file, replay.getHashesChecked()));
+        return true;
+    }
+}
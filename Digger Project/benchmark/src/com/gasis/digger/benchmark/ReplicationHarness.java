@@ -0,0 +1,152 @@
+package com.gasis.digger.benchmark;
+
+import com.badlogic.gdx.Input.Keys;
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.entities.Vehicle;
+import com.gasis.digger.logic.net.ReplicationClient;
+import com.gasis.digger.logic.net.ReplicationServer;
+import com.gasis.digger.logic.terrain.Map;
+
+import java.util.Random;
+
+/**
+ * Runs a replication server with many clients over localhost. Clients hold random keys
+ * for a while, then let go and wait for the vehicles to settle. At the end every
+ * client's world must show the same blocks as the server's and every vehicle within
+ * a quantization step of it's position on the server.
+ *
+ * Arguments: [clients] [seconds]
+ */
+public class ReplicationHarness {
+
+    // number of frames between changes of a client's keys
+    private static final int INPUT_CHANGE_INTERVAL = 20;
+
+    // seconds the vehicles get to settle after the keys are let go
+    private static final int SETTLE_SECONDS = 3;
+
+    // frames per second clients update at
+    private static final int FPS = 60;
+
+    // keys clients hold
+    private static final int[] KEYS = { Keys.LEFT, Keys.RIGHT, Keys.UP, Keys.DOWN };
+
+    /**
+     * Runs the server and the clients and prints the result
+     *
+     * @param args number of clients and seconds to play (both optional)
+     * @throws Exception if the server or a client fails
+     */
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        GameWorld serverWorld = new GameWorld(GameWorld.MAP_SEED);
+        ReplicationServer server = new ReplicationServer(serverWorld, 0);
+        server.start();
+
+        ReplicationClient[] clients = new ReplicationClient[clientCount];
+        GameWorld[] worlds = new GameWorld[clientCount];
+
+        for (int i = 0; i < clientCount; i++) {
+            clients[i] = ReplicationClient.connect("localhost", server.getPort());
+            worlds[i] = new GameWorld(clients[i].getSeed());
+        }
+
+        Random random = new Random(GameWorld.MAP_SEED);
+        float delta = 1f / FPS;
+
+        for (int frame = 0; frame < (seconds + SETTLE_SECONDS) * FPS; frame++) {
+            boolean playing = frame < seconds * FPS;
+
+            for (int i = 0; i < clientCount; i++) {
+                if (frame % INPUT_CHANGE_INTERVAL == 0) {
+                    for (int key: KEYS) {
+                        if (playing && random.nextInt(3) == 0) {
+                            worlds[i].keyDown(key);
+                        } else {
+                            worlds[i].keyUp(key);
+                        }
+                    }
+                }
+
+                clients[i].update(worlds[i], delta);
+            }
+
+            Thread.sleep(1000 / FPS);
+        }
+
+        long sent = server.getBytesSent();
+
+        // the world belongs to the server's thread until it's closed
+        server.close();
+
+        int ticks = (int) serverWorld.getTickCount();
+        int failed = 0;
+
+        for (int i = 0; i < clientCount; i++) {
+            // receive what's left and finish moving the vehicles
+            clients[i].update(worlds[i], 1);
+
+            String problem = compare(serverWorld, worlds[i]);
+
+            if (problem != null) {
+                System.out.println("client " + i + ": " + problem);
+                failed++;
+            }
+
+            clients[i].close();
+            worlds[i].unloadResources();
+        }
+
+        serverWorld.unloadResources();
+
+        System.out.println(String.format("%d clients, %d ticks, %d vehicles, %d snapshots per client",
+                clientCount, ticks, serverWorld.getVehicleCount(), clients[0].getSnapshots()));
+        System.out.println(String.format("server sent %.1f bytes per client per snapshot",
+                sent / (double) clientCount / clients[0].getSnapshots()));
+        System.out.println(failed == 0 ? "All clients match the server" : failed + " clients don't match the server");
+
+        if (failed > 0 || server.getError() != null) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares a client's world with the server's
+     *
+     * @param server server's world
+     * @param client client's world
+     * @return what doesn't match or null if everything does
+     */
+    private static String compare(GameWorld server, GameWorld client) {
+        if (server.getVehicleCount() != client.getVehicleCount()) {
+            return "has " + client.getVehicleCount() + " vehicles instead of " + server.getVehicleCount();
+        }
+
+        float tolerance = 0.5f / 128 + 1e-4f;
+
+        for (int i = 0; i < server.getVehicleCount(); i++) {
+            Vehicle expected = server.getVehicle(i);
+            Vehicle actual = client.getVehicle(i);
+
+            if (Math.abs(expected.getX() - actual.getX()) > tolerance || Math.abs(expected.getY() - actual.getY()) > tolerance) {
+                return "vehicle " + i + " is at " + actual.getX() + " " + actual.getY()
+                        + " instead of " + expected.getX() + " " + expected.getY();
+            }
+        }
+
+        Map serverMap = server.getMap();
+        Map clientMap = client.getMap();
+
+        for (int x = 0; x < serverMap.getWidth(); x++) {
+            for (int y = 0; y < serverMap.getHeight(); y++) {
+                if (serverMap.getBlock(x, y) != clientMap.getBlock(x, y)) {
+                    return "block " + x + " " + y + " differs";
+                }
+            }
+        }
+
+        return null;
+    }
+}
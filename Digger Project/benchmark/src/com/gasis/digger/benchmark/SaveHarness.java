@@ -0,0 +1,364 @@
+package com.gasis.digger.benchmark;
+
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.entities.Vehicle;
+import com.gasis.digger.logic.entities.VehicleState;
+import com.gasis.digger.logic.save.SaveFile;
+import com.gasis.digger.logic.terrain.Chunk;
+import com.gasis.digger.logic.terrain.Map;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Checks the save format: drills a seeded world, saves it, loads it again and compares
+ * the two, then damages the save and checks that it's rejected. Worlds are compared by
+ * everything a save holds (every block and the state of every vehicle), the tick count
+ * and the held keys are not saved. A loaded world that is saved again without touching
+ * it's chunks must save the same world, that's where saved chunks are copied over
+ * without being decoded.
+ *
+ * Both worlds are then run on with the same keys and compared again, so restored
+ * drilling progress is checked too. Vehicles piled up in the same cell of the vehicle
+ * grid collide in the order they moved into it, which is not saved, so a difference
+ * there is only reported (the default workload doesn't pile vehicles up).
+ *
+ * Autosaves are checked the same way, and an autosave that can't be written must be
+ * reported by the world instead of failing on the saving thread.
+ *
+ * Truncated saves must fail to open with an IOException. Saves with a flipped bit must
+ * either fail the same way or load without errors (a flipped bit in a position is
+ * still a valid save). Exits with an error if any check fails.
+ *
+ * Arguments: [ticks] [vehicles] [flips] (ticks drilled before saving, vehicles
+ * drilling and saves with a flipped bit to open)
+ */
+public class SaveHarness {
+
+    // ticks both worlds run after loading, to compare how they go on
+    private static final int CONTINUE_TICKS = 600;
+
+    // number of places a save is cut short at, spread over the whole file
+    private static final int TRUNCATIONS = 64;
+
+    /**
+     * Runs the checks
+     *
+     * @param args number of ticks, vehicles and flipped bits
+     * @throws Exception if the save can't be written or read
+     */
+    public static void main(String[] args) throws Exception {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 3600;
+        int vehicles = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int flips = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        File file = File.createTempFile("world", ".sav");
+        File damaged = File.createTempFile("damaged", ".sav");
+        file.deleteOnExit();
+        damaged.deleteOnExit();
+
+        boolean passed = checkRoundTrip(file, ticks, vehicles);
+        passed &= checkAutosave(file, ticks, vehicles);
+
+        byte[] data = readAll(file);
+        SaveFile save = SaveFile.open(file);
+
+        passed &= checkTruncated(data, damaged);
+        passed &= checkFlipped(data, damaged, flips, Math.max(save.getWidth(), save.getHeight()));
+
+        if (!passed) {
+            System.exit(1);
+        }
+
+        System.out.println("Saves load back the same world and damaged saves are rejected");
+    }
+
+    /**
+     * Saves a drilled world, loads it and compares the two
+     *
+     * @param file file to save to
+     * @param ticks ticks to drill before saving
+     * @param vehicles number of vehicles drilling
+     * @return true if the loaded world matches
+     * @throws Exception if the save can't be written or read
+     */
+    private static boolean checkRoundTrip(File file, int ticks, int vehicles) throws Exception {
+        GameWorld world = TickBenchmark.createWorld(GameWorld.MAP_SEED, vehicles);
+
+        // which vehicles sleep is not saved, and when they are woken up depends on the
+        // tick count, so every vehicle is kept awake for the worlds to go on the same way
+        float awakeRadius = Math.max(world.getMap().getWidth(), world.getMap().getHeight());
+        world.setActiveRadius(awakeRadius);
+
+        for (int tick = 0; tick < ticks; tick++) {
+            world.tick();
+        }
+
+        world.save(file).get();
+
+        SaveFile save = SaveFile.open(file);
+        GameWorld loaded = new GameWorld(save, false);
+
+        boolean passed = compare("loaded", world, loaded);
+
+        // saving a world whose chunks were never generated copies them from the old save
+        GameWorld untouched = new GameWorld(save, true);
+        File copy = new File(file.getPath() + ".copy");
+        copy.deleteOnExit();
+
+        untouched.save(copy).get();
+        untouched.unloadResources();
+
+        GameWorld copied = new GameWorld(SaveFile.open(copy), false);
+        passed &= compare("saved again", world, copied);
+        copied.unloadResources();
+
+        loaded.setActiveRadius(awakeRadius);
+
+        // the held keys are not saved
+        for (int i = 0; i < world.getVehicleCount(); i++) {
+            loaded.getVehicle(i).setInput(world.getVehicle(i).getInput());
+        }
+
+        for (int tick = 0; tick < CONTINUE_TICKS; tick++) {
+            world.tick();
+            loaded.tick();
+        }
+
+        if (!compare("run on", world, loaded)) {
+            System.out.println("run on: worlds went apart, vehicles piled up in the same cells collide in another order");
+        }
+
+        System.out.println(String.format("%d ticks, %d vehicles, %d chunks saved in %d bytes",
+                ticks, vehicles, save.getChunkCount(), file.length()));
+
+        world.unloadResources();
+        loaded.unloadResources();
+
+        return passed;
+    }
+
+    /**
+     * Autosaves a drilled world and loads the autosave, then autosaves a world to a
+     * folder that doesn't exist and checks that the world reports the error
+     *
+     * @param file file the round trip saved to, the autosave is written next to it
+     * @param ticks ticks to drill before the autosave
+     * @param vehicles number of vehicles drilling
+     * @return true if the autosave matches and the failed one is reported
+     * @throws Exception if the autosave can't be read
+     */
+    private static boolean checkAutosave(File file, int ticks, int vehicles) throws Exception {
+        File autosave = new File(file.getPath() + ".auto");
+        autosave.deleteOnExit();
+
+        GameWorld world = TickBenchmark.createWorld(GameWorld.MAP_SEED, vehicles);
+        world.setAutosave(autosave, ticks);
+
+        // the last tick is autosaved
+        for (int tick = 0; tick < ticks; tick++) {
+            world.tick();
+        }
+
+        // waits for the autosave to be written
+        world.unloadResources();
+
+        boolean passed = world.getAutosaveError() == null;
+
+        if (passed) {
+            GameWorld loaded = new GameWorld(SaveFile.open(autosave), false);
+            passed = compare("autosaved", world, loaded);
+            loaded.unloadResources();
+        } else {
+            System.out.println("autosaved: " + world.getAutosaveError());
+        }
+
+        GameWorld failing = TickBenchmark.createWorld(GameWorld.MAP_SEED, vehicles);
+        failing.setAutosave(new File(file.getPath() + ".missing", "world.sav"), 1);
+        failing.tick();
+        failing.unloadResources();
+
+        IOException error = failing.getAutosaveError();
+        System.out.println("failed autosave: " + (error != null ? "reported, " + error : "not reported"));
+
+        return passed && error != null;
+    }
+
+    /**
+     * Compares the saved state of two worlds and prints the result
+     *
+     * @param name name of the check
+     * @param expected world that was saved
+     * @param actual world that was loaded
+     * @return true if they match
+     */
+    private static boolean compare(String name, GameWorld expected, GameWorld actual) {
+        int expectedHash = hashSavedState(expected);
+        int actualHash = hashSavedState(actual);
+
+        System.out.println(String.format("%s: %08x, expected %08x%s", name, actualHash, expectedHash,
+                actualHash == expectedHash ? "" : " MISMATCH"));
+
+        return actualHash == expectedHash;
+    }
+
+    /**
+     * Hashes everything a save holds: every block and the state of every vehicle
+     * @param world world to hash
+     * @return hash of the state
+     */
+    private static int hashSavedState(GameWorld world) {
+        Map map = world.getMap();
+        VehicleState state = new VehicleState();
+
+        int hash = map.getWidth();
+        hash = 31 * hash + map.getHeight();
+
+        for (int x = 0; x < map.getWidth(); x++) {
+            for (int y = 0; y < map.getHeight(); y++) {
+                hash = 31 * hash + map.getBlock(x, y);
+            }
+        }
+
+        for (int i = 0; i < world.getVehicleCount(); i++) {
+            Vehicle vehicle = world.getVehicle(i);
+            vehicle.getState(state);
+
+            hash = 31 * hash + state.drill.ordinal();
+            hash = 31 * hash + state.engine.ordinal();
+            hash = 31 * hash + Float.floatToIntBits(state.x);
+            hash = 31 * hash + Float.floatToIntBits(state.y);
+            hash = 31 * hash + Float.floatToIntBits(state.xSpeed);
+            hash = 31 * hash + Float.floatToIntBits(state.ySpeed);
+            hash = 31 * hash + (state.drilling ? 1 : 0);
+            hash = 31 * hash + state.drilledBlockX;
+            hash = 31 * hash + state.drilledBlockY;
+            hash = 31 * hash + state.drilledBlockType;
+            hash = 31 * hash + Float.floatToIntBits(state.drillRotation);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Cuts the save short at places spread over the whole file, every cut must fail
+     * to open with an IOException
+     *
+     * @param data contents of the save
+     * @param damaged file to write the cut saves to
+     * @return true if every cut save was rejected
+     * @throws IOException if the cut save can't be written
+     */
+    private static boolean checkTruncated(byte[] data, File damaged) throws IOException {
+        int rejected = 0;
+
+        for (int i = 0; i < TRUNCATIONS; i++) {
+            int length = (int) ((long) data.length * i / TRUNCATIONS);
+
+            write(damaged, data, length);
+
+            try {
+                SaveFile.open(damaged);
+                System.out.println(String.format("truncated to %d bytes: opened", length));
+            } catch (IOException ex) {
+                rejected++;
+            } catch (RuntimeException ex) {
+                System.out.println(String.format("truncated to %d bytes: %s", length, ex));
+            }
+        }
+
+        System.out.println(String.format("truncated: %d of %d rejected", rejected, TRUNCATIONS));
+
+        return rejected == TRUNCATIONS;
+    }
+
+    /**
+     * Flips random bits of the save, every damaged save must either fail to open with
+     * an IOException or load into a world without errors. Worlds are loaded the way the
+     * game loads them, in the background, since a flipped bit can make the map huge
+     *
+     * @param data contents of the save
+     * @param damaged file to write the damaged saves to
+     * @param flips number of damaged saves to open
+     * @param size largest side of the saved map in blocks
+     * @return true if no damaged save failed in any other way
+     * @throws IOException if the damaged save can't be written
+     */
+    private static boolean checkFlipped(byte[] data, File damaged, int flips, int size) throws IOException {
+        Random random = new Random(GameWorld.MAP_SEED);
+        int rejected = 0;
+        int crashed = 0;
+
+        for (int i = 0; i < flips; i++) {
+            int position = random.nextInt(data.length);
+            int bit = 1 << random.nextInt(8);
+
+            data[position] ^= bit;
+            write(damaged, data, data.length);
+            data[position] ^= bit;
+
+            GameWorld world = null;
+
+            try {
+                world = new GameWorld(SaveFile.open(damaged), true);
+
+                // the whole saved map is generated, so every saved chunk is decoded
+                world.getMap().loadChunksAround(0, 0, (size >> Chunk.SHIFT) + 1);
+            } catch (IOException ex) {
+                rejected++;
+            } catch (RuntimeException ex) {
+                crashed++;
+                System.out.println(String.format("bit %d of byte %d flipped: %s", Integer.numberOfTrailingZeros(bit), position, ex));
+            } finally {
+                if (world != null) {
+                    world.unloadResources();
+                }
+            }
+        }
+
+        System.out.println(String.format("flipped: %d rejected, %d loaded, %d crashed",
+                rejected, flips - rejected - crashed, crashed));
+
+        return crashed == 0;
+    }
+
+    /**
+     * Reads a whole file
+     * @param file file to read
+     * @return contents
+     * @throws IOException if the file can't be read
+     */
+    private static byte[] readAll(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes the start of an array to a file
+     *
+     * @param file file to write
+     * @param data data to write
+     * @param length number of bytes to write
+     * @throws IOException if the file can't be written
+     */
+    private static void write(File file, byte[] data, int length) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(data, 0, length);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.gasis.digger.benchmark;
+
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.entities.Vehicle;
+import com.gasis.digger.logic.entities.upgrades.Drill;
+import com.gasis.digger.logic.entities.upgrades.Engine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many simulation ticks per second a headless world can run
+ * with a given number of vehicles
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TickBenchmark {
+
+    // number of vehicles in the world (including the player)
+    @Param({"1", "16", "256"})
+    public int vehicles;
+
+    // seed of the map, fixed so every run simulates the same world
+    @Param({"2019"})
+    public int seed;
+
+    // world being simulated
+    private GameWorld world;
+
+    /**
+     * Creates a fresh world before every iteration, so drilling during one
+     * iteration doesn't change the workload of the next one
+     */
+    @Setup(Level.Iteration)
+    public void setup() {
+        world = createWorld(seed, vehicles);
+    }
+
+    /**
+     * Stops the threads of the world, otherwise every iteration would leave a set of
+     * idle threads behind in the measured JVM
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        world.unloadResources();
+    }
+
+    /**
+     * Runs a single simulation tick
+     */
+    @Benchmark
+    public void tick() {
+        world.tick();
+    }
+
+    /**
+     * Creates a headless world with vehicles spread over the top of the map, every
+     * vehicle holds a random set of direction keys so they move and drill
+     *
+     * @param seed seed of the map
+     * @param vehicles total number of vehicles (including the player)
+     * @return created world
+     */
+    public static GameWorld createWorld(int seed, int vehicles) {
+        GameWorld world = new GameWorld(seed);
+        Random random = new Random(seed);
+
+        int width = world.getMap().getWidth();
+        int top = world.getMap().getHeight() - 1;
+
+        for (int i = 0; i < vehicles; i++) {
+            Vehicle vehicle;
+
+            if (i == 0) {
+                vehicle = world.getVehicle(0);
+            } else {
+                vehicle = new Vehicle(Drill.STOCK, Engine.STOCK);
+                world.addVehicle(vehicle);
+            }
+
+            vehicle.setX(random.nextInt(width));
+            vehicle.setY(top);
+
+            vehicle.setAcceleratingDown(random.nextBoolean());
+            vehicle.setAcceleratingLeft(random.nextInt(4) == 0);
+            vehicle.setAcceleratingRight(random.nextInt(4) == 0);
+        }
+
+        return world;
+    }
+}
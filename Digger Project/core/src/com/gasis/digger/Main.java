@@ -3,8 +3,10 @@ package com.gasis.digger;
 import com.badlogic.gdx.Game;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.profiling.GLProfiler;
 import com.badlogic.gdx.utils.viewport.FillViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
+import com.gasis.digger.resources.AssetStreamer;
 import com.gasis.digger.resources.Resources;
 import com.gasis.digger.ui.abstractions.BasicScreen;
 import com.gasis.digger.ui.abstractions.ScreenSwitcher;
@@ -12,7 +14,10 @@ import com.gasis.digger.ui.abstractions.ScreenWithInput;
 import com.gasis.digger.ui.implementations.GameScreen;
 import com.gasis.digger.ui.implementations.LoadingScreen;
 import com.gasis.digger.utils.Constants;
+import com.gasis.digger.utils.FrameProfiler;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -30,6 +35,34 @@ public class Main extends Game implements ScreenSwitcher {
 	// viewport used by all screens
 	private Viewport port = new FillViewport(Constants.WIDTH, Constants.HEIGHT);
 
+	// file the input of the game is recorded to (null if the game is not recorded)
+	private final File recording;
+
+	// file the metrics of every frame are exported to (null if the game is not profiled)
+	private final File metrics;
+
+	// measures every frame (null if the game is not profiled)
+	private FrameProfiler profiler;
+
+	/**
+	 * Default class constructor
+	 */
+	public Main() {
+		this(null, null);
+	}
+
+	/**
+	 * Creates a game that records it's input or is profiled
+	 * @param recording file to record the input of a new world to (see InputRecorder),
+	 * null to play the saved world without recording
+	 * @param metrics file to export the metrics of every frame to when the game exits
+	 * (CSV or JSON, see FrameProfiler.export()), null to not profile the game
+	 */
+	public Main(File recording, File metrics) {
+		this.recording = recording;
+		this.metrics = metrics;
+	}
+
 	/**
 	 * Performs initialization. Called automatically by libGDX
 	 */
@@ -37,16 +70,24 @@ public class Main extends Game implements ScreenSwitcher {
 	public void create () {
 		resources = new Resources();
 
+		if (metrics != null) {
+			profiler = new FrameProfiler();
+			profiler.setGLProfiler(new GLProfiler(Gdx.graphics));
+		}
+
 		// initialize stuff for the loading screen
-		GameScreen gameScreen = new GameScreen();
+		GameScreen gameScreen = new GameScreen(recording);
 
-		String loadingImage = "textures.png";
+		// the page of the atlas is shown while loading, loading the page image on
+		// it's own would decode it once more even when the atlas is baked
+		String loadingImage = "textures.atlas";
 
+		// assets the game can't be shown without, the loading screen waits only for them
 		Map<String, Class> assets = new TreeMap<String, Class>();
 		assets.put("textures.atlas", TextureAtlas.class);
 
 		// show the loading screen
-		showScreen(new LoadingScreen(gameScreen, loadingImage,
+		showScreen(new LoadingScreen(gameScreen, loadingImage, TextureAtlas.class,
 					true, assets, null));
 	}
 
@@ -55,7 +96,17 @@ public class Main extends Game implements ScreenSwitcher {
 	 */
 	@Override
 	public void render () {
+		// requested assets keep loading during the game
+		resources.stream(AssetStreamer.DEFAULT_TIME_SLICE);
+
+		if (profiler == null) {
+			super.render();
+			return;
+		}
+
+		profiler.beginFrame();
 		super.render();
+		profiler.endFrame(currentScreen.getBatch());
 	}
 
 	/**
@@ -68,6 +119,21 @@ public class Main extends Game implements ScreenSwitcher {
 		}
 
 		resources.dispose();
+
+		if (profiler != null) {
+			exportMetrics();
+		}
+	}
+
+	/**
+	 * Writes the metrics of the profiled frames to the metrics file
+	 */
+	private void exportMetrics() {
+		try {
+			profiler.export(metrics);
+		} catch (IOException ex) {
+			Gdx.app.error("Main", "Could not export the metrics", ex);
+		}
 	}
 
 	/**
@@ -82,6 +148,7 @@ public class Main extends Game implements ScreenSwitcher {
 
 		this.currentScreen = screen;
 		this.currentScreen.setViewport(port);
+		this.currentScreen.setProfiler(profiler);
 		this.currentScreen.initialize();
 		this.currentScreen.setResources(resources);
 		this.currentScreen.setScreenSwitcher(this);
@@ -3,38 +3,184 @@ package com.gasis.digger.logic;
 import com.badlogic.gdx.Input.Keys;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
 import com.gasis.digger.logic.entities.Vehicle;
+import com.gasis.digger.logic.entities.VehicleGrid;
+import com.gasis.digger.logic.entities.VehicleRenderer;
+import com.gasis.digger.logic.entities.VehicleState;
+import com.gasis.digger.logic.entities.VehicleStepper;
+import com.gasis.digger.logic.entities.VehicleStore;
 import com.gasis.digger.logic.entities.upgrades.Drill;
 import com.gasis.digger.logic.entities.upgrades.Engine;
+import com.gasis.digger.logic.net.LockstepClient;
+import com.gasis.digger.logic.replay.InputRecorder;
+import com.gasis.digger.logic.save.Autosaver;
+import com.gasis.digger.logic.save.SaveFile;
+import com.gasis.digger.logic.save.WorldSnapshot;
+import com.gasis.digger.logic.terrain.Autotiles;
+import com.gasis.digger.logic.terrain.BlockListener;
+import com.gasis.digger.logic.terrain.Chunk;
 import com.gasis.digger.logic.terrain.Map;
+import com.gasis.digger.logic.terrain.TerrainRenderer;
+import com.gasis.digger.resources.AssetHandle;
 import com.gasis.digger.resources.Resources;
 import com.gasis.digger.utils.Constants;
+import com.gasis.digger.utils.DaemonThreadFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Game world. Holds game state, draws the game world and updates it
+ * Game world. Holds game state, draws the game world and updates it. A world created
+ * without resources is headless: it can be updated but not drawn
  */
 public class GameWorld {
 
-    // resources used by the game
+    // resources used by the game (null if the world is headless)
     private Resources resources;
 
+    // texture atlas the renderers draw with (null if the world is headless)
+    private AssetHandle<TextureAtlas> textures;
+
     // game terrain
     private Map map;
 
+    // draws the terrain from cached geometry (null if the world is headless)
+    private TerrainRenderer terrainRenderer;
+
+    // draws vehicles (null if the world is headless)
+    private VehicleRenderer vehicleRenderer;
+
+    // threads chunks are generated on in the background (null unless the map is
+    // generated lazily, maps generated up front use a pool only while generating)
+    private ExecutorService workers;
+
+    // threads vehicles are stepped on in parallel (the updating thread steps some too)
+    private final int physicsThreads = Runtime.getRuntime().availableProcessors() - 1;
+    private ExecutorService physics = Executors.newFixedThreadPool(
+            Math.max(1, physicsThreads), new DaemonThreadFactory("world-physics"));
+
+    // writes saves in the background, a single thread so saves are written in order
+    private ExecutorService saver = Executors.newSingleThreadExecutor(new DaemonThreadFactory("world-saver"));
+
     // seed used to gene the map
-    private final int MAP_SEED = 2019;
+    public static final int MAP_SEED = 2019;
+
+    // how long to wait for a save that is still being written when the world is unloaded
+    private static final long SAVE_TIMEOUT_SECONDS = 10;
+
+    // seed of this world's map
+    private int seed;
+
+    // save the world was loaded from (null if it is a new world)
+    private SaveFile save;
+
+    // default number of ticks between autosaves (one minute)
+    public static final int AUTOSAVE_INTERVAL = 60 * 60;
+
+    // saves the world every autosaveInterval ticks (null if autosaving is off)
+    private Autosaver autosaver;
+    private int autosaveInterval;
 
     // vehicles roaming in the map
     // first index (0) is always the (host) player
     private List<Vehicle> vehicles = new ArrayList<Vehicle>();
 
-    // g value of the world, but it is low because the game takes place underwater
+    // state of the vehicles, kept in parallel arrays so the whole fleet can be moved
+    // in one pass. Also keeps the list of vehicles that are awake
+    private final VehicleStore store = new VehicleStore();
+
+    // steps awake vehicles in parallel
+    private final VehicleStepper stepper = new VehicleStepper(physics, physicsThreads);
+
+    // vehicles by position, updated every tick. Used for culling, proximity queries
+    // and collisions between vehicles
+    private final VehicleGrid grid = new VehicleGrid();
+
+    // reused for grid query results, so queries don't create garbage
+    private final Array<Vehicle> nearby = new Array<Vehicle>();
+
+    // default distance from the player (in blocks) within which vehicles are awake
+    public static final float ACTIVE_RADIUS = 16;
+
+    // how much further than the active radius a vehicle has to get to fall asleep, so
+    // vehicles moving along the edge don't wake up and fall asleep every tick
+    private static final float SLEEP_MARGIN = 4;
+
+    // number of ticks between looking for sleeping vehicles near the player. Vehicles
+    // move less than a block in that time, so the sleep margin covers it
+    private static final int WAKE_INTERVAL = 8;
+
+    // distance from a removed block within which sleeping vehicles wake up
+    private static final float TERRAIN_WAKE_RADIUS = 2;
+
+    // distance from the player within which vehicles are awake
+    private float activeRadius = ACTIVE_RADIUS;
+
+    // reused for query results of vehicles to wake up
+    private final Array<Vehicle> waking = new Array<Vehicle>();
+
+    // g value of the world (per tick), but it is low because the game takes place underwater
     public static final float GRAVITY = 0.001f;
 
-    // how far the vehicle is allowed to go from the camera's position for it to update
+    // length of a single simulation tick in seconds. Speeds, gravity and so on are
+    // per tick, so the game behaves the same no matter the frame rate
+    public static final float TICK_LENGTH = 1 / 60f;
+
+    // most ticks a single update can run, if rendering is slower than that the game
+    // slows down instead of spending even more time catching up
+    public static final int MAX_TICKS_PER_UPDATE = 5;
+
+    // time that was not simulated yet
+    private float accumulator = 0;
+
+    // how far the rendered frame is between the last two ticks (0 - 1)
+    private float alpha = 0;
+
+    // number of ticks simulated so far
+    private long tickCount = 0;
+
+    // vehicles controlled by players (in networked games the first vehicles of the list)
+    private final List<Vehicle> players = new ArrayList<Vehicle>();
+
+    // index of the vehicle controlled on this machine
+    private int localPlayer = 0;
+
+    // distance between the spawn points of players
+    private static final int PLAYER_SPACING = 2;
+
+    // input of the local player (VehicleStore.INPUT_* flags)
+    private int localInput = 0;
+
+    // exchanges inputs with the other players of a networked game (null if the game
+    // is not networked)
+    private LockstepClient lockstep;
+
+    // error that stopped the networked game (null if there was none)
+    private IOException lockstepError;
+
+    // records the key events (null if the game is not recorded)
+    private InputRecorder recorder;
+
+    // hash of the blocks removed so far, in the order they were removed
+    private int terrainHash = 0;
+
+    // notified about blocks removed from the map (null if none)
+    private BlockListener blockListener;
+
+    // part of the world visible to the camera, updated before drawing
+    private final Rectangle view = new Rectangle();
+
+    // how far the player is allowed to go from the camera's position before the camera follows
     private final float xMargin = Constants.WIDTH * 0.15f;
     private final float yMargin = Constants.WIDTH * 0.15f * 0.25f;
 
@@ -43,49 +189,513 @@ public class GameWorld {
      * @param resources resources used by the game
      */
     public GameWorld(Resources resources) {
+        this(resources, null);
+    }
+
+    /**
+     * Creates a world from a save
+     * @param resources resources used by the game
+     * @param save save to load the world from, null to create a new world
+     */
+    public GameWorld(Resources resources, SaveFile save) {
+        initialize(save == null ? MAP_SEED : save.getSeed(), true, save, 1);
+        createRenderers(resources);
+    }
+
+    /**
+     * Creates a world for a networked game. Every player gets a vehicle, the host's
+     * being the first. The whole map is generated up front, background generation
+     * depends on timing and every player must see the same blocks at the same tick
+     * @param resources resources used by the game
+     * @param seed seed of the map
+     * @param players number of players
+     */
+    public GameWorld(Resources resources, int seed, int players) {
+        initialize(seed, false, null, players);
+        createRenderers(resources);
+    }
+
+    /**
+     * Creates the renderers
+     * @param resources resources used by the game
+     */
+    private void createRenderers(Resources resources) {
         this.resources = resources;
 
-        map = new Map(resources.atlas("textures.atlas"));
-        map.generateMap(MAP_SEED);
+        // the renderers look their regions up once and keep drawing them, the handle
+        // keeps the atlas from being unloaded until unloadResources() releases it
+        textures = resources.handle("textures.atlas", TextureAtlas.class);
+
+        terrainRenderer = new TerrainRenderer(map, new Autotiles(textures.get()));
+        vehicleRenderer = new VehicleRenderer(textures.get());
+    }
+
+    /**
+     * Creates a headless world that doesn't need any resources and can't be drawn,
+     * used to run the simulation without a display. The whole map is generated up
+     * front, so the simulation doesn't depend on background generation timing
+     * @param seed seed of the map
+     */
+    public GameWorld(int seed) {
+        this(seed, false);
+    }
+
+    /**
+     * Creates a headless world
+     * @param seed seed of the map
+     * @param lazyGeneration true if the map should be generated in the background
+     * as vehicles and the camera get close, false to generate it all up front
+     */
+    public GameWorld(int seed, boolean lazyGeneration) {
+        initialize(seed, lazyGeneration, null, 1);
+    }
+
+    /**
+     * Creates a headless world for a networked game, the whole map is generated up
+     * front (see GameWorld(Resources, int, int))
+     * @param seed seed of the map
+     * @param players number of players
+     */
+    public GameWorld(int seed, int players) {
+        initialize(seed, false, null, players);
+    }
+
+    /**
+     * Creates a headless world from a save
+     * @param save save to load the world from
+     * @param lazyGeneration true if the map should be generated in the background,
+     * false to generate it all up front
+     */
+    public GameWorld(SaveFile save, boolean lazyGeneration) {
+        initialize(save.getSeed(), lazyGeneration, save, 1);
+    }
+
+    /**
+     * Generates the map and puts the vehicles into it
+     * @param seed seed of the map
+     * @param lazyGeneration true if the map should be generated in the background
+     * @param save save to restore the map and the vehicles from, null if none
+     * @param players number of players (saved worlds only have one)
+     */
+    private void initialize(int seed, boolean lazyGeneration, SaveFile save, int players) {
+        this.seed = seed;
+        this.save = save;
+
+        map = save == null ? new Map() : new Map(save.getWidth(), save.getHeight());
+
+        if (lazyGeneration) {
+            workers = createWorkers();
+            map.generateMapLazily(seed, workers);
+        } else {
+            ExecutorService generators = createWorkers();
+
+            try {
+                map.generateMap(seed, generators);
+            } finally {
+                generators.shutdown();
+            }
+        }
+
+        // saved chunks are only decoded when they are generated
+        map.setSavedChunks(save);
+
+        // vehicles might have been standing on the removed block
+        map.setBlockListener(new BlockListener() {
+            @Override
+            public void blockRemoved(int x, int y) {
+                terrainHash = 31 * terrainHash + ((x << 16) | y);
+
+                wakeVehiclesNear(x + 0.5f, y + 0.5f, TERRAIN_WAKE_RADIUS);
+
+                if (blockListener != null) {
+                    blockListener.blockRemoved(x, y);
+                }
+            }
+        });
+
+        if (save == null || save.getVehicleCount() == 0) {
+            for (int i = 0; i < players; i++) {
+                addPlayer();
+            }
+        } else {
+            restoreVehicles(save);
+        }
 
-        initializePlayer();
+        // the area around the player is needed right away
+        map.loadChunksAround(vehicles.get(0).getX(), vehicles.get(0).getY(), 1);
     }
 
     /**
-     * Initialize player's data
+     * Adds a vehicle controlled by a player. Players spawn next to each other on the
+     * surface, they never sleep and keep the vehicles around them awake
+     * @return player's vehicle
      */
-    private void initializePlayer() {
-        Vehicle player = new Vehicle(resources, Drill.STOCK, Engine.STOCK);
-        player.setX(5);
+    public Vehicle addPlayer() {
+        Vehicle player = new Vehicle(Drill.STOCK, Engine.STOCK);
+        player.setX((5 + players.size() * PLAYER_SPACING) % map.getWidth());
         player.setY(252);
 
-        vehicles.add(player);
+        addVehicle(player);
+        players.add(player);
+
+        return player;
+    }
+
+    /**
+     * Stops treating a vehicle as a player's (when the player leaves). The vehicle
+     * stays in the world, but it's input is cleared and it can fall asleep
+     * @param player player's vehicle
+     */
+    public void removePlayer(Vehicle player) {
+        player.setInput(0);
+        players.remove(player);
+    }
+
+    /**
+     * Creates a pool with a thread for every core to generate chunks on
+     * @return thread pool
+     */
+    private static ExecutorService createWorkers() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new DaemonThreadFactory("world-worker"));
+    }
+
+    /**
+     * Puts the saved vehicles into the world
+     * @param save save to take the vehicles from
+     */
+    private void restoreVehicles(SaveFile save) {
+        for (int i = 0; i < save.getVehicleCount(); i++) {
+            VehicleState state = save.getVehicle(i);
+
+            Vehicle vehicle = new Vehicle(state.drill, state.engine);
+            vehicle.setState(state);
+
+            addVehicle(vehicle);
+        }
+
+        // the first saved vehicle is the player's
+        players.add(vehicles.get(0));
+    }
+
+    /**
+     * Saves the world. Only the changed chunks and the vehicles are copied here,
+     * encoding and writing happens in the background, so this can be called between
+     * frames without stalling the game
+     * @param file file to save to
+     * @return result of the save, get() throws if the save failed
+     */
+    public Future<Void> save(final File file) {
+        final WorldSnapshot snapshot = takeSnapshot();
+
+        return saver.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                snapshot.write(file);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Turns on autosaving. Snapshots are taken between ticks and written in the
+     * background, a snapshot doesn't copy any chunks, so autosaving doesn't affect
+     * the frame time no matter how much of the map was changed
+     * @param file file to save to
+     * @param interval number of ticks between saves
+     */
+    public void setAutosave(File file, int interval) {
+        autosaver = new Autosaver(file, saver);
+        autosaveInterval = interval;
+    }
+
+    /**
+     * Gets the error of the last autosave
+     * @return error or null if autosaving is off or the last autosave succeeded
+     */
+    public IOException getAutosaveError() {
+        return autosaver != null ? autosaver.getLastError() : null;
+    }
+
+    /**
+     * Takes a snapshot of the world's state for saving
+     * @return snapshot
+     */
+    private WorldSnapshot takeSnapshot() {
+        VehicleState[] states = new VehicleState[vehicles.size()];
+
+        for (int i = 0; i < states.length; i++) {
+            states[i] = vehicles.get(i).getState(new VehicleState());
+        }
+
+        List<Chunk> modified = new ArrayList<Chunk>();
+        map.getModifiedChunks(modified);
+
+        return new WorldSnapshot(seed, map.getWidth(), map.getHeight(), states, modified, save);
+    }
+
+    /**
+     * Called when the terrain should render itself. Terrain is drawn with it's own
+     * cached geometry, so this must be called outside of SpriteBatch.begin() and end()
+     * @param cam world's camera
+     */
+    public void drawTerrain(OrthographicCamera cam) {
+        updateView(cam);
+
+        terrainRenderer.draw(cam.combined, view);
     }
 
     /**
-     * Called when the game should render itself
+     * Updates the visible part of the world from the camera
+     *
+     * @param cam world's camera
+     */
+    private void updateView(OrthographicCamera cam) {
+        float width = cam.viewportWidth * cam.zoom;
+        float height = cam.viewportHeight * cam.zoom;
+
+        view.set(cam.position.x - width / 2f, cam.position.y - height / 2f, width, height);
+    }
+
+    /**
+     * Called when the game should render itself. Uses the view updated by
+     * drawTerrain(), so it must be called after it
      * @param batch sprite batch to draw sprites with
      * @param delta time elapsed since last render
      */
     public void draw(SpriteBatch batch, float delta) {
-        map.draw(batch, delta, (int) vehicles.get(0).getX(), (int) vehicles.get(0).getY());
+        // only vehicles inside the view (with a block of margin, since vehicles are drawn
+        // at their interpolated position, which is behind the position in the grid)
+        nearby.clear();
+        grid.query(view.x - 1, view.y - 1, view.width + 2, view.height + 2, nearby);
 
-        for (Vehicle vehicle: vehicles) {
-            vehicle.draw(batch, delta);
+        for (int i = 0; i < nearby.size; i++) {
+            vehicleRenderer.draw(batch, nearby.get(i), alpha);
         }
     }
 
     /**
-     * Called when the game state should be updated
-     * @param cam world's camera
+     * Called when the game state should be updated. Runs as many fixed length simulation
+     * ticks as fit into the elapsed time (but no more than MAX_TICKS_PER_UPDATE), the
+     * rest of the time is carried over to the next update
      * @param delta time elapsed since last update
      */
-    public void update(OrthographicCamera cam, float delta) {
-        updateCameraPosition(cam);
+    public void update(float delta) {
+        accumulator += delta;
+
+        int ticks = 0;
+
+        while (accumulator >= TICK_LENGTH && ticks < MAX_TICKS_PER_UPDATE) {
+            if (lockstep == null) {
+                tick();
+            } else if (!tickLockstep()) {
+                // the inputs of the other players didn't arrive yet
+                break;
+            }
+
+            accumulator -= TICK_LENGTH;
+            ticks++;
+        }
+
+        // the game can't keep up, drop the time it couldn't simulate instead of
+        // trying to catch up and falling even further behind
+        if (accumulator >= TICK_LENGTH) {
+            accumulator %= TICK_LENGTH;
+        }
+
+        alpha = accumulator / TICK_LENGTH;
+    }
+
+    /**
+     * Runs the next tick of a networked game if the inputs of every player for it
+     * arrived
+     * @return true if the tick was run
+     */
+    private boolean tickLockstep() {
+        if (lockstepError != null) {
+            return false;
+        }
+
+        try {
+            return lockstep.tryTick(this, localInput);
+        } catch (IOException ex) {
+            // the game can't go on without the other players
+            lockstepError = ex;
+            return false;
+        }
+    }
+
+    /**
+     * Advances the simulation by a single tick
+     */
+    public void tick() {
+        // chunks generated in the background since the last tick
+        map.addGeneratedChunks();
+
+        if (tickCount % WAKE_INTERVAL == 0) {
+            for (int i = 0; i < players.size(); i++) {
+                Vehicle player = players.get(i);
+                wakeVehiclesNear(player.getX() + 0.5f, player.getY() + 0.5f, activeRadius);
+            }
+        }
+
+        // only awake vehicles are updated, so the cost of a tick depends on the vehicles
+        // near the players and not on the total number of vehicles
+        store.beginTick();
+
+        // the map is read-only while vehicles are stepped, drilled through blocks
+        // are removed after all vehicles moved
+        stepper.step(store, map);
+
+        // move all vehicles by their speed in one pass over the store
+        store.integrate();
+
+        // vehicles woken up by removed blocks start moving during the next tick
+        stepper.applyEdits(map);
+
+        // the grid has to be up to date before checking for collisions between vehicles
+        for (int i = 0; i < store.getActiveCount(); i++) {
+            grid.move(store.getActive(i));
+        }
+
+        for (int i = 0; i < store.getActiveCount(); i++) {
+            Vehicle vehicle = store.getActive(i);
+
+            collideWithOtherVehicles(vehicle);
 
-        for (Vehicle vehicle: vehicles) {
-            vehicle.update(map, delta);
+            map.keepChunksLoaded(vehicle.getX(), vehicle.getY());
         }
+
+        putFarVehiclesToSleep();
+
+        // chunks far from every awake vehicle are not needed anymore
+        map.evictUnusedChunks();
+
+        tickCount++;
+
+        if (recorder != null) {
+            recorder.tickFinished();
+        }
+
+        // the world is in a consistent state between ticks, so snapshots are taken here
+        if (autosaver != null && tickCount % autosaveInterval == 0) {
+            autosaver.save(takeSnapshot());
+        }
+    }
+
+    /**
+     * Stops a vehicle that just moved from moving into other vehicles
+     * @param vehicle vehicle that moved
+     */
+    private void collideWithOtherVehicles(Vehicle vehicle) {
+        nearby.clear();
+        grid.query(vehicle.getX(), vehicle.getY(), VehicleGrid.VEHICLE_SIZE, VehicleGrid.VEHICLE_SIZE, nearby);
+
+        if (nearby.size < 2) {
+            // only the vehicle itself
+            return;
+        }
+
+        for (int i = 0; i < nearby.size; i++) {
+            vehicle.collideWith(nearby.get(i));
+        }
+
+        grid.move(vehicle);
+    }
+
+    /**
+     * Wakes up all sleeping vehicles within a radius of a point
+     * @param x x coordinate of the point (in map block coordinates)
+     * @param y y coordinate of the point (in map block coordinates)
+     * @param radius radius in blocks
+     */
+    private void wakeVehiclesNear(float x, float y, float radius) {
+        waking.clear();
+        grid.queryRadius(x, y, radius, waking);
+
+        for (int i = 0; i < waking.size; i++) {
+            Vehicle vehicle = waking.get(i);
+
+            if (!vehicle.isAwake()) {
+                store.wake(vehicle);
+            }
+        }
+    }
+
+    /**
+     * Puts awake vehicles that got too far from every player to sleep. Players
+     * never sleep
+     */
+    private void putFarVehiclesToSleep() {
+        float radius = activeRadius + SLEEP_MARGIN;
+
+        // backwards, since putting a vehicle to sleep moves the last active vehicle
+        for (int i = store.getActiveCount() - 1; i >= 0; i--) {
+            if (isFarFromPlayers(store.getActive(i), radius)) {
+                store.sleep(i);
+            }
+        }
+    }
+
+    /**
+     * Checks if a vehicle is further than a radius from every player
+     * @param vehicle vehicle to check
+     * @param radius radius in blocks
+     * @return true if the vehicle is far from all players, false if it is near one of
+     * them or is a player itself
+     */
+    private boolean isFarFromPlayers(Vehicle vehicle, float radius) {
+        for (int i = 0; i < players.size(); i++) {
+            Vehicle player = players.get(i);
+
+            float dx = vehicle.getX() - player.getX();
+            float dy = vehicle.getY() - player.getY();
+
+            if (vehicle == player || dx * dx + dy * dy <= radius * radius) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets the distance from the player within which vehicles are awake
+     * @param activeRadius radius in blocks
+     */
+    public void setActiveRadius(float activeRadius) {
+        this.activeRadius = activeRadius;
+    }
+
+    /**
+     * Gets the number of vehicles that are awake
+     * @return awake vehicle count
+     */
+    public int getActiveVehicleCount() {
+        return store.getActiveCount();
+    }
+
+    /**
+     * Finds all vehicles whose center is within a radius of a point
+     * @param x x coordinate of the point (in map block coordinates)
+     * @param y y coordinate of the point (in map block coordinates)
+     * @param radius radius in blocks
+     * @param out array to add the vehicles to (not cleared)
+     */
+    public void findVehiclesNear(float x, float y, float radius, Array<Vehicle> out) {
+        grid.queryRadius(x, y, radius, out);
+    }
+
+    /**
+     * Moves the camera after the player. Uses the interpolated position of the
+     * player, so it should be called every frame before drawing
+     *
+     * @param cam world's camera
+     */
+    public void updateCamera(OrthographicCamera cam) {
+        updateCameraPosition(cam);
+
+        map.requestChunksAround(cam.position.x, cam.position.y);
     }
 
     /**
@@ -94,8 +704,10 @@ public class GameWorld {
      * @param cam cam to update
      */
     private void updateCameraPosition(OrthographicCamera cam) {
-        float x = vehicles.get(0).getX() + 0.5f;
-        float y = vehicles.get(0).getY() + 0.5f;
+        Vehicle player = vehicles.get(getLocalPlayer());
+
+        float x = player.getX(alpha) + 0.5f;
+        float y = player.getY(alpha) + 0.5f;
 
         float camX = cam.position.x;
         float camY = cam.position.y;
@@ -117,8 +729,8 @@ public class GameWorld {
         // make sure the camera doesn't go out of the map's bounds
         if (camX < Constants.WIDTH / 2f) {
             camX = Constants.WIDTH / 2f;
-        } else if (camX > Map.WIDTH - Constants.WIDTH / 2f) {
-            camX = Map.WIDTH - Constants.WIDTH / 2f;
+        } else if (camX > map.getWidth() - Constants.WIDTH / 2f) {
+            camX = map.getWidth() - Constants.WIDTH / 2f;
         }
 
         // only check for the bottom of the map since there might be stuff above the map
@@ -136,22 +748,11 @@ public class GameWorld {
      * @param code code of the key
      */
     public void keyDown(int code) {
-        code = convertKeyCode(code);
-
-        switch (code) {
-            case Keys.UP:
-                vehicles.get(0).setAcceleratingUp(true);
-                break;
-            case Keys.DOWN:
-                vehicles.get(0).setAcceleratingDown(true);
-                break;
-            case Keys.LEFT:
-                vehicles.get(0).setAcceleratingLeft(true);
-                break;
-            case Keys.RIGHT:
-                vehicles.get(0).setAcceleratingRight(true);
-                break;
+        if (recorder != null) {
+            recorder.keyEvent(code, true);
         }
+
+        setLocalInput(convertKeyCode(code), true);
     }
 
     /**
@@ -159,22 +760,164 @@ public class GameWorld {
      * @param code code of the key
      */
     public void keyUp(int code) {
-        code = convertKeyCode(code);
+        if (recorder != null) {
+            recorder.keyEvent(code, false);
+        }
+
+        setLocalInput(convertKeyCode(code), false);
+    }
+
+    /**
+     * Updates the input of the local player. In networked games the input is only
+     * applied once the tick it was sent for comes
+     *
+     * @param code code of the key (UP DOWN LEFT or RIGHT, others are ignored)
+     * @param pressed true if the key was pressed, false if it was released
+     */
+    private void setLocalInput(int code, boolean pressed) {
+        int flag;
 
         switch (code) {
             case Keys.UP:
-                vehicles.get(0).setAcceleratingUp(false);
+                flag = VehicleStore.INPUT_UP;
                 break;
             case Keys.DOWN:
-                vehicles.get(0).setAcceleratingDown(false);
+                flag = VehicleStore.INPUT_DOWN;
                 break;
             case Keys.LEFT:
-                vehicles.get(0).setAcceleratingLeft(false);
+                flag = VehicleStore.INPUT_LEFT;
                 break;
             case Keys.RIGHT:
-                vehicles.get(0).setAcceleratingRight(false);
+                flag = VehicleStore.INPUT_RIGHT;
                 break;
+            default:
+                return;
+        }
+
+        localInput = pressed ? localInput | flag : localInput & ~flag;
+
+        if (lockstep == null) {
+            vehicles.get(localPlayer).setInput(localInput);
+        }
+    }
+
+    /**
+     * Gets the input of the local player
+     * @return input flags (VehicleStore.INPUT_*)
+     */
+    public int getLocalInput() {
+        return localInput;
+    }
+
+    /**
+     * Sets the input of a player (used to apply the inputs of networked games)
+     * @param player index of the player
+     * @param input input flags (VehicleStore.INPUT_*)
+     */
+    public void setInput(int player, int input) {
+        players.get(player).setInput(input);
+    }
+
+    /**
+     * Makes the game networked: from now on ticks only run once the inputs of every
+     * player arrived and the local input is sent to the other players. The world must
+     * have been created for a networked game with the settings received by the client
+     * and no ticks must have run in it. The client is not closed with the world
+     * @param lockstep connection to the other players
+     */
+    public void setLockstep(LockstepClient lockstep) {
+        this.lockstep = lockstep;
+
+        localPlayer = lockstep.getPlayer();
+    }
+
+    /**
+     * Gets the error that stopped the networked game
+     * @return error or null if there was none
+     */
+    public IOException getLockstepError() {
+        return lockstepError;
+    }
+
+    /**
+     * Starts recording the key events of the game (see InputRecorder). Networked games
+     * can't be recorded, the inputs of the other players are not part of the recording.
+     * The recorder is not closed with the world
+     * @param recorder recorder of this world, null to stop recording
+     */
+    public void setInputRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Gets the index of the vehicle controlled on this machine
+     * @return index of the local player's vehicle
+     */
+    public int getLocalPlayer() {
+        return localPlayer;
+    }
+
+    /**
+     * Sets the vehicle controlled on this machine (the camera follows it)
+     * @param localPlayer index of the vehicle
+     */
+    public void setLocalPlayer(int localPlayer) {
+        this.localPlayer = localPlayer;
+    }
+
+    /**
+     * Gets the number of players
+     * @return player count
+     */
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    /**
+     * Replaces the state of a vehicle. Used by replication clients, whose worlds
+     * don't simulate anything and only show the state received from the server
+     * @param index index of the vehicle
+     * @param state new state of the vehicle
+     */
+    public void setVehicleState(int index, VehicleState state) {
+        Vehicle vehicle = vehicles.get(index);
+
+        vehicle.setState(state);
+        grid.move(vehicle);
+    }
+
+    /**
+     * Sets the listener notified about blocks removed from the map
+     * @param blockListener listener, null to remove it
+     */
+    public void setBlockListener(BlockListener blockListener) {
+        this.blockListener = blockListener;
+    }
+
+    /**
+     * Hashes the simulation state: the tick count, the state of every vehicle and the
+     * blocks removed so far. Worlds that ran the same ticks with the same inputs have
+     * the same hash, used to find out if the players of a networked game went out
+     * of sync
+     * @return hash of the state
+     */
+    public int hashState() {
+        int hash = (int) tickCount;
+
+        hash = 31 * hash + terrainHash;
+
+        for (int i = 0; i < vehicles.size(); i++) {
+            Vehicle vehicle = vehicles.get(i);
+
+            hash = 31 * hash + Float.floatToIntBits(vehicle.getX());
+            hash = 31 * hash + Float.floatToIntBits(vehicle.getY());
+            hash = 31 * hash + Float.floatToIntBits(vehicle.getXSpeed());
+            hash = 31 * hash + Float.floatToIntBits(vehicle.getYSpeed());
+            hash = 31 * hash + (vehicle.isDrilling() ? 1 : 0);
+            hash = 31 * hash + vehicle.getInput();
         }
+
+        return hash;
     }
 
     /**
@@ -197,10 +940,85 @@ public class GameWorld {
         return code;
     }
 
+    /**
+     * Adds a vehicle to the world
+     * @param vehicle vehicle to add
+     */
+    public void addVehicle(Vehicle vehicle) {
+        // new vehicles start awake and fall asleep during the next tick if they are far
+        store.adopt(vehicle);
+
+        vehicles.add(vehicle);
+        grid.add(vehicle);
+    }
+
+    /**
+     * Gets a vehicle
+     * @param index index of the vehicle (0 is the player)
+     * @return vehicle
+     */
+    public Vehicle getVehicle(int index) {
+        return vehicles.get(index);
+    }
+
+    /**
+     * Gets the number of vehicles in the world
+     * @return vehicle count
+     */
+    public int getVehicleCount() {
+        return vehicles.size();
+    }
+
+    /**
+     * Gets the game terrain
+     * @return map
+     */
+    public Map getMap() {
+        return map;
+    }
+
+    /**
+     * Gets the seed of the map
+     * @return seed
+     */
+    public int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the number of ticks simulated so far
+     * @return tick count
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
     /**
      * Cleans up resources
      */
     public void unloadResources() {
-        resources.unload("textures.atlas");
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+
+        physics.shutdownNow();
+
+        // let saves that are still being written finish
+        saver.shutdown();
+
+        try {
+            saver.awaitTermination(SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (resources == null) {
+            return;
+        }
+
+        terrainRenderer.dispose();
+
+        // the atlas stays cached until the texture budget runs out
+        textures.release();
     }
 }
\ No newline at end of file
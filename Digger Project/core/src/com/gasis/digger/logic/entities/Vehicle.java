@@ -1,97 +1,65 @@
 package com.gasis.digger.logic.entities;
 
-import com.badlogic.gdx.graphics.g2d.Sprite;
-import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.gasis.digger.logic.GameWorld;
-import com.gasis.digger.logic.Point;
 import com.gasis.digger.logic.entities.upgrades.Drill;
 import com.gasis.digger.logic.entities.upgrades.Engine;
+import com.gasis.digger.logic.terrain.BlockEdits;
 import com.gasis.digger.logic.terrain.Map;
-import com.gasis.digger.resources.Resources;
-
-import java.util.Random;
+import com.gasis.digger.logic.terrain.TileSweep;
 
 /**
- * Drilling vehicle
+ * Drilling vehicle. The state of the vehicle is kept in a VehicleStore, a vehicle
+ * object is only a view of it's entry in the store. It is drawn by VehicleRenderer
  */
 public class Vehicle {
 
-    // textures for the vehicle
-    private Sprite drillSprite;
-    private Sprite vehicleSprite;
-
-    // vehicle coordinates in map block coordinate system
-    private float x;
-    private float y;
-
-    // x and y axis speeds
-    private float xSpeed;
-    private float ySpeed;
-
-    // is the drill spinning or not
-    private boolean drilling = false;
-
-    // how fast can the drill spin
-    private float drillSpeed;
-
-    // some numeric stuff used when drilling
-    private float drillingSpeed; // how fast can the machine drill
-    private int drilledBlockX; // x of the block that is being drilled
-    private int drilledBlockY; // y of the block that is being drilled
-    private byte drilledBlockType; // what kind of block is being drilled
-
-    // the maximum speed the vehicle is allowed to move in x and y directions
-    // using the engine
-    private float maxSpeed;
-
-    // how fast can the vehicle fall using only gravity
-    private float maxFreeFallingSpeed = 0.1f;
-
-    // x and y axis acceleration speed using the engine
-    private float acceleration;
+    // how far off a gap the vehicle can be and still slip into it when moving vertically
+    private static final float CORNER_TOLERANCE = 0.1f;
 
-    // is the vehicle accelerating
-    private boolean acceleratingRight = false;
-    private boolean acceleratingLeft = false;
-    private boolean acceleratingUp = false;
-    private boolean acceleratingDown = false;
+    // store holding the state of the vehicle
+    private VehicleStore store;
 
-    // random used for visual effects
-    private final Random random = new Random();
+    // index of the vehicle in the store
+    private int index;
 
-    // ***** PARTS OF THE VEHICLE ***** //
-    private Drill drill;
-    private Engine engine;
-    // ***** END OF VEHICLE PARTS ***** //
+    // result of the last sweep through the map (see sweepThroughMap())
+    private final TileSweep.Hit hit = new TileSweep.Hit();
 
     /**
-     * Default class constructor
+     * Default class constructor. The vehicle gets a store of it's own until it is
+     * added to a world
      *
-     * @param resources assets
      * @param drill drill of the vehicle
+     * @param engine engine of the vehicle
      */
-    public Vehicle(Resources resources, Drill drill, Engine engine) {
-        changeParts(drill, engine);
+    public Vehicle(Drill drill, Engine engine) {
+        store = new VehicleStore(1);
+        index = store.add(this);
 
-        drillSprite = new Sprite(resources.atlas("textures.atlas").findRegion(drill.getTextureName()));
-        drillSprite.setSize(1, 1);
-        drillSprite.setOriginCenter();
-        drillSprite.setScale(1.2f);
+        changeParts(drill, engine);
+    }
 
-        vehicleSprite = new Sprite(resources.atlas("textures.atlas").findRegion("vehicle_1"));
-        vehicleSprite.setSize(1, 1);
-        vehicleSprite.setOriginCenter();
-        vehicleSprite.setScale(1.1f);
+    /**
+     * Points the view at another entry (when the vehicle is moved to another store)
+     *
+     * @param store store holding the state of the vehicle
+     * @param index index of the vehicle in the store
+     */
+    void bind(VehicleStore store, int index) {
+        this.store = store;
+        this.index = index;
     }
 
     /**
      * Calculates specs of the vehicle based on it's parts
      */
     private void calculateVehicleSpecs() {
-        maxSpeed = engine.getHp() / 20000f;
-        acceleration = engine.getHp() / 200000f;
-        drillSpeed = engine.getHp() / 300f;
-        drillingSpeed = engine.getHp() / 200000f * drill.getSharpness();
+        Engine engine = store.engine[index];
+
+        store.maxSpeed[index] = engine.getHp() / 20000f;
+        store.acceleration[index] = engine.getHp() / 200000f;
+        store.drillSpeed[index] = engine.getHp() / 300f;
+        store.drillingSpeed[index] = engine.getHp() / 200000f * store.drill[index].getSharpness();
     }
 
     /**
@@ -102,267 +70,267 @@ public class Vehicle {
      * @param engine new engine
      */
     public void changeParts(Drill drill, Engine engine) {
-        this.drill = drill == null ? this.drill : drill;
-        this.engine = engine == null ? this.engine : engine;
+        store.drill[index] = drill == null ? store.drill[index] : drill;
+        store.engine[index] = engine == null ? store.engine[index] : engine;
 
         calculateVehicleSpecs();
     }
 
     /**
-     * Called when the vehicle needs to render itself
-     *
-     * @param batch sprite batch to draw to
-     * @param delta time elapsed since the last render (dunno if this is needed, but let's
-     * keep it just in case it becomes useful later)
-     */
-    public void draw(SpriteBatch batch, float delta) {
-        drillSprite.draw(batch);
-        vehicleSprite.draw(batch);
-    }
-
-    /**
-     * Called when the vehicle should update it's state
+     * Called when the vehicle should update it's state. Called once per simulation tick,
+     * all speeds are in blocks per tick. Worlds update all their vehicles at once with
+     * VehicleStore.beginTick(), step() and VehicleStore.integrate() instead
      *
      * @param map game map
-     * @param delta time elapsed since the last update (dunno if this is needed, but let's
-     * keep it just in case it becomes useful later)
+     * @param delta length of the tick (always GameWorld.TICK_LENGTH, speeds are
+     * already per tick)
      */
     @SuppressWarnings("unused")
     public void update(Map map, float delta) {
-        // offsets are used to add shaking effect when drilling
-        float xOffset = 0;
-        float yOffset = 0;
+        // remember where the vehicle was for interpolation and rotate the drill
+        store.beginTick(index);
 
-        if (drilling) {
-            xOffset = random.nextFloat() * 0.015f * (random.nextBoolean() ? -1 : 1);
-            yOffset = random.nextFloat() * 0.015f * (random.nextBoolean() ? -1 : 1);
-        }
+        step(map);
 
-        this.x += xOffset;
-        this.y += yOffset;
-
-        drillSprite.setPosition(this.x, this.y);
-        vehicleSprite.setPosition(this.x, this.y);
-
-        this.x -= xOffset;
-        this.y -= yOffset;
+        // update position
+        store.integrate(index);
+    }
 
-        // rotate the drill
-        rotateDrill();
+    /**
+     * Updates the speed and drilling of the vehicle and decides how far it moves. The
+     * part of a tick that needs the map, it runs between VehicleStore.beginTick() and
+     * VehicleStore.integrate()
+     *
+     * @param map game map
+     */
+    public void step(Map map) {
+        step(map, null);
+    }
 
-        // check for collisions and update movement
-        checkForMapCollisionsAndUpdateMovementSpeed(map);
+    /**
+     * Updates the speed and drilling of the vehicle without changing the map. Only
+     * changes the vehicle's own entry in the store, so different vehicles can be
+     * stepped on different threads while the map is read-only
+     *
+     * @param map game map
+     * @param edits collects the blocks drilled through, null to remove them right away
+     */
+    public void step(Map map, BlockEdits edits) {
+        // update movement speed
+        updateMovementSpeed();
 
         // make sure the vehicle doesn't go out of the map's bounds
-        preventGoingOutOfBounds();
+        preventGoingOutOfBounds(map);
 
         // check if any block needs to be drilled and drill it
         tryToStartDrilling(map);
 
         // update drilling progress
-        updateDrilling(map);
+        updateDrilling(map, edits);
 
-        // update position
-        this.x += xSpeed;
-        this.y += ySpeed;
+        // stop at blocks in the way
+        sweepThroughMap(map);
     }
 
     /**
-     * Makes sure the vehicle doesn't go out of the map's bounds. Map instance
-     * is not required because it's width and height are static fields
+     * Makes sure the vehicle doesn't go out of the map's bounds
+     *
+     * @param map map the vehicle is in
      */
-    private void preventGoingOutOfBounds() {
+    private void preventGoingOutOfBounds(Map map) {
+        VehicleStore s = store;
+        int i = index;
+
         // check for the left side of the map
-        if (x < 0) {
-            x = 0;
-            xSpeed = 0;
+        if (s.x[i] < 0) {
+            s.x[i] = 0;
+            s.xSpeed[i] = 0;
         }
 
         // check for the right side of the map
-        else if (x + 1 > Map.WIDTH) {
-            x = Map.WIDTH - 1;
-            xSpeed = 0;
+        else if (s.x[i] + 1 > map.getWidth()) {
+            s.x[i] = map.getWidth() - 1;
+            s.xSpeed[i] = 0;
         }
 
         // check for the top of the map
-        if (y + 1 > Map.HEIGHT) {
-            y = Map.HEIGHT - 1;
-            ySpeed = 0;
+        if (s.y[i] + 1 > map.getHeight()) {
+            s.y[i] = map.getHeight() - 1;
+            s.ySpeed[i] = 0;
         }
 
         // check for the bottom of the map
-        else if (y < 0) {
-            y = 0;
-            ySpeed = 0;
+        else if (s.y[i] < 0) {
+            s.y[i] = 0;
+            s.ySpeed[i] = 0;
         }
     }
 
     /**
-     * Updates the drill's rotation angle
+     * Updates the vehicle's speed: applies gravity and accelerates it in the directions
+     * it's accelerating in (or slows it down if it's not). Blocks in the way are handled
+     * by sweepThroughMap() once the speed is known
      */
-    private void rotateDrill() {
-        if (drilling) {
-            float rotation = drillSprite.getRotation();
+    private void updateMovementSpeed() {
+        VehicleStore s = store;
+        int i = index;
 
-            if (rotation <= -360) {
-                rotation = 0;
-            }
-
-            rotation -= drillSpeed;
-
-            drillSprite.setRotation(rotation);
-        }
-    }
-
-    /**
-     * Checks if the vehicle touches any blocks in the map and prevents it from
-     * moving through blocks, also, updates the vehicle's speed if it's accelerating
-     *
-     * @param map map the vehicle is in
-     */
-    private void checkForMapCollisionsAndUpdateMovementSpeed(Map map) {
-        if (drilling) {
+        if (s.drilling[i]) {
             // do not apply gravity or any other forces if drilling
             return;
         }
 
-        float x = this.x + 0.9f;
-        float y = this.y + 0.25f;
-
-        // was the vehicle stopped by a block collision or not
-        boolean wasStopped = false;
-
-        // apply gravity if the vehicle doesn't touch the ground and is not using engine to move upwards
-        Point block = map.blockExistsBelow(x, y);
-
-        if (block == null) {
-            x = this.x + 0.1f;
-            block = map.blockExistsBelow(x, y);
-        }
-
-        if (block != null) {
-            if (this.y < block.getY()) {
-                this.y = block.getY();
-                ySpeed = 0;
-                wasStopped = true;
-            }
-        }
+        float acceleration = s.acceleration[i];
+        int input = s.input[i];
 
-        if (!acceleratingUp && !wasStopped) {
-            if (!acceleratingDown) {
+        // apply gravity if the vehicle is not using engine to move upwards. A vehicle
+        // standing on the ground is pulled into it too, the sweep stops it right away
+        if ((input & VehicleStore.INPUT_UP) == 0) {
+            if ((input & VehicleStore.INPUT_DOWN) == 0) {
                 // apply gravity
-                float speed = ySpeed - GameWorld.GRAVITY;
+                float speed = s.ySpeed[i] - GameWorld.GRAVITY;
 
-                if (speed > maxFreeFallingSpeed) {
-                    speed = maxFreeFallingSpeed;
+                if (speed > s.maxFreeFallingSpeed[i]) {
+                    speed = s.maxFreeFallingSpeed[i];
                 }
 
                 setYSpeed(speed);
             } else {
                 // method should be used here since prevents the new speed from exceeding maximum allowed speed
-                setYSpeed(ySpeed - acceleration);
+                setYSpeed(s.ySpeed[i] - acceleration);
             }
         }
 
-
-        // update local values, since they might have changed
-        wasStopped = false;
-        x = this.x + 0.9f;
-        y = this.y + 0.75f;
-
         // accelerate up
-        block = map.blockExistsAbove(x, y);
-
-        if (block == null) {
-            x = this.x + 0.1f;
-            block = map.blockExistsAbove(x, y);
+        if ((input & VehicleStore.INPUT_UP) != 0) {
+            // method should be used here since prevents the new speed from exceeding maximum allowed speed
+            setYSpeed(s.ySpeed[i] + acceleration);
         }
 
-        if ((ySpeed > 0) && block != null) {
-            if (this.y > block.getY()) {
-                this.y = block.getY();
-                ySpeed = 0;
-                wasStopped = true;
+        // accelerate left
+        if ((input & VehicleStore.INPUT_LEFT) != 0) {
+            // method should be used here since prevents the new speed from exceeding maximum allowed speed
+            setXSpeed(s.xSpeed[i] - acceleration);
+        } else {
+            // decelerate if moving
+            if (s.xSpeed[i] < 0) {
+                s.xSpeed[i] += acceleration;
+
+                if (s.xSpeed[i] > 0) {
+                    s.xSpeed[i] = 0;
+                }
             }
         }
 
-        if (acceleratingUp && !wasStopped) {
+        // accelerate right
+        if ((input & VehicleStore.INPUT_RIGHT) != 0) {
             // method should be used here since prevents the new speed from exceeding maximum allowed speed
-            setYSpeed(ySpeed + acceleration);
+            setXSpeed(s.xSpeed[i] + acceleration);
+        } else {
+            // decelerate if moving
+            if (s.xSpeed[i] > 0) {
+                s.xSpeed[i] -= acceleration;
+
+                if (s.xSpeed[i] < 0) {
+                    s.xSpeed[i] = 0;
+                }
+            }
         }
+    }
 
-        // update local values, since they might have changed
-        wasStopped = false;
-        x = this.x + 0.25f;
-        y = this.y + 0.9f;
+    /**
+     * Sweeps the vehicle along it's speed through the map's blocks and decides how far
+     * it moves this tick. The horizontal move is swept first, then the vertical one from
+     * where the horizontal one ended. Speed along an axis is dropped if a block is hit.
+     * The move is applied by VehicleStore.integrate()
+     *
+     * @param map map the vehicle is in
+     */
+    private void sweepThroughMap(Map map) {
+        VehicleStore s = store;
+        int i = index;
+
+        // drilling moves the vehicle by itself
+        if (s.drilling[i]) {
+            s.moveX[i] = 0;
+            s.moveY[i] = 0;
+            return;
+        }
 
-        // accelerate left
-        block = map.blockExistsLeft(x, y);
+        float x = s.x[i];
+        float y = s.y[i];
+        float ySpeed = s.ySpeed[i];
 
-        if (block == null) {
-            y = this.y + 0.1f;
-            block = map.blockExistsLeft(x, y);
+        if (TileSweep.sweep(map, x, y, 1, 1, s.xSpeed[i], 0, hit)) {
+            s.xSpeed[i] = 0;
         }
 
-        if ((xSpeed < 0) && block != null) {
-            if (this.x < block.getX()) {
-                this.x = block.getX();
-                xSpeed = 0;
-                wasStopped = true;
-            }
-        }
+        float newX = hit.x;
 
-        if (!wasStopped) {
-            if (acceleratingLeft) {
-                // method should be used here since prevents the new speed from exceeding maximum allowed speed
-                setXSpeed(xSpeed - acceleration);
-            } else {
-                // decelerate if moving
-                if (xSpeed < 0) {
-                    xSpeed += acceleration;
+        boolean blocked = TileSweep.sweep(map, newX, y, 1, 1, 0, ySpeed, hit);
+        float newY = hit.y;
+
+        if (blocked) {
+            // the vehicle might have only caught the corner of a block, if it's almost
+            // aligned with the gap next to the block, let it slip into the gap
+            float aligned = Math.round(newX);
 
-                    if (xSpeed > 0) {
-                        xSpeed = 0;
-                    }
+            if (Math.abs(aligned - newX) <= CORNER_TOLERANCE
+                && !TileSweep.sweep(map, newX, y, 1, 1, aligned - newX, 0, hit)) {
+                boolean alignedBlocked = TileSweep.sweep(map, aligned, y, 1, 1, 0, ySpeed, hit);
+
+                if (Math.abs(hit.y - y) > Math.abs(newY - y)) {
+                    newX = aligned;
+                    newY = hit.y;
+                    blocked = alignedBlocked;
                 }
             }
         }
 
-        // update local values, since they might have changed
-        wasStopped = false;
-        x = this.x + 0.75f;
-        y = this.y + 0.9f;
+        if (blocked) {
+            s.ySpeed[i] = 0;
+        }
+
+        s.moveX[i] = newX - x;
+        s.moveY[i] = newY - y;
+    }
 
-        // accelerate right
-        block = map.blockExistsRight(x, y);
+    /**
+     * Stops the vehicle from moving into another vehicle. If the vehicle moved closer to
+     * the other one during the last tick and they overlap now, the move is undone along
+     * the axis they overlap less on. Vehicles that are moving apart are left alone, so
+     * vehicles that ended up inside each other can still get out
+     *
+     * @param other vehicle to check against
+     */
+    public void collideWith(Vehicle other) {
+        VehicleStore s = store;
+        int i = index;
 
-        if (block == null) {
-            y = this.y + 0.1f;
-            block = map.blockExistsRight(x, y);
+        // drilling moves the vehicle into the drilled block, it can't be undone halfway
+        if (s.drilling[i] || other == this) {
+            return;
         }
 
-        if ((xSpeed > 0) && block != null) {
-            if (this.x > block.getX()) {
-                this.x = block.getX();
-                xSpeed = 0;
-                wasStopped = true;
-            }
+        float otherX = other.getX();
+        float otherY = other.getY();
+
+        float xOverlap = VehicleGrid.VEHICLE_SIZE - Math.abs(s.x[i] - otherX);
+        float yOverlap = VehicleGrid.VEHICLE_SIZE - Math.abs(s.y[i] - otherY);
+
+        if (xOverlap <= 0 || yOverlap <= 0) {
+            return;
         }
 
-        if (!wasStopped) {
-            if (acceleratingRight) {
-                // method should be used here since prevents the new speed from exceeding maximum allowed speed
-                setXSpeed(xSpeed + acceleration);
-            } else {
-                // decelerate if moving
-                if (xSpeed > 0) {
-                    xSpeed -= acceleration;
+        boolean closerX = Math.abs(s.x[i] - otherX) < Math.abs(s.prevX[i] - otherX);
+        boolean closerY = Math.abs(s.y[i] - otherY) < Math.abs(s.prevY[i] - otherY);
 
-                    if (xSpeed < 0) {
-                        xSpeed = 0;
-                    }
-                }
-            }
+        if (closerX && (xOverlap <= yOverlap || !closerY)) {
+            s.x[i] = s.prevX[i];
+            s.xSpeed[i] = 0;
+        } else if (closerY) {
+            s.y[i] = s.prevY[i];
+            s.ySpeed[i] = 0;
         }
     }
 
@@ -374,7 +342,10 @@ public class Vehicle {
      * @param y y coordinate of the block
      */
     private void tryToDrill(Map map, int x, int y) {
-        if (drilling) {
+        VehicleStore s = store;
+        int i = index;
+
+        if (s.drilling[i]) {
             return;
         }
 
@@ -385,41 +356,62 @@ public class Vehicle {
             return;
         }
 
-        xSpeed = 0;
-        ySpeed = 0;
+        s.xSpeed[i] = 0;
+        s.ySpeed[i] = 0;
 
-        drilling = true;
-        drilledBlockType = blockType;
-        drilledBlockX = x;
-        drilledBlockY = y;
+        s.drilling[i] = true;
+        s.drilledBlockType[i] = blockType;
+        s.drilledBlockX[i] = x;
+        s.drilledBlockY[i] = y;
     }
 
     /**
      * Updates drilling progress
+     *
+     * @param map game map
+     * @param edits collects the drilled through block, null to remove it right away
      */
-    private void updateDrilling(Map map) {
-        if (!drilling) {
+    private void updateDrilling(Map map, BlockEdits edits) {
+        VehicleStore s = store;
+        int i = index;
+
+        if (!s.drilling[i]) {
             return;
         }
 
-        if (drilledBlockX > x) {
-            x += drillingSpeed;
-        } else if (drilledBlockX < x) {
-            x -= drillingSpeed;
+        float drillingSpeed = s.drillingSpeed[i];
+        int drilledBlockX = s.drilledBlockX[i];
+        int drilledBlockY = s.drilledBlockY[i];
+
+        if (drilledBlockX > s.x[i]) {
+            s.x[i] += drillingSpeed;
+        } else if (drilledBlockX < s.x[i]) {
+            s.x[i] -= drillingSpeed;
         }
 
-        if (drilledBlockY < y) {
-            y -= drillingSpeed;
-        } else if (drilledBlockY > y) {
-            y += drillingSpeed;
+        if (drilledBlockY < s.y[i]) {
+            s.y[i] -= drillingSpeed;
+        } else if (drilledBlockY > s.y[i]) {
+            s.y[i] += drillingSpeed;
         }
 
         // stop drilling if the block was drilled through
-        if (Math.abs(drilledBlockX - x) <= drillingSpeed * 1.05f
-            && Math.abs(drilledBlockY - y) <= drillingSpeed * 1.05f) {
-            drilling = false;
-            map.removeBlock(drilledBlockX, drilledBlockY);
-            addMinedItemToCargo(drilledBlockType);
+        if (Math.abs(drilledBlockX - s.x[i]) <= drillingSpeed * 1.05f
+            && Math.abs(drilledBlockY - s.y[i]) <= drillingSpeed * 1.05f) {
+            s.drilling[i] = false;
+
+            // end up exactly in the drilled through block, the sweep ignores blocks
+            // the vehicle is already inside of
+            s.x[i] = drilledBlockX;
+            s.y[i] = drilledBlockY;
+
+            if (edits != null) {
+                edits.removeBlock(drilledBlockX, drilledBlockY);
+            } else {
+                map.removeBlock(drilledBlockX, drilledBlockY);
+            }
+
+            addMinedItemToCargo(s.drilledBlockType[i]);
         }
     }
 
@@ -437,84 +429,177 @@ public class Vehicle {
      * @param map game map
      */
     private void tryToStartDrilling(Map map) {
-        if (Math.abs(xSpeed) > acceleration || Math.abs(ySpeed) > acceleration) {
+        VehicleStore s = store;
+        int i = index;
+
+        float acceleration = s.acceleration[i];
+        int input = s.input[i];
+
+        if (Math.abs(s.xSpeed[i]) > acceleration || Math.abs(s.ySpeed[i]) > acceleration) {
             return;
         }
 
-        float x = this.x + 0.5f;
-        float y = this.y + 0.5f;
+        float x = s.x[i] + 0.5f;
+        float y = s.y[i] + 0.5f;
 
         // check if the bottom block needs to be drilled
-        if (this.y <= (int) y && acceleratingDown && map.blockExistsBelow(x, y) != null) {
+        if (s.y[i] <= (int) y && (input & VehicleStore.INPUT_DOWN) != 0 && map.hasBlockBelow(x, y)) {
             tryToDrill(map, (int) x, (int) y - 1);
         }
 
         // check if the left block needs to be drilled
-        else if (this.x <= (int) x && acceleratingLeft && map.blockExistsBelow(x, y) != null && map.blockExistsLeft(x, y) != null) {
+        else if (s.x[i] <= (int) x && (input & VehicleStore.INPUT_LEFT) != 0 && map.hasBlockBelow(x, y) && map.hasBlockLeft(x, y)) {
             tryToDrill(map, (int) x - 1, (int) y);
         }
 
         // check if the right block needs to be drilled
-        else if (this.x >= (int) x && acceleratingRight && map.blockExistsBelow(x, y) != null && map.blockExistsRight(x, y) != null) {
+        else if (s.x[i] >= (int) x && (input & VehicleStore.INPUT_RIGHT) != 0 && map.hasBlockBelow(x, y) && map.hasBlockRight(x, y)) {
             tryToDrill(map, (int) x + 1, (int) y);
         }
 
         // check if the top block needs to be drilled (only if the engine allows
         // drilling upwards
-        else if (this.y >= (int) y && engine.isDrillingUpwardsAllowed() && acceleratingUp) {
+        else if (s.y[i] >= (int) y && s.engine[i].isDrillingUpwardsAllowed() && (input & VehicleStore.INPUT_UP) != 0) {
             tryToDrill(map, (int) x, (int) y + 1);
         }
     }
 
+    /**
+     * Copies the state of the vehicle
+     *
+     * @param state object to copy the state into
+     * @return the given state object
+     */
+    public VehicleState getState(VehicleState state) {
+        VehicleStore s = store;
+        int i = index;
+
+        state.drill = s.drill[i];
+        state.engine = s.engine[i];
+        state.x = s.x[i];
+        state.y = s.y[i];
+        state.xSpeed = s.xSpeed[i];
+        state.ySpeed = s.ySpeed[i];
+        state.drilling = s.drilling[i];
+        state.drilledBlockX = s.drilledBlockX[i];
+        state.drilledBlockY = s.drilledBlockY[i];
+        state.drilledBlockType = s.drilledBlockType[i];
+        state.drillRotation = s.drillRotation[i];
+
+        return state;
+    }
+
+    /**
+     * Restores the state of the vehicle
+     *
+     * @param state state to restore
+     */
+    public void setState(VehicleState state) {
+        VehicleStore s = store;
+        int i = index;
+
+        changeParts(state.drill, state.engine);
+
+        setX(state.x);
+        setY(state.y);
+
+        s.xSpeed[i] = state.xSpeed;
+        s.ySpeed[i] = state.ySpeed;
+        s.drilling[i] = state.drilling;
+        s.drilledBlockX[i] = state.drilledBlockX;
+        s.drilledBlockY[i] = state.drilledBlockY;
+        s.drilledBlockType[i] = state.drilledBlockType;
+        s.drillRotation[i] = state.drillRotation;
+    }
+
+    /**
+     * Sets or clears an input flag
+     *
+     * @param flag flag to change (one of VehicleStore.INPUT_*)
+     * @param on true to set the flag
+     */
+    private void setInputFlag(int flag, boolean on) {
+        store.input[index] = (byte) (on ? store.input[index] | flag : store.input[index] & ~flag);
+    }
+
+    // store getters
+    public VehicleStore getStore() { return store; }
+    public int getIndex() { return index; }
+
+    // grid cell getter and setter
+    long getCell() { return store.cell[index]; }
+    void setCell(long cell) { store.cell[index] = cell; }
+
     // x and y getters
-    public float getX() { return x; }
-    public float getY() { return y; }
+    public float getX() { return store.x[index]; }
+    public float getY() { return store.y[index]; }
+
+    // x and y setters (these move the vehicle instantly, without interpolation)
+    public void setX(float x) { store.x[index] = x; store.prevX[index] = x; }
+    public void setY(float y) { store.y[index] = y; store.prevY[index] = y; }
+
+    // activity getter
+    public boolean isAwake() { return store.awake[index]; }
 
-    // x and y setters
-    public void setX(float x) { this.x = x; }
-    public void setY(float y) { this.y = y; }
+    // drill getters
+    public Drill getDrill() { return store.drill[index]; }
+    public Engine getEngine() { return store.engine[index]; }
+    public boolean isDrilling() { return store.drilling[index]; }
+    public float getDrillRotation() { return store.drillRotation[index]; }
+
+    // interpolated x and y getters
+    public float getX(float alpha) { return store.prevX[index] + (store.x[index] - store.prevX[index]) * alpha; }
+    public float getY(float alpha) { return store.prevY[index] + (store.y[index] - store.prevY[index]) * alpha; }
 
     // x and y speed getters
-    public float getXSpeed() { return xSpeed; }
-    public float getYSpeed() { return ySpeed; }
+    public float getXSpeed() { return store.xSpeed[index]; }
+    public float getYSpeed() { return store.ySpeed[index]; }
 
     // x and y speed setters
     public void setXSpeed(float xSpeed) {
+        float maxSpeed = store.maxSpeed[index];
+
         if (Math.abs(xSpeed) > maxSpeed) {
-            this.xSpeed = xSpeed >= 0 ? maxSpeed : -maxSpeed;
+            store.xSpeed[index] = xSpeed >= 0 ? maxSpeed : -maxSpeed;
         } else {
-            this.xSpeed = xSpeed;
+            store.xSpeed[index] = xSpeed;
         }
     }
 
     public void setYSpeed(float ySpeed) {
+        float maxSpeed = store.maxSpeed[index];
+
         if (Math.abs(ySpeed) > maxSpeed) {
-            this.ySpeed = ySpeed >= 0 ? maxSpeed : -maxSpeed;
+            store.ySpeed[index] = ySpeed >= 0 ? maxSpeed : -maxSpeed;
         } else {
-            this.ySpeed = ySpeed;
+            store.ySpeed[index] = ySpeed;
         }
     }
 
+    // input getter and setter (all acceleration flags at once, see VehicleStore.INPUT_*)
+    public int getInput() { return store.input[index]; }
+    public void setInput(int input) { store.input[index] = (byte) input; }
+
     // acceleration getters
-    public boolean isAcceleratingLeft() { return acceleratingLeft; }
-    public boolean isAcceleratingRight() { return acceleratingRight; }
-    public boolean isAcceleratingUp() { return acceleratingUp; }
-    public boolean isAcceleratingDown() { return acceleratingDown; }
+    public boolean isAcceleratingLeft() { return (store.input[index] & VehicleStore.INPUT_LEFT) != 0; }
+    public boolean isAcceleratingRight() { return (store.input[index] & VehicleStore.INPUT_RIGHT) != 0; }
+    public boolean isAcceleratingUp() { return (store.input[index] & VehicleStore.INPUT_UP) != 0; }
+    public boolean isAcceleratingDown() { return (store.input[index] & VehicleStore.INPUT_DOWN) != 0; }
 
     // acceleration setters
     public void setAcceleratingRight(boolean acceleratingRight) {
-        this.acceleratingRight = acceleratingRight;
+        setInputFlag(VehicleStore.INPUT_RIGHT, acceleratingRight);
     }
 
     public void setAcceleratingLeft(boolean acceleratingLeft) {
-        this.acceleratingLeft = acceleratingLeft;
+        setInputFlag(VehicleStore.INPUT_LEFT, acceleratingLeft);
     }
 
     public void setAcceleratingUp(boolean acceleratingUp) {
-        this.acceleratingUp = acceleratingUp;
+        setInputFlag(VehicleStore.INPUT_UP, acceleratingUp);
     }
 
     public void setAcceleratingDown(boolean acceleratingDown) {
-        this.acceleratingDown = acceleratingDown;
+        setInputFlag(VehicleStore.INPUT_DOWN, acceleratingDown);
     }
 }
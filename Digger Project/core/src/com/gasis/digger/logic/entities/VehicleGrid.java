@@ -0,0 +1,187 @@
+package com.gasis.digger.logic.entities;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Uniform grid of vehicles. Every vehicle is kept in the bucket of the cell it's
+ * bottom left corner is in, buckets are only changed when a vehicle crosses into
+ * another cell, so keeping the grid up to date costs next to nothing and queries
+ * only look at the vehicles in the cells they cover instead of all vehicles
+ */
+public class VehicleGrid {
+
+    // how many bits a block coordinate has to be shifted to get the cell coordinate
+    public static final int CELL_SHIFT = 2;
+
+    // width and height of a cell in blocks
+    public static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    // width and height of a vehicle in blocks
+    public static final float VEHICLE_SIZE = 1;
+
+    // vehicles by the key of the cell they are in (empty cells have no bucket)
+    private final LongMap<Array<Vehicle>> cells = new LongMap<Array<Vehicle>>();
+
+    // buckets of cells that became empty, reused for other cells
+    private final Array<Array<Vehicle>> freeBuckets = new Array<Array<Vehicle>>();
+
+    /**
+     * Packs cell coordinates into a single key
+     *
+     * @param cellX x coordinate of the cell
+     * @param cellY y coordinate of the cell
+     * @return key of the cell
+     */
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    /**
+     * Gets the cell coordinate of a block coordinate
+     *
+     * @param coordinate block coordinate
+     * @return cell coordinate
+     */
+    private static int cell(float coordinate) {
+        return (int) Math.floor(coordinate) >> CELL_SHIFT;
+    }
+
+    /**
+     * Adds a vehicle to the grid
+     *
+     * @param vehicle vehicle to add
+     */
+    public void add(Vehicle vehicle) {
+        vehicle.setCell(key(cell(vehicle.getX()), cell(vehicle.getY())));
+
+        bucket(vehicle.getCell()).add(vehicle);
+    }
+
+    /**
+     * Removes a vehicle from the grid
+     *
+     * @param vehicle vehicle to remove
+     */
+    public void remove(Vehicle vehicle) {
+        Array<Vehicle> bucket = cells.get(vehicle.getCell());
+
+        if (bucket == null || !bucket.removeValue(vehicle, true)) {
+            return;
+        }
+
+        if (bucket.size == 0) {
+            cells.remove(vehicle.getCell());
+            freeBuckets.add(bucket);
+        }
+    }
+
+    /**
+     * Moves a vehicle to the bucket of the cell it is in now. Should be called every
+     * time the vehicle moves, does nothing if it stayed in the same cell
+     *
+     * @param vehicle vehicle that moved
+     */
+    public void move(Vehicle vehicle) {
+        long cell = key(cell(vehicle.getX()), cell(vehicle.getY()));
+
+        if (cell == vehicle.getCell()) {
+            return;
+        }
+
+        remove(vehicle);
+
+        vehicle.setCell(cell);
+        bucket(cell).add(vehicle);
+    }
+
+    /**
+     * Gets the bucket of a cell, creates it if the cell is empty
+     *
+     * @param cell key of the cell
+     * @return bucket of the cell
+     */
+    private Array<Vehicle> bucket(long cell) {
+        Array<Vehicle> bucket = cells.get(cell);
+
+        if (bucket == null) {
+            bucket = freeBuckets.size > 0 ? freeBuckets.pop() : new Array<Vehicle>(false, 4);
+            cells.put(cell, bucket);
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Finds all vehicles that overlap a rectangle. Vehicles are added in the same order
+     * for the same grid contents
+     *
+     * @param x x coordinate of the rectangle
+     * @param y y coordinate of the rectangle
+     * @param width width of the rectangle
+     * @param height height of the rectangle
+     * @param out array to add the vehicles to (not cleared)
+     */
+    public void query(float x, float y, float width, float height, Array<Vehicle> out) {
+        // vehicles are bucketed by their corner, so vehicles in the cells to the left
+        // and below can still reach into the rectangle
+        int minCellX = cell(x - VEHICLE_SIZE);
+        int minCellY = cell(y - VEHICLE_SIZE);
+        int maxCellX = cell(x + width);
+        int maxCellY = cell(y + height);
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                Array<Vehicle> bucket = cells.get(key(cellX, cellY));
+
+                if (bucket == null) {
+                    continue;
+                }
+
+                for (int i = 0; i < bucket.size; i++) {
+                    Vehicle vehicle = bucket.get(i);
+
+                    if (vehicle.getX() + VEHICLE_SIZE > x && vehicle.getX() < x + width
+                            && vehicle.getY() + VEHICLE_SIZE > y && vehicle.getY() < y + height) {
+                        out.add(vehicle);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds all vehicles whose center is within a radius of a point
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @param radius radius in blocks
+     * @param out array to add the vehicles to (not cleared)
+     */
+    public void queryRadius(float x, float y, float radius, Array<Vehicle> out) {
+        int first = out.size;
+
+        query(x - radius - VEHICLE_SIZE / 2, y - radius - VEHICLE_SIZE / 2,
+                (radius + VEHICLE_SIZE / 2) * 2, (radius + VEHICLE_SIZE / 2) * 2, out);
+
+        // drop the ones in the corners of the square
+        for (int i = out.size - 1; i >= first; i--) {
+            Vehicle vehicle = out.get(i);
+
+            float dx = vehicle.getX() + VEHICLE_SIZE / 2 - x;
+            float dy = vehicle.getY() + VEHICLE_SIZE / 2 - y;
+
+            if (dx * dx + dy * dy > radius * radius) {
+                out.removeIndex(i);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of non empty cells
+     * @return non empty cell count
+     */
+    public int getCellCount() {
+        return cells.size;
+    }
+}
@@ -0,0 +1,77 @@
+package com.gasis.digger.logic.entities;
+
+import com.badlogic.gdx.graphics.g2d.Sprite;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.gasis.digger.logic.entities.upgrades.Drill;
+
+import java.util.Random;
+
+/**
+ * Draws vehicles. The same sprites are used for all vehicles, they are moved to the
+ * vehicle's position right before drawing it
+ */
+public class VehicleRenderer {
+
+    // body of the vehicle
+    private final Sprite vehicleSprite;
+
+    // sprites of all drills, indexed by the drill's ordinal
+    private final Sprite[] drillSprites;
+
+    // random used for visual effects
+    private final Random random = new Random();
+
+    /**
+     * Default class constructor
+     *
+     * @param textures texture atlas to look for textures in
+     */
+    public VehicleRenderer(TextureAtlas textures) {
+        vehicleSprite = new Sprite(textures.findRegion("vehicle_1"));
+        vehicleSprite.setSize(1, 1);
+        vehicleSprite.setOriginCenter();
+        vehicleSprite.setScale(1.1f);
+
+        Drill[] drills = Drill.values();
+        drillSprites = new Sprite[drills.length];
+
+        for (Drill drill: drills) {
+            Sprite drillSprite = new Sprite(textures.findRegion(drill.getTextureName()));
+            drillSprite.setSize(1, 1);
+            drillSprite.setOriginCenter();
+            drillSprite.setScale(1.2f);
+
+            drillSprites[drill.ordinal()] = drillSprite;
+        }
+    }
+
+    /**
+     * Draws a vehicle
+     *
+     * @param batch sprite batch to draw to
+     * @param vehicle vehicle to draw
+     * @param alpha how far the current render time is between the previous tick and
+     * the current one (0 - previous tick, 1 - current tick), used to interpolate
+     * the position so movement looks smooth at any frame rate
+     */
+    public void draw(SpriteBatch batch, Vehicle vehicle, float alpha) {
+        float x = vehicle.getX(alpha);
+        float y = vehicle.getY(alpha);
+
+        // offsets are used to add shaking effect when drilling
+        if (vehicle.isDrilling()) {
+            x += random.nextFloat() * 0.015f * (random.nextBoolean() ? -1 : 1);
+            y += random.nextFloat() * 0.015f * (random.nextBoolean() ? -1 : 1);
+        }
+
+        Sprite drillSprite = drillSprites[vehicle.getDrill().ordinal()];
+
+        drillSprite.setPosition(x, y);
+        drillSprite.setRotation(vehicle.getDrillRotation());
+        vehicleSprite.setPosition(x, y);
+
+        drillSprite.draw(batch);
+        vehicleSprite.draw(batch);
+    }
+}
@@ -0,0 +1,28 @@
+package com.gasis.digger.logic.entities;
+
+import com.gasis.digger.logic.entities.upgrades.Drill;
+import com.gasis.digger.logic.entities.upgrades.Engine;
+
+/**
+ * Copy of everything needed to restore a vehicle. Input (which keys are held)
+ * is not part of the state
+ */
+public class VehicleState {
+
+    // parts of the vehicle
+    public Drill drill;
+    public Engine engine;
+
+    // position and speed
+    public float x;
+    public float y;
+    public float xSpeed;
+    public float ySpeed;
+
+    // drilling progress
+    public boolean drilling;
+    public int drilledBlockX;
+    public int drilledBlockY;
+    public byte drilledBlockType;
+    public float drillRotation;
+}
@@ -0,0 +1,296 @@
+package com.gasis.digger.logic.entities;
+
+import com.gasis.digger.logic.terrain.BlockEdits;
+import com.gasis.digger.logic.terrain.Chunk;
+import com.gasis.digger.logic.terrain.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Steps all awake vehicles of a store, in parallel when there are enough of them.
+ * Vehicles are grouped by the chunk they are in and split into partitions, so vehicles
+ * of a partition touch the same few chunks. While vehicles are stepped the map is
+ * read-only and drilled through blocks are only collected, they are removed once all
+ * partitions are done, sorted by their coordinates.
+ *
+ * Since no vehicle sees the changes of another vehicle during the same tick, the
+ * result is the same no matter how many threads there are or how the vehicles
+ * are split
+ */
+public class VehicleStepper {
+
+    // fewest vehicles a partition gets, below that splitting costs more than it saves
+    private static final int MIN_VEHICLES_PER_PARTITION = 32;
+
+    // bits of a chunk number sorted per radix pass
+    private static final int RADIX_BITS = 8;
+
+    // threads to step partitions on (the calling thread steps one partition itself)
+    private final ExecutorService workers;
+
+    // partitions, one per thread including the calling one
+    private final Partition[] partitions;
+
+    // futures of partitions that run on the workers (reused every tick)
+    private final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+    // indices of the awake vehicles grouped by chunk
+    private int[] order = new int[16];
+
+    // chunk numbers of the awake vehicles in the high half, vehicle indices in the
+    // low half, and a second array the radix passes sort into
+    private long[] keys = new long[16];
+    private long[] sorted = new long[16];
+
+    // number of keys per digit value of a radix pass
+    private final int[] digitStarts = new int[(1 << RADIX_BITS) + 1];
+
+    // drilled through blocks of all partitions
+    private final BlockEdits edits = new BlockEdits();
+
+    /**
+     * Default class constructor
+     *
+     * @param workers threads to step vehicles on
+     * @param threads number of worker threads
+     */
+    public VehicleStepper(ExecutorService workers, int threads) {
+        this.workers = workers;
+
+        partitions = new Partition[threads + 1];
+
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+
+    /**
+     * Steps all awake vehicles (see Vehicle.step()) and collects the blocks they
+     * drilled through, they are removed by applyEdits(). Chunks around the vehicles
+     * are prepared first, in background generation mode chunks that are not ready yet
+     * read as solid
+     *
+     * @param store vehicles to step
+     * @param map map the vehicles are in
+     */
+    public void step(VehicleStore store, Map map) {
+        int count = store.getActiveCount();
+        int partitionCount = Math.max(1, Math.min(partitions.length, count / MIN_VEHICLES_PER_PARTITION));
+
+        if (partitionCount == 1) {
+            collect(store, map);
+        } else {
+            groupByChunk(store, map);
+        }
+
+        int perPartition = (count + partitionCount - 1) / partitionCount;
+
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i].set(store, map, i * perPartition, Math.min(count, (i + 1) * perPartition));
+        }
+
+        map.setReadOnly(true);
+
+        try {
+            futures.clear();
+
+            for (int i = 1; i < partitionCount; i++) {
+                futures.add(workers.submit(partitions[i]));
+            }
+
+            partitions[0].call();
+
+            // indexed, an iterator would be garbage every tick
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Vehicle step was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Vehicle step failed", ex.getCause());
+        } finally {
+            map.setReadOnly(false);
+        }
+
+        for (int i = 0; i < partitionCount; i++) {
+            edits.addAll(partitions[i].edits);
+        }
+    }
+
+    /**
+     * Removes the blocks drilled through during the last step. Blocks are removed in
+     * the order of their coordinates, not in the order they were drilled
+     *
+     * @param map map to remove the blocks from
+     */
+    public void applyEdits(Map map) {
+        edits.applyTo(map);
+    }
+
+    /**
+     * Takes the awake vehicles in the order they are stored and prepares the chunks
+     * around them, a single partition gains nothing from grouping
+     *
+     * @param store vehicles to step
+     * @param map map the vehicles are in
+     */
+    private void collect(VehicleStore store, Map map) {
+        int count = store.getActiveCount();
+
+        if (order.length < count) {
+            order = new int[Math.max(count, order.length * 2)];
+        }
+
+        for (int n = 0; n < count; n++) {
+            Vehicle vehicle = store.getActive(n);
+
+            map.prepareChunksAround(vehicle.getX(), vehicle.getY());
+
+            order[n] = vehicle.getIndex();
+        }
+    }
+
+    /**
+     * Groups the awake vehicles by the chunk they are in and prepares the chunks
+     * around them. Only the vehicles are sorted, by a radix sort over the chunk
+     * numbers, so the cost doesn't depend on the size of the map. Unlike Arrays.sort()
+     * it doesn't allocate a work array for the nearly sorted orders vehicles come in
+     * tick after tick
+     *
+     * @param store vehicles to group
+     * @param map map the vehicles are in
+     */
+    private void groupByChunk(VehicleStore store, Map map) {
+        int count = store.getActiveCount();
+        int chunksWide = (map.getWidth() + Chunk.MASK) >> Chunk.SHIFT;
+
+        if (order.length < count) {
+            order = new int[Math.max(count, order.length * 2)];
+        }
+
+        if (keys.length < count) {
+            keys = new long[Math.max(count, keys.length * 2)];
+            sorted = new long[keys.length];
+        }
+
+        int highestChunk = 0;
+
+        for (int n = 0; n < count; n++) {
+            Vehicle vehicle = store.getActive(n);
+
+            map.prepareChunksAround(vehicle.getX(), vehicle.getY());
+
+            int chunk = chunkOf(vehicle, map, chunksWide);
+            highestChunk = Math.max(highestChunk, chunk);
+
+            keys[n] = ((long) chunk << 32) | vehicle.getIndex();
+        }
+
+        // only as many passes as the highest chunk number has digits
+        for (int shift = 32; shift < 64 && highestChunk >>> (shift - 32) != 0; shift += RADIX_BITS) {
+            sortByDigit(count, shift);
+        }
+
+        for (int n = 0; n < count; n++) {
+            order[n] = (int) keys[n];
+        }
+    }
+
+    /**
+     * A single pass of the radix sort: a stable counting sort of the keys by one digit,
+     * the result ends up in keys again
+     *
+     * @param count number of keys
+     * @param shift bit the digit starts at
+     */
+    private void sortByDigit(int count, int shift) {
+        int mask = (1 << RADIX_BITS) - 1;
+
+        Arrays.fill(digitStarts, 0);
+
+        for (int n = 0; n < count; n++) {
+            digitStarts[((int) (keys[n] >>> shift) & mask) + 1]++;
+        }
+
+        for (int i = 0; i < mask + 1; i++) {
+            digitStarts[i + 1] += digitStarts[i];
+        }
+
+        // every key goes to the next free place of it's digit
+        for (int n = 0; n < count; n++) {
+            sorted[digitStarts[(int) (keys[n] >>> shift) & mask]++] = keys[n];
+        }
+
+        long[] swap = keys;
+        keys = sorted;
+        sorted = swap;
+    }
+
+    /**
+     * Gets the number of the chunk a vehicle is in
+     *
+     * @param vehicle vehicle
+     * @param map map the vehicle is in
+     * @param chunksWide number of chunks in a row of the map
+     * @return chunk number (row by row)
+     */
+    private static int chunkOf(Vehicle vehicle, Map map, int chunksWide) {
+        // positions are clamped to the map, but only once a vehicle is stepped
+        int x = Math.max(0, Math.min(map.getWidth() - 1, (int) vehicle.getX()));
+        int y = Math.max(0, Math.min(map.getHeight() - 1, (int) vehicle.getY()));
+
+        return (y >> Chunk.SHIFT) * chunksWide + (x >> Chunk.SHIFT);
+    }
+
+    /**
+     * Range of the grouped vehicles stepped by a single thread
+     */
+    private class Partition implements Callable<Void> {
+
+        // vehicles to step and the map they are in
+        private VehicleStore store;
+        private Map map;
+
+        // range of the grouped vehicles (first inclusive, last exclusive)
+        private int from;
+        private int to;
+
+        // blocks drilled through by the vehicles of this partition
+        private final BlockEdits edits = new BlockEdits();
+
+        /**
+         * Sets what the partition steps
+         *
+         * @param store vehicles to step
+         * @param map map the vehicles are in
+         * @param from first vehicle (index into the grouped order)
+         * @param to vehicle after the last one
+         */
+        void set(VehicleStore store, Map map, int from, int to) {
+            this.store = store;
+            this.map = map;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Steps the vehicles of the partition
+         * @return nothing
+         */
+        @Override
+        public Void call() {
+            for (int n = from; n < to; n++) {
+                store.get(order[n]).step(map, edits);
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.gasis.digger.logic.entities;
+
+import com.gasis.digger.logic.entities.upgrades.Drill;
+import com.gasis.digger.logic.entities.upgrades.Engine;
+
+import java.util.Arrays;
+
+/**
+ * State of many vehicles kept in parallel arrays (one array per property, indexed by
+ * the vehicle's index) instead of one object per vehicle. Steps that touch the same
+ * few properties of every vehicle, like moving them by their speed, go through
+ * the arrays in order instead of jumping from object to object.
+ *
+ * Vehicle objects are views into a store: every vehicle keeps only it's store and
+ * index. Vehicles that are awake are listed in the active list, batch steps only go
+ * through those
+ */
+public class VehicleStore {
+
+    // ********* INPUT FLAGS ******** //
+    // a bit is set if the vehicle is accelerating in that direction
+    public static final int INPUT_LEFT = 1;
+    public static final int INPUT_RIGHT = 1 << 1;
+    public static final int INPUT_UP = 1 << 2;
+    public static final int INPUT_DOWN = 1 << 3;
+    // ***** END OF INPUT FLAGS ***** //
+
+    // how fast can vehicles fall using only gravity
+    static final float MAX_FREE_FALLING_SPEED = 0.1f;
+
+    // capacity of a store created without one
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // number of vehicles in the store
+    int size = 0;
+
+    // vehicle coordinates in map block coordinate system
+    float[] x;
+    float[] y;
+
+    // vehicle coordinates during the previous tick
+    float[] prevX;
+    float[] prevY;
+
+    // x and y axis speeds
+    float[] xSpeed;
+    float[] ySpeed;
+
+    // how far the vehicles move this tick (their speed cut short by blocks in the way)
+    float[] moveX;
+    float[] moveY;
+
+    // specs calculated from the parts (see Vehicle.changeParts())
+    float[] maxSpeed;
+    float[] acceleration;
+    float[] maxFreeFallingSpeed;
+    float[] drillSpeed;
+    float[] drillingSpeed;
+
+    // parts of the vehicles
+    Drill[] drill;
+    Engine[] engine;
+
+    // input flags (which directions the vehicles are accelerating in)
+    byte[] input;
+
+    // drilling progress
+    boolean[] drilling;
+    float[] drillRotation;
+    int[] drilledBlockX;
+    int[] drilledBlockY;
+    byte[] drilledBlockType;
+
+    // key of the VehicleGrid cell the vehicle is kept in
+    long[] cell;
+
+    // is the vehicle awake (in the active list)
+    boolean[] awake;
+
+    // indices of awake vehicles
+    private int[] active;
+    private int activeCount = 0;
+
+    // views of the vehicles
+    private Vehicle[] vehicles;
+
+    /**
+     * Default class constructor
+     */
+    public VehicleStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a store with room for the given number of vehicles. The store grows
+     * when it runs out of room
+     *
+     * @param capacity initial capacity
+     */
+    public VehicleStore(int capacity) {
+        capacity = Math.max(1, capacity);
+
+        x = new float[capacity];
+        y = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        xSpeed = new float[capacity];
+        ySpeed = new float[capacity];
+        moveX = new float[capacity];
+        moveY = new float[capacity];
+        maxSpeed = new float[capacity];
+        acceleration = new float[capacity];
+        maxFreeFallingSpeed = new float[capacity];
+        drillSpeed = new float[capacity];
+        drillingSpeed = new float[capacity];
+        drill = new Drill[capacity];
+        engine = new Engine[capacity];
+        input = new byte[capacity];
+        drilling = new boolean[capacity];
+        drillRotation = new float[capacity];
+        drilledBlockX = new int[capacity];
+        drilledBlockY = new int[capacity];
+        drilledBlockType = new byte[capacity];
+        cell = new long[capacity];
+        awake = new boolean[capacity];
+        active = new int[capacity];
+        vehicles = new Vehicle[capacity];
+    }
+
+    /**
+     * Grows all arrays
+     *
+     * @param capacity new capacity
+     */
+    private void resize(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        xSpeed = Arrays.copyOf(xSpeed, capacity);
+        ySpeed = Arrays.copyOf(ySpeed, capacity);
+        moveX = Arrays.copyOf(moveX, capacity);
+        moveY = Arrays.copyOf(moveY, capacity);
+        maxSpeed = Arrays.copyOf(maxSpeed, capacity);
+        acceleration = Arrays.copyOf(acceleration, capacity);
+        maxFreeFallingSpeed = Arrays.copyOf(maxFreeFallingSpeed, capacity);
+        drillSpeed = Arrays.copyOf(drillSpeed, capacity);
+        drillingSpeed = Arrays.copyOf(drillingSpeed, capacity);
+        drill = Arrays.copyOf(drill, capacity);
+        engine = Arrays.copyOf(engine, capacity);
+        input = Arrays.copyOf(input, capacity);
+        drilling = Arrays.copyOf(drilling, capacity);
+        drillRotation = Arrays.copyOf(drillRotation, capacity);
+        drilledBlockX = Arrays.copyOf(drilledBlockX, capacity);
+        drilledBlockY = Arrays.copyOf(drilledBlockY, capacity);
+        drilledBlockType = Arrays.copyOf(drilledBlockType, capacity);
+        cell = Arrays.copyOf(cell, capacity);
+        awake = Arrays.copyOf(awake, capacity);
+        active = Arrays.copyOf(active, capacity);
+        vehicles = Arrays.copyOf(vehicles, capacity);
+    }
+
+    /**
+     * Adds a vehicle with default state. New vehicles are awake
+     *
+     * @param vehicle view of the vehicle
+     * @return index of the vehicle
+     */
+    int add(Vehicle vehicle) {
+        if (size == x.length) {
+            resize(size * 2);
+        }
+
+        int index = size++;
+
+        vehicles[index] = vehicle;
+        maxFreeFallingSpeed[index] = MAX_FREE_FALLING_SPEED;
+
+        awake[index] = true;
+        active[activeCount++] = index;
+
+        return index;
+    }
+
+    /**
+     * Moves a vehicle into this store. The vehicle keeps it's state, but from now on
+     * the state is kept here
+     *
+     * @param vehicle vehicle to move
+     */
+    public void adopt(Vehicle vehicle) {
+        VehicleStore from = vehicle.getStore();
+
+        if (from == this) {
+            return;
+        }
+
+        int source = vehicle.getIndex();
+        int index = add(vehicle);
+
+        x[index] = from.x[source];
+        y[index] = from.y[source];
+        prevX[index] = from.prevX[source];
+        prevY[index] = from.prevY[source];
+        xSpeed[index] = from.xSpeed[source];
+        ySpeed[index] = from.ySpeed[source];
+        maxSpeed[index] = from.maxSpeed[source];
+        acceleration[index] = from.acceleration[source];
+        maxFreeFallingSpeed[index] = from.maxFreeFallingSpeed[source];
+        drillSpeed[index] = from.drillSpeed[source];
+        drillingSpeed[index] = from.drillingSpeed[source];
+        drill[index] = from.drill[source];
+        engine[index] = from.engine[source];
+        input[index] = from.input[source];
+        drilling[index] = from.drilling[source];
+        drillRotation[index] = from.drillRotation[source];
+        drilledBlockX[index] = from.drilledBlockX[source];
+        drilledBlockY[index] = from.drilledBlockY[source];
+        drilledBlockType[index] = from.drilledBlockType[source];
+        cell[index] = from.cell[source];
+
+        vehicle.bind(this, index);
+    }
+
+    /**
+     * Starts a tick for all awake vehicles: remembers where they were (for
+     * interpolation) and spins the drills of drilling vehicles
+     */
+    public void beginTick() {
+        for (int n = 0; n < activeCount; n++) {
+            beginTick(active[n]);
+        }
+    }
+
+    /**
+     * Starts a tick for a single vehicle
+     *
+     * @param index index of the vehicle
+     */
+    void beginTick(int index) {
+        prevX[index] = x[index];
+        prevY[index] = y[index];
+
+        if (drilling[index]) {
+            if (drillRotation[index] <= -360) {
+                drillRotation[index] = 0;
+            }
+
+            drillRotation[index] -= drillSpeed[index];
+        }
+    }
+
+    /**
+     * Moves all awake vehicles. Called at the end of a tick, after the vehicles were
+     * stepped and decided how far they move (see Vehicle.step())
+     */
+    public void integrate() {
+        for (int n = 0; n < activeCount; n++) {
+            int index = active[n];
+
+            x[index] += moveX[index];
+            y[index] += moveY[index];
+        }
+    }
+
+    /**
+     * Moves a single vehicle
+     *
+     * @param index index of the vehicle
+     */
+    void integrate(int index) {
+        x[index] += moveX[index];
+        y[index] += moveY[index];
+    }
+
+    /**
+     * Wakes a vehicle up, adding it to the end of the active list. Does nothing if the
+     * vehicle is already awake
+     *
+     * @param vehicle vehicle to wake up
+     */
+    public void wake(Vehicle vehicle) {
+        int index = vehicle.getIndex();
+
+        if (awake[index]) {
+            return;
+        }
+
+        awake[index] = true;
+        active[activeCount++] = index;
+
+        // the vehicle didn't move while asleep
+        prevX[index] = x[index];
+        prevY[index] = y[index];
+    }
+
+    /**
+     * Puts an awake vehicle to sleep. The last vehicle of the active list takes it's
+     * place, so the list should be walked backwards when putting vehicles to sleep
+     *
+     * @param n position of the vehicle in the active list
+     */
+    public void sleep(int n) {
+        awake[active[n]] = false;
+        active[n] = active[--activeCount];
+    }
+
+    /**
+     * Gets an awake vehicle
+     *
+     * @param n position of the vehicle in the active list (0 - getActiveCount())
+     * @return vehicle
+     */
+    public Vehicle getActive(int n) {
+        return vehicles[active[n]];
+    }
+
+    /**
+     * Gets the number of awake vehicles
+     * @return awake vehicle count
+     */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * Gets a vehicle
+     *
+     * @param index index of the vehicle (0 - size())
+     * @return vehicle
+     */
+    public Vehicle get(int index) {
+        return vehicles[index];
+    }
+
+    /**
+     * Gets the number of vehicles
+     * @return vehicle count
+     */
+    public int size() {
+        return size;
+    }
+}
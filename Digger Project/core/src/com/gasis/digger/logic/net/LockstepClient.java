@@ -0,0 +1,173 @@
+package com.gasis.digger.logic.net;
+
+import com.gasis.digger.logic.GameWorld;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Player's connection to a LockstepServer. Sends the local player's input and runs
+ * the world's ticks with the inputs of all players as they arrive from the server
+ * (see LockstepServer for the protocol).
+ *
+ * Only inputs are exchanged, so every player has to start with the same world: a world
+ * created with the seed and the player count received from the server
+ * (GameWorld(int, int)), no ticks run on it before
+ */
+public class LockstepClient implements Closeable {
+
+    // number of ticks between state hashes sent to the server
+    public static final int HASH_INTERVAL = 30;
+
+    // connection to the server
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    // game settings received from the server
+    private final int seed;
+    private final int players;
+    private final int player;
+    private final int delay;
+
+    // number of frames run so far
+    private long frames = 0;
+
+    // traffic so far (in bytes, without the connection setup)
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
+
+    /**
+     * Connects to a server and waits until every player connected
+     *
+     * @param host host the server runs on
+     * @param port port of the server
+     * @return connected client
+     * @throws IOException if the server can't be reached or is not a lockstep server
+     */
+    public static LockstepClient connect(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+
+        try {
+            socket.setTcpNoDelay(true);
+            return new LockstepClient(socket);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Default class constructor
+     *
+     * @param socket connection to the server
+     * @throws IOException if the server is not a lockstep server
+     */
+    private LockstepClient(Socket socket) throws IOException {
+        this.socket = socket;
+
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (in.readInt() != LockstepServer.MAGIC) {
+            throw new IOException("Not a lockstep server");
+        }
+
+        seed = in.readInt();
+        players = in.readUnsignedByte();
+        player = in.readUnsignedByte();
+        delay = in.readUnsignedByte();
+
+        // nobody had any input during the first ticks
+        for (int i = 0; i < delay; i++) {
+            out.writeByte(0);
+        }
+
+        out.flush();
+        bytesSent += delay;
+    }
+
+    /**
+     * Runs the next tick if it's inputs already arrived, doesn't wait for them
+     *
+     * @param world world to run the tick in
+     * @param input input of the local player (VehicleStore.INPUT_* flags), it's applied
+     * a few ticks later
+     * @return true if the tick was run
+     * @throws IOException if the connection fails or the players went out of sync
+     */
+    public boolean tryTick(GameWorld world, int input) throws IOException {
+        if (in.available() < players + 1) {
+            return false;
+        }
+
+        tick(world, input);
+
+        return true;
+    }
+
+    /**
+     * Runs the next tick, waits for it's inputs if they didn't arrive yet
+     *
+     * @param world world to run the tick in
+     * @param input input of the local player (VehicleStore.INPUT_* flags), it's applied
+     * a few ticks later
+     * @throws IOException if the connection fails or the players went out of sync
+     */
+    public void tick(GameWorld world, int input) throws IOException {
+        int flags = in.readUnsignedByte();
+
+        if ((flags & LockstepServer.FLAG_DESYNC) != 0) {
+            // the hash checked in this frame was sent after the tick delay frames back
+            throw new IOException("Went out of sync with the other players at tick " + (frames - delay + 1));
+        }
+
+        for (int i = 0; i < players; i++) {
+            world.setInput(i, in.readUnsignedByte() & LockstepServer.INPUT_MASK);
+        }
+
+        bytesReceived += players + 1;
+
+        world.tick();
+        frames++;
+
+        // input for the tick delay ticks ahead, the hash of the state after this tick
+        // goes along with it every once in a while
+        int message = input & LockstepServer.INPUT_MASK;
+
+        if (world.getTickCount() % HASH_INTERVAL == 0) {
+            out.writeByte(message | LockstepServer.FLAG_HASH);
+            out.writeInt(world.hashState());
+            bytesSent += 5;
+        } else {
+            out.writeByte(message);
+            bytesSent++;
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Leaves the game, the other players are disconnected too
+     * @throws IOException if the connection can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // game settings getters
+    public int getSeed() { return seed; }
+    public int getPlayerCount() { return players; }
+    public int getPlayer() { return player; }
+    public int getInputDelay() { return delay; }
+
+    // traffic getters
+    public long getBytesSent() { return bytesSent; }
+    public long getBytesReceived() { return bytesReceived; }
+}
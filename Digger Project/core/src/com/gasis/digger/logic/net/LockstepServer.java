@@ -0,0 +1,222 @@
+package com.gasis.digger.logic.net;
+
+import com.gasis.digger.utils.DaemonThreadFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Relays inputs between the players of a networked game. Every player sends the input
+ * it had during a tick (one byte), once the inputs of all players for a tick arrived
+ * they are sent to every player as a frame (a flag byte and one byte per player).
+ * Players run the simulation only with complete frames, so every player simulates
+ * exactly the same ticks with exactly the same inputs (lockstep) and the state itself
+ * is never sent.
+ *
+ * Every LockstepClient.HASH_INTERVAL ticks players also send a hash of their state,
+ * if the hashes of a tick differ the frame is sent with the desync flag.
+ *
+ * Usually the host runs the server and connects to it like every other player, the
+ * first player to connect becomes player 0
+ */
+public class LockstepServer implements Runnable, Closeable {
+
+    // ************ PROTOCOL ************ //
+    // first thing the server sends to every player (followed by the seed, the number
+    // of players, the player's index and the input delay)
+    static final int MAGIC = 0x4449474c;
+
+    // bits of a player's message that hold the input (VehicleStore.INPUT_* flags)
+    static final int INPUT_MASK = 0x0f;
+
+    // set in a player's message if a state hash follows it
+    static final int FLAG_HASH = 0x80;
+
+    // set in a frame's flag byte if the players' hashes differed
+    static final int FLAG_DESYNC = 1;
+    // ******** END OF PROTOCOL ********* //
+
+    // most players a game can have (every player needs room on the surface)
+    public static final int MAX_PLAYERS = 8;
+
+    // default number of ticks between a player's input and the tick it's applied in,
+    // so inputs have time to reach every player before they are needed
+    public static final int INPUT_DELAY = 3;
+
+    // accepts the players
+    private final ServerSocket serverSocket;
+
+    // players' connections in the order they connected
+    private final Socket[] sockets;
+
+    // seed of the map every player generates
+    private final int seed;
+
+    // ticks between an input and the tick it's applied in
+    private final int delay;
+
+    // set once the server is closed, so errors caused by closing are not reported
+    private volatile boolean closed = false;
+
+    // error that stopped the server (null if none)
+    private volatile IOException error;
+
+    /**
+     * Default class constructor. Starts listening right away, but players are only
+     * accepted once start() is called
+     *
+     * @param port port to listen on, 0 for any free port (see getPort())
+     * @param players number of players in the game
+     * @param seed seed of the map
+     * @throws IOException if the port can't be listened on
+     */
+    public LockstepServer(int port, int players, int seed) throws IOException {
+        if (players < 1 || players > MAX_PLAYERS) {
+            throw new IllegalArgumentException("Player count must be 1 - " + MAX_PLAYERS + ", got " + players);
+        }
+
+        this.seed = seed;
+        this.delay = INPUT_DELAY;
+
+        sockets = new Socket[players];
+        serverSocket = new ServerSocket(port);
+    }
+
+    /**
+     * Starts accepting players and relaying their inputs on a background thread
+     */
+    public void start() {
+        new DaemonThreadFactory("lockstep-server").newThread(this).start();
+    }
+
+    /**
+     * Accepts the players and relays their inputs until one of them leaves or the
+     * server is closed
+     */
+    @Override
+    public void run() {
+        try {
+            DataInputStream[] in = new DataInputStream[sockets.length];
+            DataOutputStream[] out = new DataOutputStream[sockets.length];
+
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = serverSocket.accept();
+                sockets[i].setTcpNoDelay(true);
+
+                in[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+                out[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+            }
+
+            // everyone is here, the game can start
+            for (int i = 0; i < sockets.length; i++) {
+                out[i].writeInt(MAGIC);
+                out[i].writeInt(seed);
+                out[i].writeByte(sockets.length);
+                out[i].writeByte(i);
+                out[i].writeByte(delay);
+                out[i].flush();
+            }
+
+            relay(in, out);
+        } catch (IOException ex) {
+            if (!closed) {
+                error = ex;
+            }
+        } finally {
+            closeSockets();
+        }
+    }
+
+    /**
+     * Relays the players' inputs, one frame per tick
+     *
+     * @param in players' input streams
+     * @param out players' output streams
+     * @throws IOException if a connection fails
+     */
+    private void relay(DataInputStream[] in, DataOutputStream[] out) throws IOException {
+        byte[] frame = new byte[sockets.length + 1];
+
+        while (true) {
+            boolean desync = false;
+
+            // hash of the first player (presence in the upper bits), others must match it
+            long expected = 0;
+
+            for (int i = 0; i < sockets.length; i++) {
+                int message = in[i].read();
+
+                if (message == -1) {
+                    // a player left, the game is over
+                    return;
+                }
+
+                long hash = (message & FLAG_HASH) != 0 ? (1L << 32) | (in[i].readInt() & 0xffffffffL) : 0;
+
+                if (i == 0) {
+                    expected = hash;
+                } else if (hash != expected) {
+                    desync = true;
+                }
+
+                frame[i + 1] = (byte) (message & INPUT_MASK);
+            }
+
+            frame[0] = (byte) (desync ? FLAG_DESYNC : 0);
+
+            for (DataOutputStream stream: out) {
+                stream.write(frame);
+                stream.flush();
+            }
+        }
+    }
+
+    /**
+     * Closes the players' connections
+     */
+    private void closeSockets() {
+        for (Socket socket: sockets) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // nothing to do, the connection is gone either way
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the server and disconnects all players
+     * @throws IOException if the server socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        closeSockets();
+        serverSocket.close();
+    }
+
+    /**
+     * Gets the port the server is listening on
+     * @return port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the error that stopped the server
+     * @return error or null if there was none
+     */
+    public IOException getError() {
+        return error;
+    }
+}
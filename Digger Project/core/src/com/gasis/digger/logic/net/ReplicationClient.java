@@ -0,0 +1,365 @@
+package com.gasis.digger.logic.net;
+
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.entities.Vehicle;
+import com.gasis.digger.logic.entities.VehicleState;
+import com.gasis.digger.logic.entities.upgrades.Drill;
+import com.gasis.digger.logic.entities.upgrades.Engine;
+import com.gasis.digger.logic.terrain.BlockEdits;
+import com.gasis.digger.utils.Varints;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Client of a ReplicationServer. Sends the local player's input and shows the state
+ * received from the server in a world that doesn't simulate anything itself: a world
+ * created with the seed received from the server (GameWorld(int) or
+ * GameWorld(Resources, int, int)) whose update() is never called.
+ *
+ * Snapshots only arrive every few ticks, so vehicles are moved from where they are shown
+ * to where the newest snapshot puts them over the time between the last two snapshots
+ * instead of jumping there
+ */
+public class ReplicationClient implements Closeable {
+
+    // connection to the server, non-blocking once connected
+    private final SocketChannel channel;
+
+    // received data that was not handled yet
+    private final ByteBuffer in = ByteBuffer.allocate(ReplicationServer.MAX_MESSAGE_SIZE + 2);
+
+    // input being sent
+    private final ByteBuffer out = ByteBuffer.allocate(1);
+
+    // seed of the map and index of the client's vehicle
+    private final int seed;
+    private final int vehicle;
+
+    // last input sent (-1 so the first input is always sent)
+    private int sentInput = -1;
+
+    // tick of the newest snapshot (-1 if none arrived yet)
+    private int tick = -1;
+
+    // number of vehicles in the server's world
+    private int vehicleCount = 0;
+
+    // vehicle state as received (positions in 1/POSITION_SCALE blocks)
+    private int[] quantizedX = new int[16];
+    private int[] quantizedY = new int[16];
+    private byte[] rotation = new byte[16];
+    private boolean[] drilling = new boolean[16];
+
+    // vehicle positions the interpolation goes from and to
+    private float[] fromX = new float[16];
+    private float[] fromY = new float[16];
+    private float[] toX = new float[16];
+    private float[] toY = new float[16];
+
+    // interpolation progress and length (in ticks)
+    private float elapsed = 0;
+    private float duration = 0;
+
+    // received blocks that were not removed from the world yet
+    private final BlockEdits removed = new BlockEdits();
+
+    // reused to change vehicles of the world
+    private final VehicleState state = new VehicleState();
+
+    // set once the server closed the connection
+    private boolean disconnected = false;
+
+    // statistics
+    private long bytesReceived = 0;
+    private int snapshots = 0;
+
+    /**
+     * Connects to a server and waits for the welcome message
+     *
+     * @param host host the server runs on
+     * @param port port of the server
+     * @return connected client
+     * @throws IOException if the server can't be reached or is not a replication server
+     */
+    public static ReplicationClient connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+
+        try {
+            channel.socket().setTcpNoDelay(true);
+            return new ReplicationClient(channel);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Default class constructor
+     *
+     * @param channel blocking connection to the server
+     * @throws IOException if the welcome message can't be read
+     */
+    private ReplicationClient(SocketChannel channel) throws IOException {
+        this.channel = channel;
+
+        // blocks until the whole welcome message is here
+        while (!hasMessage()) {
+            if (channel.read(in) == -1) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+
+        in.flip();
+        in.getShort();
+
+        if (in.get() != ReplicationServer.MESSAGE_WELCOME) {
+            throw new IOException("Not a replication server");
+        }
+
+        seed = in.getInt();
+        vehicle = Varints.get(in);
+
+        in.compact();
+
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Checks if the received data (in write mode) holds a whole message
+     * @return true if it does
+     */
+    private boolean hasMessage() {
+        return in.position() >= 2 && in.position() >= 2 + (in.getShort(0) & 0xffff);
+    }
+
+    /**
+     * Receives what the server sent, sends the local player's input and updates the
+     * world. Should be called every frame instead of GameWorld.update()
+     *
+     * @param world world to show the server's state in
+     * @param delta time elapsed since the last update
+     * @throws IOException if the connection fails or the server sent something invalid
+     */
+    public void update(GameWorld world, float delta) throws IOException {
+        receive();
+        sendInput(world.getLocalInput());
+
+        elapsed += delta / GameWorld.TICK_LENGTH;
+
+        apply(world);
+    }
+
+    /**
+     * Reads and handles everything that arrived, doesn't wait for anything
+     * @throws IOException if the connection fails or the server sent something invalid
+     */
+    private void receive() throws IOException {
+        if (disconnected) {
+            return;
+        }
+
+        int read;
+
+        while ((read = channel.read(in)) > 0) {
+            bytesReceived += read;
+        }
+
+        in.flip();
+
+        try {
+            while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xffff)) {
+                int end = in.position() + 2 + (in.getShort() & 0xffff);
+
+                int type = in.get();
+
+                if (type != ReplicationServer.MESSAGE_SNAPSHOT) {
+                    throw new IOException("Unknown message type " + type);
+                }
+
+                readSnapshot();
+
+                in.position(end);
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted message", ex);
+        } finally {
+            in.compact();
+        }
+
+        if (read == -1) {
+            disconnected = true;
+        }
+    }
+
+    /**
+     * Reads a snapshot and starts moving the vehicles towards it
+     */
+    private void readSnapshot() {
+        int snapshotTick = Varints.get(in);
+        int count = Varints.get(in);
+
+        ensureCapacity(count);
+
+        // the interpolation starts from where the vehicles are shown now
+        float progress = progress();
+
+        for (int i = 0; i < vehicleCount; i++) {
+            fromX[i] = fromX[i] + (toX[i] - fromX[i]) * progress;
+            fromY[i] = fromY[i] + (toY[i] - fromY[i]) * progress;
+        }
+
+        duration = tick == -1 ? 0 : snapshotTick - tick;
+        elapsed = 0;
+
+        tick = snapshotTick;
+
+        // removed blocks
+        int removedCount = Varints.get(in);
+
+        for (int i = 0; i < removedCount; i++) {
+            int x = Varints.get(in);
+            removed.removeBlock(x, Varints.get(in));
+        }
+
+        // changed vehicles
+        int changed = in.getShort() & 0xffff;
+
+        for (int n = 0; n < changed; n++) {
+            int i = Varints.get(in);
+            int flags = in.get();
+
+            if ((flags & ReplicationServer.CHANGED_X) != 0) {
+                quantizedX[i] += Varints.getSigned(in);
+            }
+
+            if ((flags & ReplicationServer.CHANGED_Y) != 0) {
+                quantizedY[i] += Varints.getSigned(in);
+            }
+
+            if ((flags & ReplicationServer.CHANGED_ROTATION) != 0) {
+                rotation[i] = in.get();
+            }
+
+            drilling[i] = (flags & ReplicationServer.DRILLING) != 0;
+
+            toX[i] = quantizedX[i] / ReplicationServer.POSITION_SCALE;
+            toY[i] = quantizedY[i] / ReplicationServer.POSITION_SCALE;
+
+            // vehicles that were not shown yet appear right where they are
+            if (i >= vehicleCount) {
+                fromX[i] = toX[i];
+                fromY[i] = toY[i];
+            }
+        }
+
+        vehicleCount = Math.max(vehicleCount, count);
+        snapshots++;
+    }
+
+    /**
+     * Makes room for the given number of vehicles
+     * @param count number of vehicles
+     */
+    private void ensureCapacity(int count) {
+        if (quantizedX.length >= count) {
+            return;
+        }
+
+        int capacity = Math.max(count, quantizedX.length * 2);
+
+        quantizedX = Arrays.copyOf(quantizedX, capacity);
+        quantizedY = Arrays.copyOf(quantizedY, capacity);
+        rotation = Arrays.copyOf(rotation, capacity);
+        drilling = Arrays.copyOf(drilling, capacity);
+        fromX = Arrays.copyOf(fromX, capacity);
+        fromY = Arrays.copyOf(fromY, capacity);
+        toX = Arrays.copyOf(toX, capacity);
+        toY = Arrays.copyOf(toY, capacity);
+    }
+
+    /**
+     * Gets how far the vehicles got from the previous positions to the newest ones
+     * @return progress (0 - 1)
+     */
+    private float progress() {
+        return elapsed >= duration ? 1 : elapsed / duration;
+    }
+
+    /**
+     * Sends the local player's input if it changed since it was last sent
+     *
+     * @param input input flags (VehicleStore.INPUT_*)
+     * @throws IOException if the connection fails
+     */
+    private void sendInput(int input) throws IOException {
+        if (input == sentInput || disconnected) {
+            return;
+        }
+
+        out.clear();
+        out.put((byte) (input & ReplicationServer.INPUT_MASK));
+        out.flip();
+
+        // if the socket's buffer is full the input is sent during the next update
+        if (channel.write(out) == 1) {
+            sentInput = input;
+        }
+    }
+
+    /**
+     * Shows the received state in the world: removes the received blocks, adds vehicles
+     * that joined and moves all vehicles to their interpolated positions
+     * @param world world to update
+     */
+    private void apply(GameWorld world) {
+        removed.applyTo(world.getMap());
+
+        while (world.getVehicleCount() < vehicleCount) {
+            world.addVehicle(new Vehicle(Drill.STOCK, Engine.STOCK));
+        }
+
+        if (vehicle < vehicleCount) {
+            world.setLocalPlayer(vehicle);
+        }
+
+        float progress = progress();
+
+        for (int i = 0; i < vehicleCount; i++) {
+            world.getVehicle(i).getState(state);
+
+            state.x = fromX[i] + (toX[i] - fromX[i]) * progress;
+            state.y = fromY[i] + (toY[i] - fromY[i]) * progress;
+            state.drilling = drilling[i];
+            state.drillRotation = -(rotation[i] & 0xff) * ReplicationServer.ROTATION_STEP;
+
+            world.setVehicleState(i, state);
+        }
+    }
+
+    /**
+     * Disconnects from the server, the client's vehicle stays in the server's world
+     * @throws IOException if the connection can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // settings getters
+    public int getSeed() { return seed; }
+    public int getVehicle() { return vehicle; }
+
+    // state getters
+    public boolean isConnected() { return !disconnected; }
+    public int getTick() { return tick; }
+    public int getVehicleCount() { return vehicleCount; }
+
+    // statistics getters
+    public long getBytesReceived() { return bytesReceived; }
+    public int getSnapshots() { return snapshots; }
+}
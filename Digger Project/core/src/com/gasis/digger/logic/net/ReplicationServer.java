@@ -0,0 +1,635 @@
+package com.gasis.digger.logic.net;
+
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.entities.Vehicle;
+import com.gasis.digger.logic.terrain.BlockListener;
+import com.gasis.digger.utils.DaemonThreadFactory;
+import com.gasis.digger.utils.Varints;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Authoritative server: runs a headless world and sends it's state to clients, clients
+ * only send their input. Every client gets a vehicle of it's own when it connects.
+ *
+ * Every SNAPSHOT_INTERVAL ticks each client gets a snapshot that only holds what
+ * changed since the last snapshot that client got: blocks removed since then and
+ * vehicles whose position (in 1/POSITION_SCALE blocks), drill or drilling state
+ * changed, as differences in variable length integers. A client that can't keep up
+ * skips snapshots, the next one it gets covers everything it missed.
+ *
+ * All clients are served by a single thread with a selector, the same thread runs
+ * the world's ticks
+ */
+public class ReplicationServer implements Runnable, Closeable {
+
+    // ************ PROTOCOL ************ //
+    // every message from the server is a 2 byte length, a type byte and the payload
+
+    // seed of the map and index of the client's vehicle
+    static final int MESSAGE_WELCOME = 1;
+
+    // tick, vehicle count, removed blocks and changed vehicles
+    static final int MESSAGE_SNAPSHOT = 2;
+
+    // bits of a changed vehicle's flag byte: what follows and if the vehicle is drilling
+    static final int CHANGED_X = 1;
+    static final int CHANGED_Y = 1 << 1;
+    static final int CHANGED_ROTATION = 1 << 2;
+    static final int DRILLING = 1 << 3;
+
+    // positions are sent in 1/POSITION_SCALE blocks
+    static final float POSITION_SCALE = 128;
+
+    // drill rotations are sent in a byte, a step is ROTATION_STEP degrees
+    static final float ROTATION_STEP = 360 / 256f;
+
+    // largest message (without the length)
+    static final int MAX_MESSAGE_SIZE = 16 * 1024;
+
+    // clients send their input as a single byte whenever it changes, these are the
+    // bits that hold the VehicleStore.INPUT_* flags
+    static final int INPUT_MASK = 0x0f;
+    // ******** END OF PROTOCOL ********* //
+
+    // number of ticks between snapshots
+    public static final int SNAPSHOT_INTERVAL = 3;
+
+    // most removed blocks a single snapshot holds, the rest go with the next ones
+    private static final int MAX_REMOVALS_PER_SNAPSHOT = 1024;
+
+    // most bytes a changed vehicle takes (index, flags, x, y and rotation)
+    private static final int MAX_VEHICLE_SIZE = Varints.MAX_SIZE * 3 + 2;
+
+    // length of a tick in nanoseconds
+    private static final long TICK_NANOS = (long) (GameWorld.TICK_LENGTH * 1000000000L);
+
+    // how long closing waits for the clients to get the last snapshot (in nanoseconds)
+    private static final long CLOSE_TIMEOUT_NANOS = 1000000000L;
+
+    // world being served
+    private final GameWorld world;
+
+    // accepts clients and waits for all their channels
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    // connected clients
+    private final List<Client> clients = new ArrayList<Client>();
+
+    // every block removed since the server started, x in the upper and y in the lower bits
+    private long[] removals = new long[64];
+    private int removalCount = 0;
+
+    // state of every vehicle as it's sent, updated before each round of snapshots
+    private int[] quantizedX = new int[16];
+    private int[] quantizedY = new int[16];
+    private byte[] rotation = new byte[16];
+    private boolean[] drilling = new boolean[16];
+
+    // thread running the server (null if it was not started)
+    private Thread thread;
+
+    // set once the server is closed
+    private volatile boolean closed = false;
+
+    // error that stopped the server (null if none)
+    private volatile IOException error;
+
+    // statistics
+    private volatile int clientCount = 0;
+    private volatile long bytesSent = 0;
+
+    /**
+     * Default class constructor. Starts listening right away, but clients are only
+     * accepted once start() is called. From then on the world belongs to the server's
+     * thread, it must not be touched until the server is closed
+     *
+     * @param world world to serve
+     * @param port port to listen on, 0 for any free port (see getPort())
+     * @throws IOException if the port can't be listened on
+     */
+    public ReplicationServer(GameWorld world, int port) throws IOException {
+        this.world = world;
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            serverChannel.close();
+            selector.close();
+            throw ex;
+        }
+
+        world.setBlockListener(new BlockListener() {
+            @Override
+            public void blockRemoved(int x, int y) {
+                addRemoval(x, y);
+            }
+        });
+    }
+
+    /**
+     * Starts serving clients and running the world on a background thread
+     */
+    public void start() {
+        thread = new DaemonThreadFactory("replication-server").newThread(this);
+        thread.start();
+    }
+
+    /**
+     * Runs the world's ticks in real time and serves clients in between until the
+     * server is closed
+     */
+    @Override
+    public void run() {
+        try {
+            long nextTick = System.nanoTime();
+            long closeDeadline = 0;
+
+            // true while every client got the current state of the world
+            boolean synced = false;
+
+            while (true) {
+                // once closed the world stops and the server waits for the clients to get
+                // the last snapshot, so they end up with exactly the same state
+                if (closed) {
+                    if (closeDeadline == 0) {
+                        closeDeadline = System.nanoTime() + CLOSE_TIMEOUT_NANOS;
+                    }
+
+                    if ((synced && isFlushed()) || System.nanoTime() - closeDeadline >= 0) {
+                        break;
+                    }
+                }
+
+                long wait = (nextTick - System.nanoTime()) / 1000000L;
+
+                if (wait > 0) {
+                    selector.select(wait);
+                } else {
+                    selector.selectNow();
+                }
+
+                handleSelectedKeys();
+
+                int ticks = 0;
+
+                while (System.nanoTime() - nextTick >= 0 && ticks < GameWorld.MAX_TICKS_PER_UPDATE
+                        && !(closed && synced)) {
+                    synced = tick();
+
+                    nextTick += TICK_NANOS;
+                    ticks++;
+                }
+
+                // the server can't keep up, drop the time it couldn't simulate
+                if (System.nanoTime() - nextTick >= 0) {
+                    nextTick = System.nanoTime();
+                }
+            }
+        } catch (IOException ex) {
+            if (!closed) {
+                error = ex;
+            }
+        } finally {
+            for (Client client: clients) {
+                closeQuietly(client.channel);
+            }
+
+            clients.clear();
+            clientCount = 0;
+
+            closeQuietly(serverChannel);
+
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // nothing to do, the server is stopping either way
+            }
+        }
+    }
+
+    /**
+     * Accepts new clients, reads inputs and writes what's left of snapshots
+     * @throws IOException if accepting clients fails
+     */
+    private void handleSelectedKeys() throws IOException {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (!key.isValid()) {
+                continue;
+            }
+
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+
+            Client client = (Client) key.attachment();
+
+            if (key.isReadable()) {
+                read(client);
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                write(client);
+            }
+        }
+    }
+
+    /**
+     * Accepts a client and gives it a vehicle
+     * @throws IOException if accepting fails
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+
+        if (channel == null) {
+            return;
+        }
+
+        Client client = new Client(channel);
+
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        } catch (IOException ex) {
+            closeQuietly(channel);
+            return;
+        }
+
+        client.vehicle = world.addPlayer();
+
+        clients.add(client);
+        clientCount = clients.size();
+
+        ByteBuffer out = client.out;
+
+        out.clear();
+        out.putShort((short) 0);
+        out.put((byte) MESSAGE_WELCOME);
+        out.putInt(world.getSeed());
+        Varints.put(out, world.getVehicleCount() - 1);
+        out.putShort(0, (short) (out.position() - 2));
+        out.flip();
+
+        write(client);
+    }
+
+    /**
+     * Reads a client's input, only the latest input matters
+     * @param client client to read from
+     */
+    private void read(Client client) {
+        ByteBuffer in = client.in;
+
+        try {
+            in.clear();
+            int read = client.channel.read(in);
+
+            if (read == -1) {
+                disconnect(client);
+            } else if (read > 0) {
+                client.vehicle.setInput(in.get(read - 1) & INPUT_MASK);
+            }
+        } catch (IOException ex) {
+            disconnect(client);
+        }
+    }
+
+    /**
+     * Writes as much of a client's pending message as the channel takes, the rest is
+     * written once the channel is writable again
+     * @param client client to write to
+     */
+    private void write(Client client) {
+        try {
+            bytesSent += client.channel.write(client.out);
+        } catch (IOException ex) {
+            disconnect(client);
+            return;
+        }
+
+        int ops = SelectionKey.OP_READ;
+
+        if (client.out.hasRemaining()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+
+        client.key.interestOps(ops);
+    }
+
+    /**
+     * Disconnects a client, it's vehicle stays in the world
+     * @param client client to disconnect
+     */
+    private void disconnect(Client client) {
+        client.key.cancel();
+        closeQuietly(client.channel);
+
+        world.removePlayer(client.vehicle);
+
+        clients.remove(client);
+        clientCount = clients.size();
+    }
+
+    /**
+     * Runs a tick and sends snapshots if it's time to
+     * @return true if every client was sent the state after this tick
+     */
+    private boolean tick() {
+        world.tick();
+
+        if (world.getTickCount() % SNAPSHOT_INTERVAL != 0) {
+            return false;
+        }
+
+        quantizeVehicles();
+
+        boolean sentToAll = true;
+
+        // iterated backwards, writing might disconnect a client
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+
+            // a client that is still receiving the last snapshot skips this one
+            if (client.out.hasRemaining()) {
+                sentToAll = false;
+                continue;
+            }
+
+            sentToAll &= writeSnapshot(client);
+            write(client);
+        }
+
+        return sentToAll;
+    }
+
+    /**
+     * Checks if all clients received everything they were sent
+     * @return true if no client has data left to write
+     */
+    private boolean isFlushed() {
+        for (Client client: clients) {
+            if (client.out.hasRemaining()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Converts the state of every vehicle to the form it's sent in
+     */
+    private void quantizeVehicles() {
+        int count = world.getVehicleCount();
+
+        if (quantizedX.length < count) {
+            int capacity = Math.max(count, quantizedX.length * 2);
+
+            quantizedX = Arrays.copyOf(quantizedX, capacity);
+            quantizedY = Arrays.copyOf(quantizedY, capacity);
+            rotation = Arrays.copyOf(rotation, capacity);
+            drilling = Arrays.copyOf(drilling, capacity);
+        }
+
+        for (int i = 0; i < count; i++) {
+            Vehicle vehicle = world.getVehicle(i);
+
+            quantizedX[i] = Math.round(vehicle.getX() * POSITION_SCALE);
+            quantizedY[i] = Math.round(vehicle.getY() * POSITION_SCALE);
+            rotation[i] = (byte) Math.round(-vehicle.getDrillRotation() / ROTATION_STEP);
+            drilling[i] = vehicle.isDrilling();
+        }
+    }
+
+    /**
+     * Writes a snapshot of what changed since the last snapshot the client got into the
+     * client's buffer. If not all changed vehicles fit, the next snapshot starts with
+     * the ones that were left out
+     * @param client client to write the snapshot for
+     * @return true if everything that changed fit into the snapshot
+     */
+    private boolean writeSnapshot(Client client) {
+        ByteBuffer out = client.out;
+        int count = world.getVehicleCount();
+
+        client.ensureCapacity(count);
+
+        out.clear();
+        out.putShort((short) 0);
+        out.put((byte) MESSAGE_SNAPSHOT);
+
+        Varints.put(out, (int) world.getTickCount());
+        Varints.put(out, count);
+
+        // removed blocks
+        int removed = Math.min(MAX_REMOVALS_PER_SNAPSHOT, removalCount - client.removals);
+        Varints.put(out, removed);
+
+        for (int i = client.removals; i < client.removals + removed; i++) {
+            Varints.put(out, (int) (removals[i] >> 32));
+            Varints.put(out, (int) removals[i]);
+        }
+
+        client.removals += removed;
+
+        // changed vehicles, their number is written once they are counted
+        int countPosition = out.position();
+        out.putShort((short) 0);
+
+        int changed = 0;
+        int n = 0;
+
+        for (; n < count && out.remaining() >= MAX_VEHICLE_SIZE; n++) {
+            int i = (client.nextVehicle + n) % count;
+
+            int flags = drilling[i] ? DRILLING : 0;
+            flags |= quantizedX[i] != client.sentX[i] ? CHANGED_X : 0;
+            flags |= quantizedY[i] != client.sentY[i] ? CHANGED_Y : 0;
+            flags |= rotation[i] != client.sentRotation[i] ? CHANGED_ROTATION : 0;
+
+            if ((flags & ~DRILLING) == 0 && drilling[i] == client.sentDrilling[i]) {
+                continue;
+            }
+
+            Varints.put(out, i);
+            out.put((byte) flags);
+
+            if ((flags & CHANGED_X) != 0) {
+                Varints.putSigned(out, quantizedX[i] - client.sentX[i]);
+            }
+
+            if ((flags & CHANGED_Y) != 0) {
+                Varints.putSigned(out, quantizedY[i] - client.sentY[i]);
+            }
+
+            if ((flags & CHANGED_ROTATION) != 0) {
+                out.put(rotation[i]);
+            }
+
+            client.sentX[i] = quantizedX[i];
+            client.sentY[i] = quantizedY[i];
+            client.sentRotation[i] = rotation[i];
+            client.sentDrilling[i] = drilling[i];
+
+            changed++;
+        }
+
+        client.nextVehicle = count == 0 ? 0 : (client.nextVehicle + n) % count;
+
+        out.putShort(countPosition, (short) changed);
+        out.putShort(0, (short) (out.position() - 2));
+        out.flip();
+
+        return n == count && client.removals == removalCount;
+    }
+
+    /**
+     * Adds a removed block to the log of removed blocks
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     */
+    private void addRemoval(int x, int y) {
+        if (removalCount == removals.length) {
+            removals = Arrays.copyOf(removals, removalCount * 2);
+        }
+
+        removals[removalCount++] = ((long) x << 32) | y;
+    }
+
+    /**
+     * Closes a channel, ignoring errors
+     * @param channel channel to close
+     */
+    private static void closeQuietly(Closeable channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing to do, the channel is gone either way
+        }
+    }
+
+    /**
+     * Stops the server and disconnects all clients. The world stops right after the
+     * clients were sent it's state (or after a timeout if they can't get it). Waits for
+     * the server's thread to finish, so the world can be used again once this returns
+     * @throws IOException if waiting is interrupted
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+
+        if (thread == null) {
+            run();
+        } else if (thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the server to stop");
+            }
+        }
+    }
+
+    /**
+     * Gets the port the server is listening on
+     * @return port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the error that stopped the server
+     * @return error or null if there was none
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    // statistics getters
+    public int getClientCount() { return clientCount; }
+    public long getBytesSent() { return bytesSent; }
+
+    /**
+     * Connection of a single client and what it was sent so far
+     */
+    private static class Client {
+
+        // connection to the client
+        final SocketChannel channel;
+        SelectionKey key;
+
+        // client's vehicle
+        Vehicle vehicle;
+
+        // message being written (nothing is pending once it has no bytes remaining)
+        final ByteBuffer out = ByteBuffer.allocate(MAX_MESSAGE_SIZE + 2);
+
+        // received input
+        final ByteBuffer in = ByteBuffer.allocate(64);
+
+        // state of every vehicle as the client got it
+        int[] sentX = new int[16];
+        int[] sentY = new int[16];
+        byte[] sentRotation = new byte[16];
+        boolean[] sentDrilling = new boolean[16];
+
+        // number of removed blocks the client got
+        int removals = 0;
+
+        // vehicle the next snapshot starts with
+        int nextVehicle = 0;
+
+        /**
+         * Default class constructor
+         * @param channel connection to the client
+         */
+        Client(SocketChannel channel) {
+            this.channel = channel;
+
+            out.limit(0);
+        }
+
+        /**
+         * Makes room for the state of the given number of vehicles
+         * @param count number of vehicles
+         */
+        void ensureCapacity(int count) {
+            if (sentX.length >= count) {
+                return;
+            }
+
+            int capacity = Math.max(count, sentX.length * 2);
+
+            sentX = Arrays.copyOf(sentX, capacity);
+            sentY = Arrays.copyOf(sentY, capacity);
+            sentRotation = Arrays.copyOf(sentRotation, capacity);
+            sentDrilling = Arrays.copyOf(sentDrilling, capacity);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.gasis.digger.logic.replay;
+
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.utils.Varints;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the input of a game, so it can be replayed by InputReplay. Key events are
+ * the only input of the simulation, so together with the seed of the map they are
+ * enough to run the same game again. Every HASH_INTERVAL ticks the hash of the state
+ * is recorded too, a replay that doesn't match it is not deterministic.
+ *
+ * Layout (big endian):
+ * header: magic, version, seed (ints)
+ * records: tick (varint, ticks since the previous record), type (byte) and the payload:
+ * key code (varint) of key events, state hash (int) of hashes and of the end record.
+ * Key events happen between ticks, so the tick of a key event is the number of ticks
+ * that ran before it, the tick of a hash is the number of ticks that ran before it
+ * was taken
+ */
+public class InputRecorder implements Closeable {
+
+    // first bytes of every recording ("DIGR")
+    static final int MAGIC = 0x44494752;
+
+    // version of the format, increased when the layout changes
+    static final int VERSION = 1;
+
+    // record types
+    static final int RECORD_END = 0;
+    static final int RECORD_KEY_DOWN = 1;
+    static final int RECORD_KEY_UP = 2;
+    static final int RECORD_HASH = 3;
+
+    // number of ticks between recorded state hashes (once a second)
+    public static final int HASH_INTERVAL = 60;
+
+    // most bytes a record takes (tick, type and payload)
+    private static final int MAX_RECORD_SIZE = Varints.MAX_SIZE * 2 + 1;
+
+    // recorded world
+    private final GameWorld world;
+
+    // stream the recording is written to
+    private final OutputStream out;
+
+    // records that were not written to the stream yet
+    private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    // tick of the last record
+    private long lastTick = 0;
+
+    // error that stopped the recording (null if none)
+    private IOException error;
+
+    // set once the recording is closed
+    private boolean closed = false;
+
+    /**
+     * Starts recording a world. The world must be new (no ticks ran in it and it was
+     * not loaded from a save) and generated up front (see GameWorld(int) and
+     * GameWorld(Resources, int, int)), otherwise it can't be replayed. The recorder
+     * then has to be passed to GameWorld.setInputRecorder()
+     *
+     * @param world world to record
+     * @param out stream to write the recording to, closed with the recorder
+     * @throws IOException if the header can't be written
+     */
+    public InputRecorder(GameWorld world, OutputStream out) throws IOException {
+        if (world.getTickCount() != 0) {
+            throw new IllegalArgumentException("Only new worlds can be recorded");
+        }
+
+        this.world = world;
+        this.out = out;
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(world.getSeed());
+
+        flush();
+    }
+
+    /**
+     * Records a key event. Called by the world before the event is handled
+     *
+     * @param code code of the key as the world got it
+     * @param pressed true if the key was pressed, false if it was released
+     */
+    public void keyEvent(int code, boolean pressed) {
+        if (startRecord(pressed ? RECORD_KEY_DOWN : RECORD_KEY_UP)) {
+            Varints.put(buffer, code);
+        }
+    }
+
+    /**
+     * Records the hash of the state if it's time to. Called by the world after
+     * every tick
+     */
+    public void tickFinished() {
+        if (world.getTickCount() % HASH_INTERVAL == 0 && startRecord(RECORD_HASH)) {
+            buffer.putInt(world.hashState());
+        }
+    }
+
+    /**
+     * Writes the tick and the type of a record, making room for it first
+     *
+     * @param type type of the record
+     * @return true if the payload should be written, false if the recording stopped
+     */
+    private boolean startRecord(int type) {
+        if (closed || error != null) {
+            return false;
+        }
+
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            try {
+                flush();
+            } catch (IOException ex) {
+                // the game goes on without the recording
+                error = ex;
+                return false;
+            }
+        }
+
+        long tick = world.getTickCount();
+
+        Varints.put(buffer, (int) (tick - lastTick));
+        buffer.put((byte) type);
+
+        lastTick = tick;
+
+        return true;
+    }
+
+    /**
+     * Writes the buffered records to the stream
+     * @throws IOException if they can't be written
+     */
+    private void flush() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /**
+     * Records the end of the game with the final state hash and closes the stream
+     * @throws IOException if the rest of the recording can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            if (startRecord(RECORD_END)) {
+                buffer.putInt(world.hashState());
+                flush();
+            }
+        } finally {
+            closed = true;
+            out.close();
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Gets the error that stopped the recording
+     * @return error or null if there was none
+     */
+    public IOException getError() {
+        return error;
+    }
+}
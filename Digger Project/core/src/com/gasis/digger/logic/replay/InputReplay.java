@@ -0,0 +1,193 @@
+package com.gasis.digger.logic.replay;
+
+import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.utils.Varints;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a game recorded by InputRecorder in a headless world. Ticks run back to back
+ * instead of in real time, so a replay is as fast as the simulation. Recorded state
+ * hashes are compared with the hashes of the replayed world, a mismatch means the
+ * simulation is not deterministic (or changed since the game was recorded)
+ */
+public class InputReplay {
+
+    // contents of the recording
+    private final ByteBuffer buffer;
+
+    // seed of the recorded world's map
+    private final int seed;
+
+    // tick of the last record read
+    private long tick = 0;
+
+    // set once the end of the recording is reached
+    private boolean finished = false;
+
+    // true if the recording ended with an end record (the game was not cut short)
+    private boolean complete = false;
+
+    // results of the hash comparisons
+    private int hashesChecked = 0;
+    private int mismatches = 0;
+    private long firstMismatch = -1;
+
+    /**
+     * Opens a recording. The file stays mapped until the object is garbage collected
+     *
+     * @param file file to open
+     * @return opened recording
+     * @throws IOException if the file can't be read or is not a recording
+     */
+    public static InputReplay open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = input.getChannel();
+
+            // the mapping stays valid after the file is closed
+            return new InputReplay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads the header of a recording
+     *
+     * @param buffer contents of the recording
+     * @throws IOException if the contents are not a recording
+     */
+    public InputReplay(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        try {
+            if (buffer.getInt() != InputRecorder.MAGIC) {
+                throw new IOException("Not a recording");
+            }
+
+            int version = buffer.getInt();
+
+            if (version != InputRecorder.VERSION) {
+                throw new IOException("Unsupported recording version: " + version);
+            }
+
+            seed = buffer.getInt();
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted recording", ex);
+        }
+    }
+
+    /**
+     * Creates a world to replay the recording in
+     * @return new headless world
+     */
+    public GameWorld createWorld() {
+        return new GameWorld(seed);
+    }
+
+    /**
+     * Replays the whole recording
+     *
+     * @param world world created by createWorld() (or the one the last replay
+     * step was done in)
+     * @throws IOException if the recording is corrupted
+     */
+    public void run(GameWorld world) throws IOException {
+        while (step(world)) {
+            // keep going
+        }
+    }
+
+    /**
+     * Replays the next record: runs the ticks up to it and applies it
+     *
+     * @param world world created by createWorld() (or the one the last replay
+     * step was done in)
+     * @return false if the end of the recording was reached
+     * @throws IOException if the recording is corrupted
+     */
+    public boolean step(GameWorld world) throws IOException {
+        if (finished) {
+            return false;
+        }
+
+        // a game that was cut short still holds everything recorded before that
+        if (!buffer.hasRemaining()) {
+            finished = true;
+            return false;
+        }
+
+        try {
+            tick += Varints.get(buffer);
+            int type = buffer.get();
+
+            while (world.getTickCount() < tick) {
+                world.tick();
+            }
+
+            switch (type) {
+                case InputRecorder.RECORD_KEY_DOWN:
+                    world.keyDown(Varints.get(buffer));
+                    break;
+                case InputRecorder.RECORD_KEY_UP:
+                    world.keyUp(Varints.get(buffer));
+                    break;
+                case InputRecorder.RECORD_HASH:
+                    checkHash(world, buffer.getInt());
+                    break;
+                case InputRecorder.RECORD_END:
+                    checkHash(world, buffer.getInt());
+                    finished = true;
+                    complete = true;
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        } catch (BufferUnderflowException ex) {
+            // the last record of a game that was cut short might be partly written
+            finished = true;
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted recording", ex);
+        }
+
+        return !finished;
+    }
+
+    /**
+     * Compares a recorded state hash with the replayed world's
+     *
+     * @param world replayed world
+     * @param hash recorded hash
+     */
+    private void checkHash(GameWorld world, int hash) {
+        hashesChecked++;
+
+        if (world.hashState() != hash) {
+            mismatches++;
+
+            if (firstMismatch == -1) {
+                firstMismatch = tick;
+            }
+        }
+    }
+
+    // header getters
+    public int getSeed() { return seed; }
+
+    // state getters
+    public long getTick() { return tick; }
+    public boolean isFinished() { return finished; }
+    public boolean isComplete() { return complete; }
+
+    // result getters
+    public int getHashesChecked() { return hashesChecked; }
+    public int getMismatches() { return mismatches; }
+    public long getFirstMismatch() { return firstMismatch; }
+}
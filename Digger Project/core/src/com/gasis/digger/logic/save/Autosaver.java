@@ -0,0 +1,84 @@
+package com.gasis.digger.logic.save;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves snapshots of the world to a file in the background. Saves are coalesced: if
+ * new snapshots arrive while an older one is still being written, only the newest one
+ * is written next and the ones in between are skipped. Chunks that didn't change since
+ * the previous save are not encoded again
+ */
+public class Autosaver {
+
+    // file to save to
+    private final File file;
+
+    // thread to write on
+    private final Executor executor;
+
+    // newest snapshot that is not written yet (null if there is none)
+    private final AtomicReference<WorldSnapshot> pending = new AtomicReference<WorldSnapshot>();
+
+    // chunks encoded by earlier saves (only used on the writing thread)
+    private final EncodedChunks cache = new EncodedChunks();
+
+    // error of the last failed save, null if the last save succeeded (nothing waits
+    // for autosaves, the owner of the world polls this to report it)
+    private volatile IOException lastError;
+
+    // writes the newest pending snapshot
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            WorldSnapshot snapshot = pending.getAndSet(null);
+
+            // already written by an earlier run
+            if (snapshot == null) {
+                return;
+            }
+
+            try {
+                snapshot.write(file, cache);
+                lastError = null;
+            } catch (IOException ex) {
+                lastError = ex;
+            }
+        }
+    };
+
+    /**
+     * Default class constructor
+     *
+     * @param file file to save to
+     * @param executor thread to write on, must run tasks one at a time and in order
+     */
+    public Autosaver(File file, Executor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a snapshot for saving. Replaces the pending snapshot if the previous
+     * save didn't start yet
+     *
+     * @param snapshot snapshot to save
+     */
+    public void save(WorldSnapshot snapshot) {
+        // a write is scheduled only if no snapshot was pending, otherwise the already
+        // scheduled write picks up the new snapshot
+        if (pending.getAndSet(snapshot) == null) {
+            executor.execute(writer);
+        }
+    }
+
+    /**
+     * Gets the error of the last save
+     * @return error or null if the last save succeeded
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+}
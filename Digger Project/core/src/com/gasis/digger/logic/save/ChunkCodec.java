@@ -0,0 +1,126 @@
+package com.gasis.digger.logic.save;
+
+import com.gasis.digger.logic.terrain.Chunk;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the blocks of a chunk as the difference from the generated chunk. Every
+ * block is xor-ed with the generated block, so unchanged blocks become zeros, and
+ * the result is run-length encoded as pairs of (run length - 1, value) bytes.
+ * A chunk with a single drilled tunnel takes a few bytes instead of 256
+ */
+final class ChunkCodec {
+
+    // number of blocks in a chunk
+    private static final int BLOCK_COUNT = Chunk.SIZE * Chunk.SIZE;
+
+    // longest run a single pair can hold
+    private static final int MAX_RUN = 256;
+
+    /**
+     * Not meant to be instantiated
+     */
+    private ChunkCodec() {
+
+    }
+
+    /**
+     * Encodes a chunk
+     *
+     * @param chunk chunk to encode
+     * @param baseline the same chunk as it was generated
+     * @return encoded chunk
+     */
+    static byte[] encode(Chunk chunk, Chunk baseline) {
+        // worst case: every block is different from the previous one
+        byte[] buffer = new byte[BLOCK_COUNT * 2];
+        int size = 0;
+
+        int index = 0;
+
+        while (index < BLOCK_COUNT) {
+            byte value = difference(chunk, baseline, index);
+            int run = 1;
+
+            while (index + run < BLOCK_COUNT && run < MAX_RUN && difference(chunk, baseline, index + run) == value) {
+                run++;
+            }
+
+            buffer[size++] = (byte) (run - 1);
+            buffer[size++] = value;
+
+            index += run;
+        }
+
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Gets the difference between a block of a chunk and the generated block
+     *
+     * @param chunk changed chunk
+     * @param baseline generated chunk
+     * @param index index of the block
+     * @return difference (0 if the block didn't change)
+     */
+    private static byte difference(Chunk chunk, Chunk baseline, int index) {
+        int localX = index & Chunk.MASK;
+        int localY = index >> Chunk.SHIFT;
+
+        return (byte) (chunk.get(localX, localY) ^ baseline.get(localX, localY));
+    }
+
+    /**
+     * Applies an encoded chunk on top of a generated chunk. Uses absolute reads only,
+     * so the same buffer can be decoded from on several threads at once
+     *
+     * @param buffer buffer holding the encoded chunk
+     * @param offset offset of the encoded chunk in the buffer
+     * @param length length of the encoded chunk
+     * @param chunk generated chunk to apply the changes to
+     */
+    static void decode(ByteBuffer buffer, int offset, int length, Chunk chunk) {
+        int index = 0;
+
+        for (int position = offset; position < offset + length; position += 2) {
+            int run = (buffer.get(position) & 0xff) + 1;
+            byte value = buffer.get(position + 1);
+
+            if (value != 0) {
+                for (int block = index; block < index + run; block++) {
+                    int localX = block & Chunk.MASK;
+                    int localY = block >> Chunk.SHIFT;
+
+                    chunk.set(localX, localY, (byte) (chunk.get(localX, localY) ^ value));
+                }
+            }
+
+            index += run;
+        }
+    }
+
+    /**
+     * Checks if an encoded chunk covers exactly one chunk worth of blocks, so
+     * decoding it can't go out of bounds
+     *
+     * @param buffer buffer holding the encoded chunk
+     * @param offset offset of the encoded chunk in the buffer
+     * @param length length of the encoded chunk
+     * @return true if the encoded chunk is valid
+     */
+    static boolean isValid(ByteBuffer buffer, int offset, int length) {
+        if (length % 2 != 0) {
+            return false;
+        }
+
+        int blocks = 0;
+
+        for (int position = offset; position < offset + length; position += 2) {
+            blocks += (buffer.get(position) & 0xff) + 1;
+        }
+
+        return blocks == BLOCK_COUNT;
+    }
+}
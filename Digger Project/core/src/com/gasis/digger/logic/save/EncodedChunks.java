@@ -0,0 +1,45 @@
+package com.gasis.digger.logic.save;
+
+import com.badlogic.gdx.utils.LongMap;
+import com.gasis.digger.logic.terrain.Chunk;
+
+/**
+ * Chunks encoded by earlier saves. A chunk snapshot that shares it's blocks with the
+ * snapshot an encoding was made from didn't change since, so the encoding can be
+ * reused and only chunks changed since the last save are encoded again
+ */
+class EncodedChunks {
+
+    // snapshots the encodings were made from, by chunk key
+    private final LongMap<Chunk> sources = new LongMap<Chunk>();
+
+    // encodings by chunk key
+    private final LongMap<byte[]> encoded = new LongMap<byte[]>();
+
+    /**
+     * Gets the encoding of a chunk if it didn't change since it was encoded
+     *
+     * @param chunk chunk snapshot
+     * @return encoded chunk or null if it has to be encoded again
+     */
+    byte[] get(Chunk chunk) {
+        Chunk source = sources.get(chunk.getKey());
+
+        if (source == null || !source.sharesBlocks(chunk)) {
+            return null;
+        }
+
+        return encoded.get(chunk.getKey());
+    }
+
+    /**
+     * Remembers the encoding of a chunk
+     *
+     * @param chunk chunk snapshot the encoding was made from
+     * @param data encoded chunk
+     */
+    void put(Chunk chunk, byte[] data) {
+        sources.put(chunk.getKey(), chunk);
+        encoded.put(chunk.getKey(), data);
+    }
+}
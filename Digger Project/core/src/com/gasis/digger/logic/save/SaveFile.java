@@ -0,0 +1,293 @@
+package com.gasis.digger.logic.save;
+
+import com.badlogic.gdx.utils.LongMap;
+import com.gasis.digger.logic.entities.VehicleState;
+import com.gasis.digger.logic.entities.upgrades.Drill;
+import com.gasis.digger.logic.entities.upgrades.Engine;
+import com.gasis.digger.logic.terrain.Chunk;
+import com.gasis.digger.logic.terrain.SavedChunks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saved world. The file is read into memory in one go, but only the header, the
+ * vehicles and the chunk index are parsed when it's opened, chunks are decoded when
+ * the map generates them. It's not memory-mapped: a mapped file can't be replaced on
+ * every platform while the mapping is alive, and the world is saved over the file
+ * it was loaded from.
+ *
+ * Layout (big endian):
+ * header: magic, version, seed, width, height (ints)
+ * vehicles: count (int), then VEHICLE_SIZE bytes per vehicle
+ * chunk index: count (int), then chunk x, chunk y, offset, length (ints) per chunk
+ * chunk data: every chunk encoded by ChunkCodec, only chunks that were changed are saved
+ */
+public class SaveFile implements SavedChunks {
+
+    // first bytes of every save file ("DIGS")
+    static final int MAGIC = 0x44494753;
+
+    // version of the format, increased when the layout changes
+    static final int VERSION = 1;
+
+    // size of the header in bytes
+    static final int HEADER_SIZE = 5 * 4;
+
+    // size of a saved vehicle in bytes
+    static final int VEHICLE_SIZE = 32;
+
+    // size of a chunk index entry in bytes
+    static final int INDEX_ENTRY_SIZE = 4 * 4;
+
+    // contents of the file
+    private final ByteBuffer buffer;
+
+    // map info
+    private final int seed;
+    private final int width;
+    private final int height;
+
+    // saved vehicles, the first one is the player
+    private final VehicleState[] vehicles;
+
+    // keys, offsets and lengths of saved chunks
+    private final long[] keys;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    // index into the arrays above by chunk key
+    private final LongMap<Integer> index = new LongMap<Integer>();
+
+    /**
+     * Opens a save file. The file is closed before this returns
+     *
+     * @param file file to open
+     * @return opened save
+     * @throws IOException if the file can't be read or is not a valid save file
+     */
+    public static SaveFile open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+
+        try {
+            FileChannel channel = input.getChannel();
+
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Save file is too large");
+            }
+
+            // saves only hold the changed chunks, so they stay small
+            buffer = ByteBuffer.allocate((int) channel.size());
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Save file was truncated while reading");
+                }
+            }
+
+            buffer.flip();
+        } finally {
+            input.close();
+        }
+
+        return new SaveFile(buffer);
+    }
+
+    /**
+     * Reads the header, the vehicles and the chunk index
+     *
+     * @param buffer contents of the file
+     * @throws IOException if the contents are not a valid save
+     */
+    private SaveFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a save file");
+            }
+
+            int version = buffer.getInt();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported save file version: " + version);
+            }
+
+            seed = buffer.getInt();
+            width = buffer.getInt();
+            height = buffer.getInt();
+
+            if (width <= 0 || height <= 0) {
+                throw new IOException("Corrupted map size in save file");
+            }
+
+            vehicles = new VehicleState[checkCount(buffer, buffer.getInt(), VEHICLE_SIZE)];
+
+            for (int i = 0; i < vehicles.length; i++) {
+                vehicles[i] = readVehicle(buffer);
+            }
+
+            int chunkCount = checkCount(buffer, buffer.getInt(), INDEX_ENTRY_SIZE);
+
+            keys = new long[chunkCount];
+            offsets = new int[chunkCount];
+            lengths = new int[chunkCount];
+
+            for (int i = 0; i < chunkCount; i++) {
+                int chunkX = buffer.getInt();
+                int chunkY = buffer.getInt();
+
+                keys[i] = Chunk.key(chunkX, chunkY);
+                offsets[i] = buffer.getInt();
+                lengths[i] = buffer.getInt();
+
+                // chunks outside of the map would never be restored
+                if (chunkX < 0 || chunkY < 0 || chunkX > (width - 1) >> Chunk.SHIFT || chunkY > (height - 1) >> Chunk.SHIFT) {
+                    throw new IOException("Corrupted chunk in save file");
+                }
+
+                if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > buffer.limit() - lengths[i]
+                        || !ChunkCodec.isValid(buffer, offsets[i], lengths[i])) {
+                    throw new IOException("Corrupted chunk in save file");
+                }
+
+                index.put(keys[i], i);
+            }
+        } catch (RuntimeException ex) {
+            // reading past the end of a truncated file and so on
+            throw new IOException("Corrupted save file", ex);
+        }
+    }
+
+    /**
+     * Checks that a count read from the file fits into the rest of it, so a damaged
+     * count doesn't allocate huge arrays
+     *
+     * @param buffer buffer the count was read from
+     * @param count read count
+     * @param size size of a single counted item in bytes
+     * @return the count
+     * @throws IOException if the items don't fit
+     */
+    private static int checkCount(ByteBuffer buffer, int count, int size) throws IOException {
+        if (count < 0 || (long) count * size > buffer.remaining()) {
+            throw new IOException("Corrupted save file");
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads a single vehicle
+     *
+     * @param buffer buffer to read from
+     * @return state of the vehicle
+     * @throws IOException if the vehicle has unknown parts
+     */
+    private static VehicleState readVehicle(ByteBuffer buffer) throws IOException {
+        VehicleState state = new VehicleState();
+
+        int drill = buffer.get();
+        int engine = buffer.get();
+
+        if (drill < 0 || drill >= Drill.values().length || engine < 0 || engine >= Engine.values().length) {
+            throw new IOException("Unknown vehicle part in save file");
+        }
+
+        state.drill = Drill.values()[drill];
+        state.engine = Engine.values()[engine];
+        state.x = buffer.getFloat();
+        state.y = buffer.getFloat();
+        state.xSpeed = buffer.getFloat();
+        state.ySpeed = buffer.getFloat();
+        state.drilling = buffer.get() != 0;
+        state.drilledBlockX = buffer.getInt();
+        state.drilledBlockY = buffer.getInt();
+        state.drilledBlockType = buffer.get();
+        state.drillRotation = buffer.getFloat();
+
+        return state;
+    }
+
+    /**
+     * Writes a single vehicle (the counterpart of readVehicle())
+     *
+     * @param buffer buffer to write to
+     * @param state state of the vehicle
+     */
+    static void writeVehicle(ByteBuffer buffer, VehicleState state) {
+        buffer.put((byte) state.drill.ordinal());
+        buffer.put((byte) state.engine.ordinal());
+        buffer.putFloat(state.x);
+        buffer.putFloat(state.y);
+        buffer.putFloat(state.xSpeed);
+        buffer.putFloat(state.ySpeed);
+        buffer.put((byte) (state.drilling ? 1 : 0));
+        buffer.putInt(state.drilledBlockX);
+        buffer.putInt(state.drilledBlockY);
+        buffer.put(state.drilledBlockType);
+        buffer.putFloat(state.drillRotation);
+    }
+
+    /**
+     * Applies the saved changes of a chunk. Safe to call from several threads at once
+     *
+     * @param chunk freshly generated chunk
+     * @return true if the chunk had saved changes
+     */
+    @Override
+    public boolean restore(Chunk chunk) {
+        Integer entry = index.get(chunk.getKey());
+
+        if (entry == null) {
+            return false;
+        }
+
+        ChunkCodec.decode(buffer, offsets[entry], lengths[entry], chunk);
+
+        return true;
+    }
+
+    /**
+     * Copies the encoded data of a saved chunk, used to carry chunks that were never
+     * loaded over to a new save without decoding them
+     *
+     * @param entry index of the chunk (0 - getChunkCount())
+     * @return encoded chunk
+     */
+    byte[] copyChunk(int entry) {
+        byte[] data = new byte[lengths[entry]];
+        System.arraycopy(buffer.array(), offsets[entry], data, 0, data.length);
+
+        return data;
+    }
+
+    /**
+     * Gets the key of a saved chunk
+     *
+     * @param entry index of the chunk (0 - getChunkCount())
+     * @return chunk key
+     */
+    long getChunkKey(int entry) {
+        return keys[entry];
+    }
+
+    /**
+     * Gets the number of saved chunks
+     * @return saved chunk count
+     */
+    public int getChunkCount() {
+        return keys.length;
+    }
+
+    // getters
+    public int getSeed() { return seed; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getVehicleCount() { return vehicles.length; }
+    public VehicleState getVehicle(int index) { return vehicles[index]; }
+}
@@ -0,0 +1,186 @@
+package com.gasis.digger.logic.save;
+
+import com.badlogic.gdx.utils.LongMap;
+import com.gasis.digger.logic.entities.VehicleState;
+import com.gasis.digger.logic.terrain.Chunk;
+import com.gasis.digger.logic.terrain.TerrainGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Copy of the world's state that can be written to a save file. Taking a snapshot only
+ * copies the vehicles, changed chunks are shared copy-on-write (see Chunk.snapshot()),
+ * so it's cheap no matter how much was drilled. Encoding and writing it is left for
+ * write(), which can run on another thread while the game goes on
+ */
+public class WorldSnapshot {
+
+    // map info
+    private final int seed;
+    private final int width;
+    private final int height;
+
+    // copies of the vehicles' states
+    private final VehicleState[] vehicles;
+
+    // snapshots of the changed chunks
+    private final Chunk[] chunks;
+
+    // save the world was loaded from, chunks saved in it that are not in this snapshot
+    // are copied over from it (null if the world wasn't loaded)
+    private final SaveFile previous;
+
+    /**
+     * Takes a snapshot. Must be called on the thread that updates the world
+     *
+     * @param seed seed of the map
+     * @param width width of the map in blocks
+     * @param height height of the map in blocks
+     * @param vehicles states of the vehicles (not copied, must not be changed afterwards)
+     * @param chunks changed chunks (snapshots are taken of them)
+     * @param previous save the world was loaded from, null if none
+     */
+    public WorldSnapshot(int seed, int width, int height, VehicleState[] vehicles, List<Chunk> chunks, SaveFile previous) {
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.vehicles = vehicles;
+        this.previous = previous;
+
+        this.chunks = new Chunk[chunks.size()];
+
+        for (int i = 0; i < this.chunks.length; i++) {
+            this.chunks[i] = chunks.get(i).snapshot();
+        }
+    }
+
+    /**
+     * Writes the snapshot. The data is written to a temporary file first, flushed to
+     * the disk and only then moved over the old save, so a crash while saving never
+     * leaves a broken save behind. Can be called from any thread
+     *
+     * @param file file to save to
+     * @throws IOException if the file can't be written
+     */
+    public void write(File file) throws IOException {
+        write(file, new EncodedChunks());
+    }
+
+    /**
+     * Writes the snapshot, reusing chunks encoded by earlier writes if they
+     * didn't change since
+     *
+     * @param file file to save to
+     * @param cache chunks encoded by earlier writes, updated with the chunks of this one.
+     * Must only be used by one thread
+     * @throws IOException if the file can't be written
+     */
+    void write(File file, EncodedChunks cache) throws IOException {
+        TerrainGenerator generator = new TerrainGenerator(seed, height);
+
+        // encoded chunks by key, changed chunks first and then the ones from the old save
+        LongMap<byte[]> encoded = new LongMap<byte[]>();
+
+        for (Chunk chunk: chunks) {
+            byte[] data = cache.get(chunk);
+
+            if (data == null) {
+                Chunk baseline = new Chunk(chunk.getX(), chunk.getY());
+                generator.generate(baseline);
+
+                data = ChunkCodec.encode(chunk, baseline);
+                cache.put(chunk, data);
+            }
+
+            encoded.put(chunk.getKey(), data);
+        }
+
+        if (previous != null) {
+            for (int i = 0; i < previous.getChunkCount(); i++) {
+                if (!encoded.containsKey(previous.getChunkKey(i))) {
+                    encoded.put(previous.getChunkKey(i), previous.copyChunk(i));
+                }
+            }
+        }
+
+        // everything before the chunk data
+        int dataOffset = SaveFile.HEADER_SIZE + 4 + vehicles.length * SaveFile.VEHICLE_SIZE
+                + 4 + encoded.size * SaveFile.INDEX_ENTRY_SIZE;
+
+        int size = dataOffset;
+
+        for (byte[] data: encoded.values()) {
+            size += data.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        buffer.putInt(SaveFile.MAGIC);
+        buffer.putInt(SaveFile.VERSION);
+        buffer.putInt(seed);
+        buffer.putInt(width);
+        buffer.putInt(height);
+
+        buffer.putInt(vehicles.length);
+
+        for (VehicleState vehicle: vehicles) {
+            SaveFile.writeVehicle(buffer, vehicle);
+        }
+
+        buffer.putInt(encoded.size);
+
+        int offset = dataOffset;
+
+        for (LongMap.Entry<byte[]> entry: encoded.entries()) {
+            buffer.putInt((int) (entry.key >> 32));
+            buffer.putInt((int) entry.key);
+            buffer.putInt(offset);
+            buffer.putInt(entry.value.length);
+
+            offset += entry.value.length;
+        }
+
+        for (byte[] data: encoded.values()) {
+            buffer.put(data);
+        }
+
+        buffer.flip();
+
+        writeAndReplace(buffer, file);
+    }
+
+    /**
+     * Writes data to a temporary file next to the target and moves it over the target
+     *
+     * @param buffer data to write
+     * @param file target file
+     * @throws IOException if the file can't be written or replaced
+     */
+    private static void writeAndReplace(ByteBuffer buffer, File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+
+        try {
+            FileChannel channel = output.getChannel();
+            channel.truncate(0);
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        } finally {
+            output.close();
+        }
+
+        // renaming over an existing file doesn't work on every platform
+        if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+}
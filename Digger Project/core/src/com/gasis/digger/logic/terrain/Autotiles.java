@@ -0,0 +1,179 @@
+package com.gasis.digger.logic.terrain;
+
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.AtlasRegion;
+
+/**
+ * Dirt edge and corner pieces drawn inside empty blocks. Which pieces an empty block
+ * needs depends only on which of it's 8 neighbours are solid, so all 256 combinations
+ * are resolved once and drawing a block is a single table lookup
+ */
+public class Autotiles {
+
+    // ********* NEIGHBOUR BITS ******** //
+    // a bit is set in a block's mask if the neighbour is inside the map and not empty
+    public static final int LEFT = 1;
+    public static final int RIGHT = 1 << 1;
+    public static final int TOP = 1 << 2;
+    public static final int BOTTOM = 1 << 3;
+    public static final int TOP_LEFT = 1 << 4;
+    public static final int TOP_RIGHT = 1 << 5;
+    public static final int BOTTOM_RIGHT = 1 << 6;
+    public static final int BOTTOM_LEFT = 1 << 7;
+    // ***** END OF NEIGHBOUR BITS ***** //
+
+    // number of possible masks
+    public static final int MASK_COUNT = 256;
+
+    // dimensions of the dirt pieces (in blocks)
+    private static final float SMALLER_DIMENSION = 1 / 7f;
+    private static final float MEDIUM_DIMENSION = SMALLER_DIMENSION * 2.77f;
+    private static final float LARGER_DIMENSION = 1;
+
+    // texture of a solid dirt block
+    private final AtlasRegion dirt;
+
+    // pieces to draw inside an empty block, indexed by the block's mask
+    private final Piece[][] pieces = new Piece[MASK_COUNT][];
+
+    /**
+     * Default class constructor. Looks up all dirt textures
+     *
+     * @param textures texture atlas to look for textures in
+     */
+    public Autotiles(TextureAtlas textures) {
+        dirt = textures.findRegion("dirt");
+
+        AtlasRegion left = textures.findRegion("dirt_left");
+        AtlasRegion right = textures.findRegion("dirt_right");
+        AtlasRegion top = textures.findRegion("dirt_top");
+        AtlasRegion bottom = textures.findRegion("dirt_bottom");
+        AtlasRegion roundedTopLeft = textures.findRegion("dirt_rounded_top_left");
+        AtlasRegion roundedTopRight = textures.findRegion("dirt_rounded_top_right");
+        AtlasRegion roundedBottomRight = textures.findRegion("dirt_rounded_bottom_right");
+        AtlasRegion roundedBottomLeft = textures.findRegion("dirt_rounded_bottom_left");
+        AtlasRegion topLeft = textures.findRegion("dirt_top_left");
+        AtlasRegion topRight = textures.findRegion("dirt_top_right");
+        AtlasRegion bottomRight = textures.findRegion("dirt_bottom_right");
+        AtlasRegion bottomLeft = textures.findRegion("dirt_bottom_left");
+
+        float s = SMALLER_DIMENSION;
+        float m = MEDIUM_DIMENSION;
+        float l = LARGER_DIMENSION;
+
+        Piece[] buffer = new Piece[8];
+
+        for (int mask = 0; mask < MASK_COUNT; mask++) {
+            int count = 0;
+
+            // sides of dirt
+            if ((mask & LEFT) != 0) {
+                buffer[count++] = new Piece(left, 0, 0, s, l);
+            }
+
+            if ((mask & RIGHT) != 0) {
+                buffer[count++] = new Piece(right, 1 - s, 0, s, l);
+            }
+
+            if ((mask & TOP) != 0) {
+                buffer[count++] = new Piece(top, 0, 1 - s, l, s);
+            }
+
+            if ((mask & BOTTOM) != 0) {
+                buffer[count++] = new Piece(bottom, 0, 0, l, s);
+            }
+
+            // rounded corners if both sides are solid, small corners if only the diagonal is
+            if (has(mask, LEFT | TOP)) {
+                buffer[count++] = new Piece(roundedTopLeft, 0, 1 - m, m, m);
+            } else if ((mask & (LEFT | TOP)) == 0 && (mask & TOP_LEFT) != 0) {
+                buffer[count++] = new Piece(topLeft, 0, 1 - s, s, s);
+            }
+
+            if (has(mask, RIGHT | TOP)) {
+                buffer[count++] = new Piece(roundedTopRight, 1 - m, 1 - m, m, m);
+            } else if ((mask & (RIGHT | TOP)) == 0 && (mask & TOP_RIGHT) != 0) {
+                buffer[count++] = new Piece(topRight, 1 - s, 1 - s, s, s);
+            }
+
+            if (has(mask, RIGHT | BOTTOM)) {
+                buffer[count++] = new Piece(roundedBottomRight, 1 - m, 0, m, m);
+            } else if ((mask & (RIGHT | BOTTOM)) == 0 && (mask & BOTTOM_RIGHT) != 0) {
+                buffer[count++] = new Piece(bottomRight, 1 - s, 0, s, s);
+            }
+
+            if (has(mask, LEFT | BOTTOM)) {
+                buffer[count++] = new Piece(roundedBottomLeft, 0, 0, m, m);
+            } else if ((mask & (LEFT | BOTTOM)) == 0 && (mask & BOTTOM_LEFT) != 0) {
+                buffer[count++] = new Piece(bottomLeft, 0, 0, s, s);
+            }
+
+            pieces[mask] = new Piece[count];
+            System.arraycopy(buffer, 0, pieces[mask], 0, count);
+        }
+    }
+
+    /**
+     * Checks if all the given bits are set in the mask
+     *
+     * @param mask mask to check
+     * @param bits bits that must be set
+     * @return true if all bits are set
+     */
+    private static boolean has(int mask, int bits) {
+        return (mask & bits) == bits;
+    }
+
+    /**
+     * Gets the pieces that need to be drawn inside an empty block
+     *
+     * @param mask neighbour mask of the block
+     * @return pieces to draw (empty array if none)
+     */
+    public Piece[] pieces(int mask) {
+        return pieces[mask & 0xff];
+    }
+
+    /**
+     * Gets the texture of a solid dirt block
+     * @return dirt texture
+     */
+    public AtlasRegion getDirt() {
+        return dirt;
+    }
+
+    /**
+     * Single textured piece of dirt drawn inside an empty block. Offsets and
+     * sizes are in blocks, relative to the bottom left corner of the block
+     */
+    public static class Piece {
+
+        // texture of the piece
+        public final AtlasRegion region;
+
+        // offset from the block's corner
+        public final float x;
+        public final float y;
+
+        // size of the piece
+        public final float width;
+        public final float height;
+
+        /**
+         * Default class constructor
+         *
+         * @param region texture of the piece
+         * @param x x offset
+         * @param y y offset
+         * @param width width of the piece
+         * @param height height of the piece
+         */
+        Piece(AtlasRegion region, float x, float y, float width, float height) {
+            this.region = region;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.gasis.digger.logic.terrain;
+
+import java.util.Arrays;
+
+/**
+ * Block changes collected while the map can't be changed (when vehicles are stepped
+ * in parallel), applied to the map later. Changes are applied sorted by block
+ * coordinates, so the result doesn't depend on the order they were collected in
+ */
+public class BlockEdits {
+
+    // coordinates of removed blocks, x in the upper and y in the lower half
+    private long[] removed = new long[16];
+    private int size = 0;
+
+    /**
+     * Records a removed block
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     */
+    public void removeBlock(int x, int y) {
+        if (size == removed.length) {
+            removed = Arrays.copyOf(removed, size * 2);
+        }
+
+        removed[size++] = ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * Moves the changes of other edits into these
+     *
+     * @param other edits to move, cleared afterwards
+     */
+    public void addAll(BlockEdits other) {
+        for (int i = 0; i < other.size; i++) {
+            if (size == removed.length) {
+                removed = Arrays.copyOf(removed, size * 2);
+            }
+
+            removed[size++] = other.removed[i];
+        }
+
+        other.clear();
+    }
+
+    /**
+     * Applies all changes to a map and clears them. A block removed more than once
+     * (by several vehicles during the same tick) is only removed once
+     *
+     * @param map map to change
+     */
+    public void applyTo(Map map) {
+        Arrays.sort(removed, 0, size);
+
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && removed[i] == removed[i - 1]) {
+                continue;
+            }
+
+            map.removeBlock((int) (removed[i] >> 32), (int) removed[i]);
+        }
+
+        clear();
+    }
+
+    /**
+     * Drops all changes
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Gets the number of recorded changes
+     * @return change count
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,15 @@
+package com.gasis.digger.logic.terrain;
+
+/**
+ * Gets notified when blocks of a map change
+ */
+public interface BlockListener {
+
+    /**
+     * Called after a block was removed
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     */
+    void blockRemoved(int x, int y);
+}
@@ -0,0 +1,206 @@
+package com.gasis.digger.logic.terrain;
+
+/**
+ * Square piece of the map. Blocks are kept in one flat array (row after row)
+ * instead of an array of arrays, so a chunk is a single allocation
+ */
+public class Chunk {
+
+    // how many bits a block coordinate has to be shifted to get the chunk coordinate
+    public static final int SHIFT = 4;
+
+    // width and height of a chunk in blocks (must be a power of two)
+    public static final int SIZE = 1 << SHIFT;
+
+    // used to get the block coordinate inside the chunk
+    public static final int MASK = SIZE - 1;
+
+    // chunk coordinates (in chunks, not blocks)
+    private final int x;
+    private final int y;
+
+    // blocks of the chunk, index is (localY << SHIFT) | localX
+    private byte[] blocks;
+
+    // are the blocks shared with a snapshot. Shared blocks are copied before they are
+    // changed, so taking a snapshot doesn't copy anything
+    private boolean shared = false;
+
+    // autotile neighbour masks of the blocks (same indexing as blocks), null until
+    // they are first needed
+    private byte[] masks;
+
+    // was the chunk changed after it was generated. Changed chunks can't be evicted
+    // because they can't be regenerated from the seed
+    private boolean modified = false;
+
+    // incremented every time a block or a mask of the chunk changes, used by renderers
+    // to tell if their cached geometry is out of date
+    private int revision = 0;
+
+    // number of the eviction pass during which the chunk was last needed
+    private int stamp;
+
+    /**
+     * Default class constructor
+     *
+     * @param x x coordinate of the chunk (in chunks)
+     * @param y y coordinate of the chunk (in chunks)
+     */
+    public Chunk(int x, int y) {
+        this(x, y, new byte[SIZE * SIZE]);
+    }
+
+    /**
+     * Creates a chunk that uses the given blocks
+     *
+     * @param x x coordinate of the chunk (in chunks)
+     * @param y y coordinate of the chunk (in chunks)
+     * @param blocks blocks of the chunk
+     */
+    private Chunk(int x, int y, byte[] blocks) {
+        this.x = x;
+        this.y = y;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Packs chunk coordinates into a single key
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     * @return key of the chunk
+     */
+    public static long key(int chunkX, int chunkY) {
+        return ((long) chunkX << 32) | (chunkY & 0xffffffffL);
+    }
+
+    /**
+     * Gets a block of the chunk
+     *
+     * @param localX x coordinate inside the chunk
+     * @param localY y coordinate inside the chunk
+     * @return block type
+     */
+    public byte get(int localX, int localY) {
+        return blocks[(localY << SHIFT) | localX];
+    }
+
+    /**
+     * Sets a block of the chunk without marking the chunk as modified, used when
+     * generating the chunk
+     *
+     * @param localX x coordinate inside the chunk
+     * @param localY y coordinate inside the chunk
+     * @param block block type
+     */
+    public void fill(int localX, int localY, byte block) {
+        blocks[(localY << SHIFT) | localX] = block;
+    }
+
+    /**
+     * Changes a block of the chunk and marks the chunk as modified
+     *
+     * @param localX x coordinate inside the chunk
+     * @param localY y coordinate inside the chunk
+     * @param block new block type
+     */
+    public void set(int localX, int localY, byte block) {
+        // a snapshot still uses the blocks, change a copy instead
+        if (shared) {
+            blocks = blocks.clone();
+            shared = false;
+        }
+
+        blocks[(localY << SHIFT) | localX] = block;
+        modified = true;
+        revision++;
+    }
+
+    /**
+     * Takes a copy-on-write snapshot of the blocks of this chunk. Nothing is copied
+     * until the chunk is changed, then the chunk copies it's blocks and the snapshot
+     * keeps the old ones, so the snapshot can be read on another thread while the chunk
+     * keeps changing. Masks are not part of the snapshot. Must not be called while
+     * the chunk is being generated (fill() doesn't copy shared blocks)
+     *
+     * @return snapshot of the chunk
+     */
+    public Chunk snapshot() {
+        Chunk snapshot = new Chunk(x, y, blocks);
+        snapshot.modified = modified;
+        snapshot.shared = true;
+
+        shared = true;
+
+        return snapshot;
+    }
+
+    /**
+     * Checks if another chunk uses the same blocks as this one. Since shared blocks are
+     * never changed, two snapshots sharing blocks means the chunk didn't change between them
+     *
+     * @param other chunk to check
+     * @return true if both chunks use the same blocks
+     */
+    public boolean sharesBlocks(Chunk other) {
+        return blocks == other.blocks;
+    }
+
+    /**
+     * Checks if the neighbour masks of this chunk were computed
+     * @return true if masks are available
+     */
+    public boolean hasMasks() {
+        return masks != null;
+    }
+
+    /**
+     * Allocates the neighbour masks of this chunk
+     */
+    public void createMasks() {
+        masks = new byte[SIZE * SIZE];
+    }
+
+    /**
+     * Drops the neighbour masks of this chunk, they will be computed again when needed
+     */
+    public void clearMasks() {
+        masks = null;
+        revision++;
+    }
+
+    /**
+     * Gets the neighbour mask of a block
+     *
+     * @param localX x coordinate inside the chunk
+     * @param localY y coordinate inside the chunk
+     * @return neighbour mask
+     */
+    public int getMask(int localX, int localY) {
+        return masks[(localY << SHIFT) | localX] & 0xff;
+    }
+
+    /**
+     * Sets the neighbour mask of a block
+     *
+     * @param localX x coordinate inside the chunk
+     * @param localY y coordinate inside the chunk
+     * @param mask neighbour mask
+     */
+    public void setMask(int localX, int localY, int mask) {
+        masks[(localY << SHIFT) | localX] = (byte) mask;
+        revision++;
+    }
+
+    // getters
+    public int getX() { return x; }
+    public int getY() { return y; }
+    public long getKey() { return key(x, y); }
+    public boolean isModified() { return modified; }
+    public int getRevision() { return revision; }
+
+    // eviction stamp getter and setter
+    int getStamp() { return stamp; }
+    void setStamp(int stamp) { this.stamp = stamp; }
+}
@@ -0,0 +1,450 @@
+package com.gasis.digger.logic.terrain;
+
+import com.badlogic.gdx.utils.LongMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps map chunks. Chunks are created (generated) the first time they are touched
+ * and can be evicted again once nothing needs them, so memory depends on the explored
+ * area and not on the size of the map.
+ *
+ * In background mode chunks are generated on other threads once they are requested,
+ * reading a block of a chunk that isn't ready yet doesn't wait for it, the block is
+ * treated as solid
+ */
+public class ChunkStore {
+
+    // loaded chunks by their key
+    private final LongMap<Chunk> chunks = new LongMap<Chunk>();
+
+    // fills newly created chunks
+    private TerrainGenerator generator;
+
+    // number of the current eviction pass
+    private int stamp = 0;
+
+    // are unused chunks evicted or kept forever
+    private boolean evicting = true;
+
+    // generates chunks in the background, null if chunks are generated right when touched
+    private ExecutorService streamer;
+
+    // chunks that were requested from the background threads but are not added yet
+    private final LongMap<Boolean> requested = new LongMap<Boolean>();
+
+    // chunks generated in the background that wait to be added (filled by other threads)
+    private Queue<Chunk> generated = new ConcurrentLinkedQueue<Chunk>();
+
+    // changes saved earlier, applied to chunks right after they are generated (null if none)
+    private SavedChunks saved;
+
+    // while frozen, the store is only read (from several threads at once): missing
+    // chunks are not created or requested and the last chunk cache is not used
+    private boolean frozen = false;
+
+    // last accessed chunk, most lookups hit the same chunk many times in a row
+    private Chunk lastChunk;
+
+    /**
+     * Default class constructor
+     *
+     * @param generator generator used to fill new chunks
+     */
+    public ChunkStore(TerrainGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Gets the chunk that contains the given block, creates it if it doesn't exist yet
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @return chunk containing the block
+     */
+    public Chunk chunkAt(int x, int y) {
+        return chunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT);
+    }
+
+    /**
+     * Gets a chunk, creates it if it doesn't exist yet
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     * @return chunk
+     */
+    public Chunk chunk(int chunkX, int chunkY) {
+        Chunk chunk = find(chunkX, chunkY);
+
+        if (chunk == null) {
+            chunk = new Chunk(chunkX, chunkY);
+            chunk.setStamp(stamp);
+            generator.generate(chunk);
+
+            if (saved != null) {
+                saved.restore(chunk);
+            }
+
+            chunks.put(chunk.getKey(), chunk);
+            requested.remove(chunk.getKey());
+            clearNeighbourMasks(chunk);
+
+            lastChunk = chunk;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Gets a chunk if it is ready. In background mode a missing chunk is requested and
+     * null is returned, otherwise a missing chunk is generated right away
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     * @return chunk or null if it is not ready yet
+     */
+    public Chunk ready(int chunkX, int chunkY) {
+        Chunk chunk = find(chunkX, chunkY);
+
+        if (chunk != null) {
+            return chunk;
+        }
+
+        if (streamer == null) {
+            return chunk(chunkX, chunkY);
+        }
+
+        request(chunkX, chunkY);
+
+        return null;
+    }
+
+    /**
+     * Looks for a loaded chunk
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     * @return chunk or null if it is not loaded
+     */
+    private Chunk find(int chunkX, int chunkY) {
+        Chunk chunk = lastChunk;
+
+        if (chunk != null && chunk.getX() == chunkX && chunk.getY() == chunkY) {
+            return chunk;
+        }
+
+        chunk = chunks.get(Chunk.key(chunkX, chunkY));
+
+        if (chunk != null) {
+            lastChunk = chunk;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Asks the background threads to generate a chunk, does nothing if the chunk
+     * is loaded or was already requested
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     */
+    public void request(int chunkX, int chunkY) {
+        final long key = Chunk.key(chunkX, chunkY);
+
+        if (streamer == null || chunks.containsKey(key) || requested.containsKey(key)) {
+            return;
+        }
+
+        requested.put(key, Boolean.TRUE);
+
+        final Chunk chunk = new Chunk(chunkX, chunkY);
+        final TerrainGenerator generator = this.generator;
+        final SavedChunks saved = this.saved;
+        final Queue<Chunk> target = generated;
+
+        streamer.execute(new Runnable() {
+            @Override
+            public void run() {
+                generator.generate(chunk);
+
+                if (saved != null) {
+                    saved.restore(chunk);
+                }
+
+                target.add(chunk);
+            }
+        });
+    }
+
+    /**
+     * Adds chunks that were generated in the background since the last call. Must be
+     * called regularly (once per tick) on the thread that uses the store
+     *
+     * @return number of chunks added
+     */
+    public int addGenerated() {
+        int added = 0;
+        Chunk chunk;
+
+        while ((chunk = generated.poll()) != null) {
+            requested.remove(chunk.getKey());
+
+            // the chunk might have been generated right away in the meantime (when a block
+            // of it was changed)
+            if (chunks.containsKey(chunk.getKey())) {
+                continue;
+            }
+
+            chunk.setStamp(stamp);
+            chunks.put(chunk.getKey(), chunk);
+            clearNeighbourMasks(chunk);
+
+            added++;
+        }
+
+        return added;
+    }
+
+    /**
+     * Drops the masks of the chunks around a chunk that was just added. They treated
+     * it's blocks as solid until now
+     * @param chunk added chunk
+     */
+    private void clearNeighbourMasks(Chunk chunk) {
+        for (int chunkX = chunk.getX() - 1; chunkX <= chunk.getX() + 1; chunkX++) {
+            for (int chunkY = chunk.getY() - 1; chunkY <= chunk.getY() + 1; chunkY++) {
+                Chunk neighbour = chunks.get(Chunk.key(chunkX, chunkY));
+
+                if (neighbour != null && neighbour != chunk) {
+                    neighbour.clearMasks();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the store generates chunks in the background
+     * @return true if in background mode
+     */
+    public boolean isStreaming() {
+        return streamer != null;
+    }
+
+    /**
+     * Gets a chunk only if it is already loaded
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     * @return chunk or null if it is not loaded
+     */
+    public Chunk loaded(int chunkX, int chunkY) {
+        return chunks.get(Chunk.key(chunkX, chunkY));
+    }
+
+    /**
+     * Gets a block
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @return block type
+     */
+    public byte get(int x, int y) {
+        Chunk chunk = frozen ? loaded(x >> Chunk.SHIFT, y >> Chunk.SHIFT) : ready(x >> Chunk.SHIFT, y >> Chunk.SHIFT);
+
+        // chunks that are not generated yet are solid
+        if (chunk == null) {
+            return Map.BLOCK_DIRT;
+        }
+
+        return chunk.get(x & Chunk.MASK, y & Chunk.MASK);
+    }
+
+    /**
+     * Changes a block
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @param block new block type
+     */
+    public void set(int x, int y, byte block) {
+        chunkAt(x, y).set(x & Chunk.MASK, y & Chunk.MASK, block);
+    }
+
+    /**
+     * Marks already loaded chunks around the given block as needed, so they survive
+     * the next eviction pass. Does not create missing chunks
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @param radius radius in chunks
+     */
+    public void keepLoaded(int x, int y, int radius) {
+        int centerX = x >> Chunk.SHIFT;
+        int centerY = y >> Chunk.SHIFT;
+
+        for (int chunkX = centerX - radius; chunkX <= centerX + radius; chunkX++) {
+            for (int chunkY = centerY - radius; chunkY <= centerY + radius; chunkY++) {
+                Chunk chunk = chunks.get(Chunk.key(chunkX, chunkY));
+
+                if (chunk != null) {
+                    chunk.setStamp(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts all chunks that were not marked as needed since the last eviction pass.
+     * Modified chunks are kept since they can't be generated again
+     */
+    public void evictUnused() {
+        if (!evicting) {
+            return;
+        }
+
+        LongMap.Values<Chunk> values = chunks.values();
+
+        while (values.hasNext()) {
+            Chunk chunk = values.next();
+
+            if (chunk.getStamp() != stamp && !chunk.isModified()) {
+                values.remove();
+
+                if (chunk == lastChunk) {
+                    lastChunk = null;
+                }
+            }
+        }
+
+        stamp++;
+    }
+
+    /**
+     * Generates all chunks of an area at once. Every band (row of chunks) is generated
+     * by a separate task, the chunks are added to the store in the same order no matter
+     * which task finishes first, and chunk contents only depend on the seed, so the
+     * result is always the same
+     *
+     * @param workers threads to generate bands on
+     * @param chunksWide width of the area in chunks
+     * @param chunksHigh height of the area in chunks
+     */
+    public void generateAll(ExecutorService workers, final int chunksWide, int chunksHigh) {
+        List<Callable<Chunk[]>> bands = new ArrayList<Callable<Chunk[]>>(chunksHigh);
+        final TerrainGenerator generator = this.generator;
+
+        for (int chunkY = 0; chunkY < chunksHigh; chunkY++) {
+            final int bandY = chunkY;
+
+            bands.add(new Callable<Chunk[]>() {
+                @Override
+                public Chunk[] call() {
+                    return generator.generateBand(bandY, chunksWide);
+                }
+            });
+        }
+
+        try {
+            for (Future<Chunk[]> band: workers.invokeAll(bands)) {
+                for (Chunk chunk: band.get()) {
+                    chunk.setStamp(stamp);
+                    chunks.put(chunk.getKey(), chunk);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Map generation was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Map generation failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Sets whether unused chunks are evicted. Fully generated maps are kept in memory
+     * since they were generated up front anyway
+     *
+     * @param evicting true if unused chunks should be evicted
+     */
+    public void setEvicting(boolean evicting) {
+        this.evicting = evicting;
+    }
+
+    /**
+     * Sets the saved changes to apply to generated chunks. Chunks that are already
+     * loaded are restored right away. The changes must have been saved from a map
+     * with the same seed
+     *
+     * @param saved saved changes, null if there are none
+     */
+    public void setSaved(SavedChunks saved) {
+        this.saved = saved;
+
+        if (saved == null) {
+            return;
+        }
+
+        for (Chunk chunk: chunks.values()) {
+            saved.restore(chunk);
+        }
+    }
+
+    /**
+     * Collects all loaded chunks that were changed after they were generated
+     *
+     * @param out list to add the chunks to
+     */
+    public void modified(List<Chunk> out) {
+        for (Chunk chunk: chunks.values()) {
+            if (chunk.isModified()) {
+                out.add(chunk);
+            }
+        }
+    }
+
+    /**
+     * Removes all chunks and starts using another generator. Saved changes are dropped
+     *
+     * @param generator new generator
+     * @param streamer threads to generate chunks on in the background, null to
+     * generate chunks right when they are touched
+     */
+    public void reset(TerrainGenerator generator, ExecutorService streamer) {
+        this.generator = generator;
+        this.streamer = streamer;
+        this.saved = null;
+
+        chunks.clear();
+        requested.clear();
+        lastChunk = null;
+
+        // chunks still being generated for the old generator will end up in the old queue
+        generated = new ConcurrentLinkedQueue<Chunk>();
+    }
+
+    /**
+     * Freezes or unfreezes the store. A frozen store can be read from several threads at
+     * once, blocks of chunks that are not loaded read as solid. Nothing may change the
+     * store while it is frozen
+     *
+     * @param frozen true to freeze the store
+     */
+    public void setFrozen(boolean frozen) {
+        this.frozen = frozen;
+    }
+
+    /**
+     * Gets the number of loaded chunks
+     * @return loaded chunk count
+     */
+    public int size() {
+        return chunks.size;
+    }
+}
@@ -1,14 +1,13 @@
 package com.gasis.digger.logic.terrain;
 
-import com.badlogic.gdx.graphics.g2d.SpriteBatch;
-import com.badlogic.gdx.graphics.g2d.TextureAtlas;
 import com.gasis.digger.logic.Point;
-import com.gasis.digger.utils.Constants;
 
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
- * Holds game map data
+ * Holds game map data. Doesn't depend on any graphics, drawing is done by
+ * TerrainRenderer, so maps can be used without a display
  */
 public class Map {
 
@@ -23,180 +22,364 @@ public class Map {
     public static final byte BLOCK_DIRT = 1;
     // ***** END OF BLOCK TYPES ***** //
 
-    // width of the map in blocks
+    // default width of the map in blocks
     public static final int WIDTH = 25;
 
-    // height of the map in blocks
+    // default height of the map in blocks
     public static final int HEIGHT = 256;
 
     // how many blocks is the top layer of water
     public static final int WATER_THICKNESS = 5;
 
-    // map data (blocks)
-    private byte[][] data;
+    // how many blocks outside of the view are drawn (so edges of the view are complete)
+    public static final int VIEW_BORDER = 1;
 
-    // texture atlas to look for textures in
-    private TextureAtlas textures;
+    // how many chunks around a vehicle are kept loaded
+    public static final int CHUNK_KEEP_RADIUS = 2;
+
+    // default distance (in blocks) at which chunks are generated in the background
+    public static final int GENERATION_DISTANCE = 24;
+
+    // distance (in blocks) at which chunks are generated in the background
+    private int generationDistance = GENERATION_DISTANCE;
+
+    // size of this map in blocks
+    private final int width;
+    private final int height;
+
+    // map data (blocks), split into chunks that are generated when first touched
+    private ChunkStore chunks;
+
+    // notified when blocks change (null if nothing listens)
+    private BlockListener blockListener;
 
     /**
-     * Default class constructor
+     * Default class constructor, creates a map of the default size
      */
-    public Map(TextureAtlas textures) {
-        this.textures = textures;
+    public Map() {
+        this(WIDTH, HEIGHT);
+    }
 
-        data = new byte[WIDTH][HEIGHT];
+    /**
+     * Creates a map of the specified size
+     *
+     * @param width width of the map in blocks
+     * @param height height of the map in blocks
+     */
+    public Map(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        chunks = new ChunkStore(new TerrainGenerator(0, height));
     }
 
     /**
-     * Generates a random map
+     * Generates a random map. Chunks are not generated right away, each chunk
+     * is generated from the seed the first time it is touched
      *
      * @param seed of the map
      */
     public void generateMap(int seed) {
-        Random random = new Random(seed);
+        chunks.reset(new TerrainGenerator(seed, height), null);
+        chunks.setEvicting(true);
+    }
 
-        // map characteristics
-        int maxEmptyBlocksPerLine = 10;
+    /**
+     * Generates a random map in the background. Only chunks within the generation
+     * distance of something that keeps chunks loaded (see keepChunksLoaded()) are
+     * generated, blocks of chunks that are not ready yet are treated as solid.
+     * Generated chunks must be added with addGeneratedChunks()
+     *
+     * @param seed of the map
+     * @param workers threads to generate chunks on
+     */
+    public void generateMapLazily(int seed, ExecutorService workers) {
+        chunks.reset(new TerrainGenerator(seed, height), workers);
+        chunks.setEvicting(true);
+    }
 
-        // fill the map
-        for (int y = HEIGHT - 1; y >= 0; y--) {
-            // fill water layer
-            if (y >= HEIGHT - WATER_THICKNESS) {
-                for (int x = 0; x < WIDTH; x++) {
-                    data[x][y] = BLOCK_EMPTY;
-                }
+    /**
+     * Generates a random map up front. Bands of chunks are generated in parallel, the
+     * result is the same as generating every chunk when it is first touched. The whole
+     * map stays in memory
+     *
+     * @param seed of the map
+     * @param workers threads to generate the map on
+     */
+    public void generateMap(int seed, ExecutorService workers) {
+        chunks.reset(new TerrainGenerator(seed, height), null);
+        chunks.setEvicting(false);
 
-                continue;
-            }
+        int chunksWide = (width + Chunk.SIZE - 1) >> Chunk.SHIFT;
+        int chunksHigh = (height + Chunk.SIZE - 1) >> Chunk.SHIFT;
 
-            // fill in everything else
-            int emptyBlocks = random.nextInt(maxEmptyBlocksPerLine);
+        chunks.generateAll(workers, chunksWide, chunksHigh);
+    }
 
-            // fill the line with dirt
-            for (int x = 0; x < WIDTH; x++) {
-                data[x][y] = BLOCK_DIRT;
-            }
+    /**
+     * Restores changes saved earlier. Should be called right after generating the
+     * map with the same seed the changes were saved with
+     *
+     * @param saved saved changes, null if there are none
+     */
+    public void setSavedChunks(SavedChunks saved) {
+        chunks.setSaved(saved);
+    }
+
+    /**
+     * Collects all loaded chunks that were changed after they were generated
+     * (the only chunks that need to be saved)
+     *
+     * @param out list to add the chunks to
+     */
+    public void getModifiedChunks(List<Chunk> out) {
+        chunks.modified(out);
+    }
+
+    /**
+     * Keeps the chunks around the given coordinates loaded during the next call
+     * to evictUnusedChunks()
+     *
+     * @param x x coordinate (in map block coordinates)
+     * @param y y coordinate (in map block coordinates)
+     */
+    public void keepChunksLoaded(float x, float y) {
+        chunks.keepLoaded((int) x, (int) y, CHUNK_KEEP_RADIUS);
+
+        requestChunksAround(x, y);
+    }
+
+    /**
+     * Requests background generation of the chunks within the generation distance of
+     * the given coordinates. Does nothing if the map isn't generated lazily
+     *
+     * @param x x coordinate (in map block coordinates)
+     * @param y y coordinate (in map block coordinates)
+     */
+    public void requestChunksAround(float x, float y) {
+        if (!chunks.isStreaming()) {
+            return;
+        }
+
+        int minX = Math.max(0, (int) x - generationDistance) >> Chunk.SHIFT;
+        int minY = Math.max(0, (int) y - generationDistance) >> Chunk.SHIFT;
+        int maxX = Math.min(width - 1, (int) x + generationDistance) >> Chunk.SHIFT;
+        int maxY = Math.min(height - 1, (int) y + generationDistance) >> Chunk.SHIFT;
 
-            // add empty spaces
-            for (int n = 0; n < emptyBlocks; n++) {
-                int emptyBlock = random.nextInt(WIDTH);
+        for (int chunkX = minX; chunkX <= maxX; chunkX++) {
+            for (int chunkY = minY; chunkY <= maxY; chunkY++) {
+                chunks.request(chunkX, chunkY);
+            }
+        }
+    }
 
-                if (data[emptyBlock][y] == BLOCK_EMPTY) {
-                    n--;
-                    continue;
+    /**
+     * Generates the chunks around the given coordinates right away (used for the
+     * area around the spawn, so it doesn't start out solid)
+     *
+     * @param x x coordinate (in map block coordinates)
+     * @param y y coordinate (in map block coordinates)
+     * @param radius radius in chunks
+     */
+    public void loadChunksAround(float x, float y, int radius) {
+        int centerX = (int) x >> Chunk.SHIFT;
+        int centerY = (int) y >> Chunk.SHIFT;
+
+        for (int chunkX = Math.max(0, centerX - radius); chunkX <= centerX + radius; chunkX++) {
+            for (int chunkY = Math.max(0, centerY - radius); chunkY <= centerY + radius; chunkY++) {
+                if (chunkX << Chunk.SHIFT < width && chunkY << Chunk.SHIFT < height) {
+                    chunks.chunk(chunkX, chunkY);
                 }
+            }
+        }
+    }
 
-                data[emptyBlock][y] = BLOCK_EMPTY;
+    /**
+     * Makes sure the chunks a vehicle at the given coordinates can touch during a tick
+     * (the chunk it is in and the 8 around it) are ready, so they can be read while the
+     * map is read-only. In background mode missing chunks are only requested
+     *
+     * @param x x coordinate (in map block coordinates)
+     * @param y y coordinate (in map block coordinates)
+     */
+    public void prepareChunksAround(float x, float y) {
+        int centerX = (int) x >> Chunk.SHIFT;
+        int centerY = (int) y >> Chunk.SHIFT;
+
+        for (int chunkX = Math.max(0, centerX - 1); chunkX <= centerX + 1; chunkX++) {
+            for (int chunkY = Math.max(0, centerY - 1); chunkY <= centerY + 1; chunkY++) {
+                if (chunkX << Chunk.SHIFT < width && chunkY << Chunk.SHIFT < height) {
+                    chunks.ready(chunkX, chunkY);
+                }
             }
         }
     }
 
     /**
-     * Called when the map should render itself. Player's coordinates are used for
-     * rendering efficiency.
+     * Makes the map read-only or writable again. A read-only map can be read from
+     * several threads at once, but blocks of chunks that are not loaded read as solid
+     * instead of being generated. The map must not be changed while it's read-only
+     *
+     * @param readOnly true to make the map read-only
+     */
+    public void setReadOnly(boolean readOnly) {
+        chunks.setFrozen(readOnly);
+    }
+
+    /**
+     * Adds chunks that finished generating in the background. Should be called once
+     * per tick when the map is generated lazily
+     *
+     * @return number of chunks added
+     */
+    public int addGeneratedChunks() {
+        return chunks.addGenerated();
+    }
+
+    /**
+     * Sets how close something that keeps chunks loaded has to get to a chunk for it
+     * to be generated in the background. Should not be larger than
+     * CHUNK_KEEP_RADIUS chunks, otherwise chunks get evicted right after generating
+     *
+     * @param generationDistance distance in blocks
+     */
+    public void setGenerationDistance(int generationDistance) {
+        this.generationDistance = generationDistance;
+    }
+
+    /**
+     * Evicts chunks that were not kept loaded since the last call
+     */
+    public void evictUnusedChunks() {
+        chunks.evictUnused();
+    }
+
+    /**
+     * Gets the autotile neighbour mask of a block, computes the masks of the block's
+     * chunk if they were not computed yet
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @return neighbour mask
+     */
+    public int mask(int x, int y) {
+        Chunk chunk = chunks.chunkAt(x, y);
+
+        if (!chunk.hasMasks()) {
+            computeMasks(chunk);
+        }
+
+        return chunk.getMask(x & Chunk.MASK, y & Chunk.MASK);
+    }
+
+    /**
+     * Computes the neighbour masks of all blocks in a chunk
      *
-     * @param batch sprite batch to draw to
-     * @param delta time elapsed since the last render
-     * @param playerX player's x coordinate (in map block coordinates)
-     * @param playerY player's y coordinate (in map block coordinates)
-     */
-    @SuppressWarnings("unused")
-    public void draw(SpriteBatch batch, float delta, int playerX, int playerY) {
-        for (int x = playerX - (int) Constants.WIDTH; x < playerX + (int) Constants.WIDTH; x++) {
-            for (int y = playerY - (int) Constants.HEIGHT; y < playerY + (int) Constants.HEIGHT; y++) {
-                if (x < 0 || x >= WIDTH || y < 0 || y >= HEIGHT) {
-                    continue;
+     * @param chunk chunk to compute masks for
+     */
+    private void computeMasks(Chunk chunk) {
+        // adding a chunk drops the masks of the chunks around it, so the neighbours are
+        // generated (or requested) before the masks are created
+        for (int chunkX = chunk.getX() - 1; chunkX <= chunk.getX() + 1; chunkX++) {
+            for (int chunkY = chunk.getY() - 1; chunkY <= chunk.getY() + 1; chunkY++) {
+                if (chunkX >= 0 && chunkY >= 0 && chunkX << Chunk.SHIFT < width && chunkY << Chunk.SHIFT < height) {
+                    chunks.ready(chunkX, chunkY);
                 }
+            }
+        }
+
+        chunk.createMasks();
+
+        int left = chunk.getX() << Chunk.SHIFT;
+        int bottom = chunk.getY() << Chunk.SHIFT;
 
-                // draw map blocks
-                switch (data[x][y]) {
-                    case BLOCK_DIRT:
-                        batch.draw(textures.findRegion("dirt"),
-                                x, y, 1, 1);
-                        break;
-                    case BLOCK_EMPTY:
-                        float smallerDimension = 1 / 7f;
-                        float mediumDimension = smallerDimension * 2.77f;
-                        float largerDimension = 1;
-
-                        // if there is a block in the left draw a side of dirt
-                        if (x - 1 >= 0 && data[x - 1][y] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_left"),
-                                    x, y, smallerDimension, largerDimension);
-                        }
-
-                        // if there is a block to the right draw a side of dirt
-                        if (x + 1 < WIDTH && data[x + 1][y] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_right"),
-                                    x + 1 - smallerDimension, y, smallerDimension, largerDimension);
-                        }
-
-                        // if there is a block to the top draw a side of dirt
-                        if (y + 1 < HEIGHT && data[x][y + 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_top"),
-                                    x, y + 1 - smallerDimension, largerDimension, smallerDimension);
-                        }
-
-                        // if there is a block to the bottom draw a side of dirt
-                        if (y - 1 >= 0 && data[x][y - 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_bottom"),
-                                    x, y, largerDimension, smallerDimension);
-                        }
-
-                        // if there is a block to the left and top draw a rounded corner
-                        if (x - 1 >= 0 && y + 1 < HEIGHT && data[x - 1][y] != BLOCK_EMPTY && data[x][y + 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_rounded_top_left"),
-                                    x, y + 1 - mediumDimension, mediumDimension, mediumDimension);
-                        }
-
-                        // if there are no blocks to the left and top check if a corner needs to be drawn
-                        else if (x - 1 >= 0 && y + 1 < HEIGHT && data[x - 1][y] == BLOCK_EMPTY && data[x][y + 1] == BLOCK_EMPTY && data[x - 1][y + 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_top_left"),
-                                    x, y + 1 - smallerDimension, smallerDimension, smallerDimension);
-                        }
-
-                        // if there is a block to the right and top draw a rounded corner
-                        if (x + 1 < WIDTH && y + 1 < HEIGHT && data[x + 1][y] != BLOCK_EMPTY && data[x][y + 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_rounded_top_right"),
-                                    x + 1 - mediumDimension, y + 1 - mediumDimension, mediumDimension, mediumDimension);
-                        }
-
-                        // if there are no blocks to the right and top check if a corner needs to be drawn
-                        else if (x + 1 < WIDTH && y + 1 < HEIGHT && data[x + 1][y] == BLOCK_EMPTY && data[x][y + 1] == BLOCK_EMPTY && data[x + 1][y + 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_top_right"),
-                                    x + 1 - smallerDimension, y + 1 - smallerDimension, smallerDimension, smallerDimension);
-                        }
-
-                        // if there is a block to the right and bottom draw a rounded corner
-                        if (x + 1 < WIDTH && y - 1 >= 0 && data[x + 1][y] != BLOCK_EMPTY && data[x][y - 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_rounded_bottom_right"),
-                                    x + 1 - mediumDimension, y, mediumDimension, mediumDimension);
-                        }
-
-                        // if there are no blocks to the right and bottom check if a corner needs to be drawn
-                        else if (x + 1 < WIDTH && y - 1 >= 0 && data[x + 1][y] == BLOCK_EMPTY && data[x][y - 1] == BLOCK_EMPTY && data[x + 1][y - 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_bottom_right"),
-                                    x + 1 - smallerDimension, y, smallerDimension, smallerDimension);
-                        }
-
-                        // if there is a block to the left and bottom draw a rounded corner
-                        if (x - 1 >= 0 && y - 1 >= 0 && data[x - 1][y] != BLOCK_EMPTY && data[x][y - 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_rounded_bottom_left"),
-                                    x, y, mediumDimension, mediumDimension);
-                        }
-
-                        // if there are no blocks to the left and bottom check if a corner needs to be drawn
-                        else if (x - 1 >= 0 && y - 1 >= 0 && data[x - 1][y] == BLOCK_EMPTY && data[x][y - 1] == BLOCK_EMPTY && data[x - 1][y - 1] != BLOCK_EMPTY) {
-                            batch.draw(textures.findRegion("dirt_bottom_left"),
-                                    x, y, smallerDimension, smallerDimension);
-                        }
-
-                        break;
+        for (int localX = 0; localX < Chunk.SIZE; localX++) {
+            for (int localY = 0; localY < Chunk.SIZE; localY++) {
+                chunk.setMask(localX, localY, computeMask(left + localX, bottom + localY));
+            }
+        }
+    }
+
+    /**
+     * Updates the neighbour masks of the block and all blocks around it. Only chunks
+     * that already have their masks computed are updated
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     */
+    private void updateMasksAround(int x, int y) {
+        for (int neighbourX = x - 1; neighbourX <= x + 1; neighbourX++) {
+            for (int neighbourY = y - 1; neighbourY <= y + 1; neighbourY++) {
+                Chunk chunk = chunks.loaded(neighbourX >> Chunk.SHIFT, neighbourY >> Chunk.SHIFT);
+
+                if (chunk != null && chunk.hasMasks()) {
+                    chunk.setMask(neighbourX & Chunk.MASK, neighbourY & Chunk.MASK,
+                            computeMask(neighbourX, neighbourY));
                 }
             }
         }
     }
 
+    /**
+     * Computes the neighbour mask of a single block
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @return neighbour mask
+     */
+    private int computeMask(int x, int y) {
+        int mask = 0;
+
+        mask |= isSolid(x - 1, y) ? Autotiles.LEFT : 0;
+        mask |= isSolid(x + 1, y) ? Autotiles.RIGHT : 0;
+        mask |= isSolid(x, y + 1) ? Autotiles.TOP : 0;
+        mask |= isSolid(x, y - 1) ? Autotiles.BOTTOM : 0;
+        mask |= isSolid(x - 1, y + 1) ? Autotiles.TOP_LEFT : 0;
+        mask |= isSolid(x + 1, y + 1) ? Autotiles.TOP_RIGHT : 0;
+        mask |= isSolid(x + 1, y - 1) ? Autotiles.BOTTOM_RIGHT : 0;
+        mask |= isSolid(x - 1, y - 1) ? Autotiles.BOTTOM_LEFT : 0;
+
+        return mask;
+    }
+
+    /**
+     * Gets a block
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @return block type, BLOCK_EMPTY if the coordinates are outside the map
+     */
+    public byte getBlock(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return BLOCK_EMPTY;
+        }
+
+        return chunks.get(x, y);
+    }
+
+    /**
+     * Gets a chunk of the map if it is ready. If the map is generated lazily a
+     * missing chunk is requested, otherwise it is generated right away
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     * @return chunk or null if it is not generated yet
+     */
+    public Chunk readyChunk(int chunkX, int chunkY) {
+        return chunks.ready(chunkX, chunkY);
+    }
+
+    /**
+     * Checks if there is a non empty block at the given coordinates
+     *
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @return true if the block is inside the map and is not empty
+     */
+    public boolean isSolid(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height && chunks.get(x, y) != BLOCK_EMPTY;
+    }
+
     /**
      * Checks if a block below specified coordinates exists
      *
@@ -205,13 +388,26 @@ public class Map {
      * @return supplied coordinates if block exists, null if it doesn't
      */
     public Point blockExistsBelow(float x, float y) {
-        if (x >= 0 && x < WIDTH && y - 1 >= 0 && y - 1 < HEIGHT && data[(int) x][(int) y - 1] != BLOCK_EMPTY) {
+        if (hasBlockBelow(x, y)) {
             return new Point((int) x, (int) y);
         }
 
         return null;
     }
 
+    /**
+     * Checks if a block below the specified coordinates exists. Unlike blockExistsBelow()
+     * this doesn't allocate anything, the block's coordinates are the supplied
+     * coordinates cut to integers
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return true if the block exists
+     */
+    public boolean hasBlockBelow(float x, float y) {
+        return x >= 0 && x < width && y - 1 >= 0 && y - 1 < height && chunks.get((int) x, (int) y - 1) != BLOCK_EMPTY;
+    }
+
     /**
      * Checks if a block above specified coordinates exists
      *
@@ -220,13 +416,26 @@ public class Map {
      * @return supplied coordinates if block exists, null if it doesn't
      */
     public Point blockExistsAbove(float x, float y) {
-        if (x >= 0 && x < WIDTH && y + 1 < HEIGHT && y + 1 >= 0 && data[(int) x][(int) y + 1] != BLOCK_EMPTY) {
+        if (hasBlockAbove(x, y)) {
             return new Point((int) x, (int) y);
         }
 
         return null;
     }
 
+    /**
+     * Checks if a block above the specified coordinates exists. Unlike blockExistsAbove()
+     * this doesn't allocate anything, the block's coordinates are the supplied
+     * coordinates cut to integers
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return true if the block exists
+     */
+    public boolean hasBlockAbove(float x, float y) {
+        return x >= 0 && x < width && y + 1 < height && y + 1 >= 0 && chunks.get((int) x, (int) y + 1) != BLOCK_EMPTY;
+    }
+
     /**
      * Checks if a block to the left of the specified coordinates exists
      *
@@ -235,13 +444,26 @@ public class Map {
      * @return supplied coordinates if block exists, null if it doesn't
      */
     public Point blockExistsLeft(float x, float y) {
-        if (y >= 0 && y < HEIGHT && x - 1 >= 0 && x - 1 < WIDTH && data[(int) x - 1][(int) y] != BLOCK_EMPTY) {
+        if (hasBlockLeft(x, y)) {
             return new Point((int) x, (int) y);
         }
 
         return null;
     }
 
+    /**
+     * Checks if a block to the left of the specified coordinates exists. Unlike blockExistsLeft()
+     * this doesn't allocate anything, the block's coordinates are the supplied
+     * coordinates cut to integers
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return true if the block exists
+     */
+    public boolean hasBlockLeft(float x, float y) {
+        return y >= 0 && y < height && x - 1 >= 0 && x - 1 < width && chunks.get((int) x - 1, (int) y) != BLOCK_EMPTY;
+    }
+
     /**
      * Checks if a block to the right of the specified coordinates exists
      *
@@ -250,13 +472,26 @@ public class Map {
      * @return supplied coordinates if block exists, null if it doesn't
      */
     public Point blockExistsRight(float x, float y) {
-        if (y >= 0 && y < HEIGHT && x + 1 >= 0 && x + 1 < WIDTH && data[(int) x + 1][(int) y] != BLOCK_EMPTY) {
+        if (hasBlockRight(x, y)) {
             return new Point((int) x, (int) y);
         }
 
         return null;
     }
 
+    /**
+     * Checks if a block to the right of the specified coordinates exists. Unlike blockExistsRight()
+     * this doesn't allocate anything, the block's coordinates are the supplied
+     * coordinates cut to integers
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return true if the block exists
+     */
+    public boolean hasBlockRight(float x, float y) {
+        return y >= 0 && y < height && x + 1 >= 0 && x + 1 < width && chunks.get((int) x + 1, (int) y) != BLOCK_EMPTY;
+    }
+
     /**
      * Checks if the block at the given coordinates is drillable or not
      *
@@ -265,24 +500,54 @@ public class Map {
      * @return block type if it is drillable, -1 if it is not
      */
     public byte isBlockDrillable(int x, int y) {
-        byte block = data[x][y];
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return -1;
+        }
+
+        byte block = chunks.get(x, y);
 
         if (block == BLOCK_EMPTY) {
             return -1;
         }
 
-        return data[x][y];
+        return block;
     }
 
     /**
-     * Removes a block from the map by making it empty
+     * Removes a block from the map by making it empty. Removing a block that is already
+     * empty does nothing, the chunk is not marked as modified and nobody is notified
      *
      * @param x
      * @param y
      */
     public void removeBlock(int x, int y) {
-        if (x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT) {
-            data[x][y] = BLOCK_EMPTY;
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            Chunk chunk = chunks.chunkAt(x, y);
+
+            if (chunk.get(x & Chunk.MASK, y & Chunk.MASK) == BLOCK_EMPTY) {
+                return;
+            }
+
+            chunk.set(x & Chunk.MASK, y & Chunk.MASK, BLOCK_EMPTY);
+
+            updateMasksAround(x, y);
+
+            if (blockListener != null) {
+                blockListener.blockRemoved(x, y);
+            }
         }
     }
+
+    /**
+     * Sets the listener notified when blocks change
+     *
+     * @param blockListener listener, null to remove it
+     */
+    public void setBlockListener(BlockListener blockListener) {
+        this.blockListener = blockListener;
+    }
+
+    // map size getters
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
 }
@@ -0,0 +1,17 @@
+package com.gasis.digger.logic.terrain;
+
+/**
+ * Saved changes of map chunks. Changes are applied on top of a chunk right after
+ * it is generated, so only the differences from the generated terrain have to be kept
+ */
+public interface SavedChunks {
+
+    /**
+     * Applies saved changes to a freshly generated chunk. Can be called from the
+     * background generation threads
+     *
+     * @param chunk chunk to restore
+     * @return true if the chunk had saved changes
+     */
+    boolean restore(Chunk chunk);
+}
@@ -0,0 +1,116 @@
+package com.gasis.digger.logic.terrain;
+
+import java.util.Random;
+
+/**
+ * Generates map chunks. Every chunk gets it's own seed derived from the map seed
+ * and the chunk's coordinates, so any chunk can be generated (or generated again
+ * after it was evicted) without generating the rest of the map
+ */
+public class TerrainGenerator {
+
+    // how many empty blocks can a single line of a chunk have at most
+    private static final int MAX_EMPTY_BLOCKS_PER_LINE = 7;
+
+    // seed of the map
+    private final int seed;
+
+    // height of the map in blocks (needed for the water layer)
+    private final int mapHeight;
+
+    /**
+     * Default class constructor
+     *
+     * @param seed seed of the map
+     * @param mapHeight height of the map in blocks
+     */
+    public TerrainGenerator(int seed, int mapHeight) {
+        this.seed = seed;
+        this.mapHeight = mapHeight;
+    }
+
+    /**
+     * Derives the seed of a single chunk from the map seed
+     *
+     * @param chunkX x coordinate of the chunk
+     * @param chunkY y coordinate of the chunk
+     * @return seed of the chunk
+     */
+    public long chunkSeed(int chunkX, int chunkY) {
+        long hash = seed * 0x9E3779B97F4A7C15L + chunkX * 0xC2B2AE3D27D4EB4FL + chunkY * 0x165667B19E3779F9L;
+
+        // mix the bits so neighbouring chunks don't get similar seeds
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Fills the given chunk with blocks. Only depends on the chunk's coordinates,
+     * so it is safe to generate different chunks on different threads at once
+     *
+     * @param chunk chunk to fill
+     */
+    public void generate(Chunk chunk) {
+        Random random = new Random(chunkSeed(chunk.getX(), chunk.getY()));
+
+        // columns of a line in random order, the first few are emptied in every line
+        int[] columns = new int[Chunk.SIZE];
+
+        for (int localX = 0; localX < Chunk.SIZE; localX++) {
+            columns[localX] = localX;
+        }
+
+        int bottom = chunk.getY() << Chunk.SHIFT;
+
+        for (int localY = 0; localY < Chunk.SIZE; localY++) {
+            // fill water layer
+            if (bottom + localY >= mapHeight - Map.WATER_THICKNESS) {
+                for (int localX = 0; localX < Chunk.SIZE; localX++) {
+                    chunk.fill(localX, localY, Map.BLOCK_EMPTY);
+                }
+
+                continue;
+            }
+
+            // fill in everything else
+            int emptyBlocks = random.nextInt(MAX_EMPTY_BLOCKS_PER_LINE);
+
+            // fill the line with dirt
+            for (int localX = 0; localX < Chunk.SIZE; localX++) {
+                chunk.fill(localX, localY, Map.BLOCK_DIRT);
+            }
+
+            // add empty spaces. Picks distinct columns by shuffling only as many columns
+            // as needed, instead of retrying when a column that is already empty is picked
+            for (int n = 0; n < emptyBlocks; n++) {
+                int swap = n + random.nextInt(Chunk.SIZE - n);
+                int emptyBlock = columns[swap];
+
+                columns[swap] = columns[n];
+                columns[n] = emptyBlock;
+
+                chunk.fill(emptyBlock, localY, Map.BLOCK_EMPTY);
+            }
+        }
+    }
+
+    /**
+     * Generates a whole band of chunks (one row of chunks)
+     *
+     * @param chunkY y coordinate of the band (in chunks)
+     * @param chunksWide number of chunks in the band
+     * @return generated chunks, from left to right
+     */
+    public Chunk[] generateBand(int chunkY, int chunksWide) {
+        Chunk[] band = new Chunk[chunksWide];
+
+        for (int chunkX = 0; chunkX < chunksWide; chunkX++) {
+            band[chunkX] = new Chunk(chunkX, chunkY);
+            generate(band[chunkX]);
+        }
+
+        return band;
+    }
+}
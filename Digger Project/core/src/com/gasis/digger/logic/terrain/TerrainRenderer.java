@@ -0,0 +1,281 @@
+package com.gasis.digger.logic.terrain;
+
+import com.badlogic.gdx.graphics.g2d.SpriteCache;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Draws the map using cached geometry. Every visible chunk gets it's own vertex
+ * buffer which is only rebuilt when the chunk changes, so drawing the terrain takes
+ * one draw call per visible chunk instead of submitting every block every frame
+ */
+public class TerrainRenderer implements Disposable {
+
+    // the most pieces a chunk can have: every block empty with all 4 sides and 4 corners
+    private static final int MAX_SPRITES_PER_CHUNK = Chunk.SIZE * Chunk.SIZE * 8;
+
+    // map to draw
+    private final Map map;
+
+    // dirt textures
+    private final Autotiles autotiles;
+
+    // cached geometry of chunks that are currently visible, by chunk key
+    private final LongMap<CachedChunk> cached = new LongMap<CachedChunk>();
+
+    // sprite caches that are not used by any chunk right now
+    private final Array<SpriteCache> freeCaches = new Array<SpriteCache>();
+
+    // every sprite cache ever created (to dispose of them)
+    private final Array<SpriteCache> allCaches = new Array<SpriteCache>();
+
+    // shader all sprite caches draw with, so every chunk binds the same program
+    private final SharedShader shader = new SharedShader();
+
+    // number of the current frame, used to find chunks that went off screen
+    private int frame = 0;
+
+    /**
+     * Default class constructor
+     *
+     * @param map map to draw
+     * @param autotiles dirt textures
+     */
+    public TerrainRenderer(Map map, Autotiles autotiles) {
+        this.map = map;
+        this.autotiles = autotiles;
+    }
+
+    /**
+     * Draws all chunks inside the view. Must not be called between
+     * SpriteBatch.begin() and SpriteBatch.end()
+     *
+     * @param projection projection matrix of the camera
+     * @param view visible part of the world (in map block coordinates)
+     */
+    public void draw(Matrix4 projection, Rectangle view) {
+        frame++;
+
+        // visible blocks, clamped to the map
+        int minX = Math.max(0, (int) Math.floor(view.x) - Map.VIEW_BORDER);
+        int minY = Math.max(0, (int) Math.floor(view.y) - Map.VIEW_BORDER);
+        int maxX = Math.min(map.getWidth() - 1, (int) Math.floor(view.x + view.width) + Map.VIEW_BORDER);
+        int maxY = Math.min(map.getHeight() - 1, (int) Math.floor(view.y + view.height) + Map.VIEW_BORDER);
+
+        for (int chunkX = minX >> Chunk.SHIFT; chunkX <= maxX >> Chunk.SHIFT; chunkX++) {
+            for (int chunkY = minY >> Chunk.SHIFT; chunkY <= maxY >> Chunk.SHIFT; chunkY++) {
+                Chunk chunk = map.readyChunk(chunkX, chunkY);
+
+                // chunks that are still being generated are not drawn
+                if (chunk == null) {
+                    continue;
+                }
+
+                CachedChunk entry = prepare(chunk);
+
+                entry.cache.setProjectionMatrix(projection);
+                entry.cache.begin();
+                entry.cache.draw(entry.cacheId);
+                entry.cache.end();
+            }
+        }
+
+        releaseHiddenChunks();
+    }
+
+    /**
+     * Makes sure the cached geometry of a chunk exists and is up to date
+     *
+     * @param chunk chunk to draw
+     * @return cached geometry of the chunk
+     */
+    private CachedChunk prepare(Chunk chunk) {
+        CachedChunk entry = cached.get(chunk.getKey());
+
+        if (entry == null) {
+            entry = new CachedChunk();
+            entry.cache = obtainCache();
+
+            cached.put(chunk.getKey(), entry);
+        }
+
+        // the chunk object changes if the chunk was evicted and generated again
+        if (entry.chunk != chunk || entry.revision != chunk.getRevision()) {
+            build(entry, chunk);
+        }
+
+        entry.frame = frame;
+
+        return entry;
+    }
+
+    /**
+     * Builds the geometry of a chunk
+     *
+     * @param entry cache entry to build into
+     * @param chunk chunk to build geometry for
+     */
+    private void build(CachedChunk entry, Chunk chunk) {
+        int left = chunk.getX() << Chunk.SHIFT;
+        int bottom = chunk.getY() << Chunk.SHIFT;
+
+        int right = Math.min(left + Chunk.SIZE, map.getWidth());
+        int top = Math.min(bottom + Chunk.SIZE, map.getHeight());
+
+        SpriteCache cache = entry.cache;
+
+        cache.clear();
+        cache.beginCache();
+
+        for (int x = left; x < right; x++) {
+            for (int y = bottom; y < top; y++) {
+                switch (chunk.get(x & Chunk.MASK, y & Chunk.MASK)) {
+                    case Map.BLOCK_DIRT:
+                        cache.add(autotiles.getDirt(), x, y, 1, 1);
+                        break;
+                    case Map.BLOCK_EMPTY:
+                        for (Autotiles.Piece piece: autotiles.pieces(map.mask(x, y))) {
+                            cache.add(piece.region, x + piece.x, y + piece.y, piece.width, piece.height);
+                        }
+
+                        break;
+                }
+            }
+        }
+
+        entry.cacheId = cache.endCache();
+        entry.chunk = chunk;
+
+        // computing masks while building might have changed the revision
+        entry.revision = chunk.getRevision();
+    }
+
+    /**
+     * Gives the sprite caches of chunks that were not drawn this frame back to the pool
+     */
+    private void releaseHiddenChunks() {
+        LongMap.Values<CachedChunk> values = cached.values();
+
+        while (values.hasNext()) {
+            CachedChunk entry = values.next();
+
+            if (entry.frame != frame) {
+                freeCaches.add(entry.cache);
+                values.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets an unused sprite cache or creates a new one if there are none
+     * @return sprite cache
+     */
+    private SpriteCache obtainCache() {
+        if (freeCaches.size > 0) {
+            return freeCaches.pop();
+        }
+
+        SpriteCache cache = new SpriteCache(MAX_SPRITES_PER_CHUNK, shader, true);
+        allCaches.add(cache);
+
+        return cache;
+    }
+
+    /**
+     * Disposes of all vertex buffers and the shader
+     */
+    @Override
+    public void dispose() {
+        for (SpriteCache cache: allCaches) {
+            cache.dispose();
+        }
+
+        allCaches.clear();
+        freeCaches.clear();
+        cached.clear();
+
+        shader.dispose();
+    }
+
+    /**
+     * The default shader of sprite caches (see SpriteCache.createDefaultShader()),
+     * compiled once for all of them. A sprite cache disposes of the shader it was
+     * created with, so disposing this one more than once does nothing
+     */
+    private static class SharedShader extends ShaderProgram {
+
+        private static final String VERTEX = "attribute vec4 " + ShaderProgram.POSITION_ATTRIBUTE + ";\n"
+                + "attribute vec4 " + ShaderProgram.COLOR_ATTRIBUTE + ";\n"
+                + "attribute vec2 " + ShaderProgram.TEXCOORD_ATTRIBUTE + "0;\n"
+                + "uniform mat4 u_projectionViewMatrix;\n"
+                + "varying vec4 v_color;\n"
+                + "varying vec2 v_texCoords;\n"
+                + "\n"
+                + "void main()\n"
+                + "{\n"
+                + "   v_color = " + ShaderProgram.COLOR_ATTRIBUTE + ";\n"
+                + "   v_color.a = v_color.a * (255.0/254.0);\n"
+                + "   v_texCoords = " + ShaderProgram.TEXCOORD_ATTRIBUTE + "0;\n"
+                + "   gl_Position = u_projectionViewMatrix * " + ShaderProgram.POSITION_ATTRIBUTE + ";\n"
+                + "}\n";
+
+        private static final String FRAGMENT = "#ifdef GL_ES\n"
+                + "precision mediump float;\n"
+                + "#endif\n"
+                + "varying vec4 v_color;\n"
+                + "varying vec2 v_texCoords;\n"
+                + "uniform sampler2D u_texture;\n"
+                + "void main()\n"
+                + "{\n"
+                + "  gl_FragColor = v_color * texture2D(u_texture, v_texCoords);\n"
+                + "}";
+
+        // set once the program is deleted
+        private boolean disposed = false;
+
+        /**
+         * Compiles the shader
+         */
+        SharedShader() {
+            super(VERTEX, FRAGMENT);
+
+            if (!isCompiled()) {
+                throw new IllegalArgumentException("Error compiling shader: " + getLog());
+            }
+        }
+
+        /**
+         * Deletes the program the first time it's called
+         */
+        @Override
+        public void dispose() {
+            if (!disposed) {
+                disposed = true;
+                super.dispose();
+            }
+        }
+    }
+
+    /**
+     * Cached geometry of a single chunk
+     */
+    private static class CachedChunk {
+
+        // chunk the geometry was built from
+        Chunk chunk;
+
+        // revision of the chunk at the time the geometry was built
+        int revision;
+
+        // sprite cache holding the geometry and the id of the geometry in it
+        SpriteCache cache;
+        int cacheId;
+
+        // last frame the chunk was drawn in
+        int frame;
+    }
+}
@@ -0,0 +1,153 @@
+package com.gasis.digger.logic.terrain;
+
+/**
+ * Moves boxes through the map's blocks. Instead of checking a few points after moving,
+ * the box is swept along it's movement: the cells are visited in the order the box's
+ * leading edges cross into them (like a line is traced through a grid), so nothing is
+ * skipped no matter how fast the box moves, and only the rows and columns the box
+ * actually enters are checked
+ */
+public final class TileSweep {
+
+    // edges closer than this to a cell border are treated as lying on the border.
+    // Larger than the precision of floats at the largest map coordinates
+    private static final float EPSILON = 1e-3f;
+
+    /**
+     * Not meant to be instantiated
+     */
+    private TileSweep() {
+
+    }
+
+    /**
+     * Sweeps a box through the map. Cells the box already overlaps at the start are
+     * ignored, so a box that got stuck inside a block can still move out of it.
+     * Blocks outside of the map don't stop the box
+     *
+     * @param map map to sweep through
+     * @param x x coordinate of the box's bottom left corner
+     * @param y y coordinate of the box's bottom left corner
+     * @param width width of the box
+     * @param height height of the box
+     * @param dx movement along the x axis
+     * @param dy movement along the y axis
+     * @param hit result of the sweep
+     * @return true if the box hit a block
+     */
+    public static boolean sweep(Map map, float x, float y, float width, float height, float dx, float dy, Hit hit) {
+        int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+        int stepY = dy > 0 ? 1 : dy < 0 ? -1 : 0;
+
+        // edges that lead the movement
+        float leadX = stepX > 0 ? x + width : x;
+        float leadY = stepY > 0 ? y + height : y;
+
+        // next cell borders the leading edges cross
+        int borderX = stepX > 0 ? (int) Math.ceil(leadX - EPSILON) : (int) Math.floor(leadX + EPSILON);
+        int borderY = stepY > 0 ? (int) Math.ceil(leadY - EPSILON) : (int) Math.floor(leadY + EPSILON);
+
+        // times (0 - 1) the borders are crossed at and time between two borders
+        float nextX = stepX != 0 ? Math.max(0, (borderX - leadX) / dx) : Float.MAX_VALUE;
+        float nextY = stepY != 0 ? Math.max(0, (borderY - leadY) / dy) : Float.MAX_VALUE;
+        float deltaX = stepX != 0 ? 1 / Math.abs(dx) : 0;
+        float deltaY = stepY != 0 ? 1 / Math.abs(dy) : 0;
+
+        while (nextX <= 1 || nextY <= 1) {
+            if (nextX <= nextY) {
+                // the box enters a new column, check the rows it covers at that time
+                int column = stepX > 0 ? borderX : borderX - 1;
+                float bottom = y + dy * nextX;
+
+                for (int row = first(bottom, dy); row <= last(bottom + height, dy); row++) {
+                    if (map.isSolid(column, row)) {
+                        hit.set(true, nextX, -stepX, 0, stepX > 0 ? borderX - width : borderX, bottom);
+                        return true;
+                    }
+                }
+
+                borderX += stepX;
+                nextX += deltaX;
+            } else {
+                // the box enters a new row, check the columns it covers at that time
+                int row = stepY > 0 ? borderY : borderY - 1;
+                float left = x + dx * nextY;
+
+                for (int column = first(left, dx); column <= last(left + width, dx); column++) {
+                    if (map.isSolid(column, row)) {
+                        hit.set(true, nextY, 0, -stepY, left, stepY > 0 ? borderY - height : borderY);
+                        return true;
+                    }
+                }
+
+                borderY += stepY;
+                nextY += deltaY;
+            }
+        }
+
+        hit.set(false, 1, 0, 0, x + dx, y + dy);
+        return false;
+    }
+
+    /**
+     * Gets the first cell a box edge range covers. An edge lying on a border covers the
+     * cell behind the border only if the box is moving towards it
+     *
+     * @param min lower edge
+     * @param velocity movement along the same axis
+     * @return first covered cell
+     */
+    private static int first(float min, float velocity) {
+        return (int) Math.floor(velocity < 0 ? min - EPSILON : min + EPSILON);
+    }
+
+    /**
+     * Gets the last cell a box edge range covers
+     *
+     * @param max upper edge
+     * @param velocity movement along the same axis
+     * @return last covered cell
+     */
+    private static int last(float max, float velocity) {
+        return (int) Math.floor(velocity > 0 ? max + EPSILON : max - EPSILON);
+    }
+
+    /**
+     * Result of a sweep
+     */
+    public static class Hit {
+
+        // did the box hit a block
+        public boolean hit;
+
+        // time of impact (0 - 1, part of the movement done before hitting), 1 if nothing was hit
+        public float time;
+
+        // normal of the hit block's face (points back at the box), 0 0 if nothing was hit
+        public int normalX;
+        public int normalY;
+
+        // position of the box's corner at the time of impact (or after the whole movement)
+        public float x;
+        public float y;
+
+        /**
+         * Sets the result
+         *
+         * @param hit did the box hit a block
+         * @param time time of impact
+         * @param normalX x of the face normal
+         * @param normalY y of the face normal
+         * @param x x of the box at the time of impact
+         * @param y y of the box at the time of impact
+         */
+        void set(boolean hit, float time, int normalX, int normalY, float x, float y) {
+            this.hit = hit;
+            this.time = time;
+            this.normalX = normalX;
+            this.normalY = normalY;
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.gasis.digger.resources;
+
+/**
+ * Reference to an asset requested from an AssetStreamer. The asset stays loaded at
+ * least until the handle is released
+ */
+public class AssetHandle<T> {
+
+    // streamer the asset was requested from
+    private final AssetStreamer streamer;
+
+    // requested asset
+    private final AssetStreamer.Entry entry;
+
+    // set once the handle is released
+    private boolean released = false;
+
+    /**
+     * Default class constructor
+     *
+     * @param streamer streamer the asset was requested from
+     * @param entry requested asset
+     */
+    AssetHandle(AssetStreamer streamer, AssetStreamer.Entry entry) {
+        this.streamer = streamer;
+        this.entry = entry;
+    }
+
+    /**
+     * Gets the asset and marks it as used
+     * @return loaded asset
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        if (released || entry.state != AssetStreamer.STATE_LOADED) {
+            throw new NotLoadedException("Asset '" + entry.name + "' is not loaded");
+        }
+
+        entry.lastUsed = streamer.updates;
+
+        return (T) entry.asset;
+    }
+
+    /**
+     * Checks if the asset is loaded
+     * @return true if get() can be called
+     */
+    public boolean isLoaded() {
+        return !released && entry.state == AssetStreamer.STATE_LOADED;
+    }
+
+    /**
+     * Checks if the asset failed to load (or was unloaded before it loaded)
+     * @return true if the asset will never be loaded for this handle
+     */
+    public boolean isFailed() {
+        return entry.state == AssetStreamer.STATE_FAILED || entry.state == AssetStreamer.STATE_UNLOADED;
+    }
+
+    /**
+     * Releases the asset, it may be unloaded once no handles to it are left. Releasing
+     * a handle more than once does nothing
+     */
+    public void release() {
+        if (!released) {
+            released = true;
+            streamer.release(entry);
+        }
+    }
+
+    /**
+     * Gets the file name of the asset
+     * @return file name
+     */
+    public String getName() {
+        return entry.name;
+    }
+}
@@ -0,0 +1,515 @@
+package com.gasis.digger.resources;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetErrorListener;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+
+/**
+ * Loads assets in the background while the game runs. Assets are requested with a
+ * priority and loaded one at a time, the most important first, within a slice of
+ * every frame. Requests return reference counted handles: an asset nobody holds a
+ * handle to stays loaded until the textures of the loaded assets take up more memory
+ * than the budget, then the least recently used ones are unloaded
+ */
+public class AssetStreamer implements AssetErrorListener {
+
+    // ******** PRIORITIES ******** //
+    // needed before the game can be shown (the loading screen waits for them)
+    public static final int CRITICAL = 0;
+    // needed soon, for something that is about to be shown
+    public static final int VISIBLE_SOON = 1;
+    // might be needed later
+    public static final int BACKGROUND = 2;
+    public static final int PRIORITY_COUNT = 3;
+    // **** END OF PRIORITIES ***** //
+
+    // states of a requested asset
+    static final int STATE_QUEUED = 0;
+    static final int STATE_LOADING = 1;
+    static final int STATE_LOADED = 2;
+    static final int STATE_FAILED = 3;
+    static final int STATE_UNLOADED = 4;
+
+    // default part of a frame spent loading (in milliseconds)
+    public static final int DEFAULT_TIME_SLICE = 4;
+
+    // default memory the textures of the loaded assets may take up (in bytes)
+    public static final long DEFAULT_TEXTURE_BUDGET = 128L * 1024 * 1024;
+
+    // loads the assets
+    private final AssetManager assetManager;
+
+    // decodes images and atlases ahead of the asset manager
+    private final DecodePipeline pipeline;
+
+    // most decodes started ahead and not taken yet, enough to keep every worker busy
+    private final int prefetchLimit;
+
+    // requested assets by file name
+    private final ObjectMap<String, Entry> entries = new ObjectMap<String, Entry>();
+
+    // assets waiting to be loaded, in the order they were requested
+    private final Array<Entry> queue = new Array<Entry>();
+
+    // asset being loaded (null if none)
+    private Entry loading;
+
+    // number of queued or loading assets of every priority
+    private final int[] pending = new int[PRIORITY_COUNT];
+
+    // memory the textures of the loaded assets may take up and take up now (in bytes)
+    private long textureBudget = DEFAULT_TEXTURE_BUDGET;
+    private long textureMemory = 0;
+    private long peakTextureMemory = 0;
+
+    // number of updates so far, handles mark their asset as used at the current one
+    int updates = 0;
+
+    // textures and atlases of the asset manager, reused when measuring them
+    private final Array<Texture> textures = new Array<Texture>();
+    private final Array<TextureAtlas> atlases = new Array<TextureAtlas>();
+
+    /**
+     * Default class constructor
+     *
+     * @param assetManager asset manager to load the assets with
+     * @param pipeline pipeline that decodes the assets ahead, it's loaders must be set
+     * for the asset manager (see DecodedTextureLoader and DecodedAtlasLoader)
+     */
+    public AssetStreamer(AssetManager assetManager, DecodePipeline pipeline) {
+        this.assetManager = assetManager;
+        this.pipeline = pipeline;
+
+        prefetchLimit = pipeline.getThreads() * 2;
+
+        // a failed asset should not take the game down with it
+        assetManager.setErrorListener(this);
+    }
+
+    /**
+     * Requests an asset. It's queued if it's not loaded or queued yet, a queued asset
+     * is moved up if the priority is higher than the one it was queued with. The
+     * handle of a loaded asset can be used right away
+     *
+     * @param name file name of the asset
+     * @param type class type of the asset
+     * @param priority priority (CRITICAL, VISIBLE_SOON or BACKGROUND)
+     * @return handle to the asset, must be released once the asset is not needed
+     */
+    public <T> AssetHandle<T> request(String name, Class<T> type, int priority) {
+        Entry entry = entries.get(name);
+
+        if (entry == null) {
+            entry = new Entry(name, type, priority);
+            entries.put(name, entry);
+
+            if (assetManager.isLoaded(name, type)) {
+                // loaded some other way, it's unloaded the same way
+                entry.owned = false;
+                entry.state = STATE_LOADED;
+                entry.asset = assetManager.get(name, type);
+            } else {
+                queue.add(entry);
+                pending[priority]++;
+            }
+        } else if (entry.type != type) {
+            throw new IllegalArgumentException("'" + name + "' is already requested as " + entry.type.getSimpleName());
+        } else if (entry.state == STATE_QUEUED && priority < entry.priority) {
+            pending[entry.priority]--;
+            pending[priority]++;
+            entry.priority = priority;
+        }
+
+        entry.references++;
+        entry.lastUsed = updates;
+
+        return new AssetHandle<T>(this, entry);
+    }
+
+    /**
+     * Releases a reference to an asset. An asset without references that is still
+     * queued is dropped from the queue, a loaded one may be unloaded when the memory
+     * budget runs out
+     * @param entry released asset
+     */
+    void release(Entry entry) {
+        entry.references--;
+
+        if (entry.references == 0 && entry.state == STATE_QUEUED) {
+            queue.removeValue(entry, true);
+            pending[entry.priority]--;
+            entries.remove(entry.name);
+            entry.state = STATE_UNLOADED;
+            pipeline.discard(entry.name);
+        } else if (entry.references == 0 && entry.state == STATE_LOADED) {
+            enforceBudget();
+        }
+    }
+
+    /**
+     * Loads assets for a while. Must be called every frame on the rendering thread
+     *
+     * @param millis time to spend loading (in milliseconds), at least one step of
+     * loading is done
+     * @return true if there is nothing left to load
+     */
+    public boolean update(int millis) {
+        updates++;
+
+        long end = System.nanoTime() + millis * 1000000L;
+
+        prefetch();
+
+        do {
+            if (loading == null) {
+                loading = next();
+
+                if (loading == null) {
+                    break;
+                }
+
+                loading.state = STATE_LOADING;
+                load(loading.name, loading.type);
+            }
+
+            boolean idle = assetManager.update();
+
+            if (assetManager.isLoaded(loading.name, loading.type)) {
+                finished(loading);
+                loading = null;
+            } else if (idle) {
+                // the asset or one of it's dependencies failed to load
+                failed(loading);
+                loading = null;
+            }
+        } while (System.nanoTime() < end);
+
+        return loading == null && queue.size == 0;
+    }
+
+    /**
+     * Starts decoding the queued assets with the highest priorities on the workers of
+     * the pipeline, so they are decoded in parallel by the time the asset manager gets
+     * to them. Only a few are started ahead, or a critical asset requested later
+     * would wait for all of them
+     */
+    private void prefetch() {
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            for (int i = 0; i < queue.size; i++) {
+                if (pipeline.getOutstanding() >= prefetchLimit) {
+                    return;
+                }
+
+                Entry entry = queue.get(i);
+
+                if (entry.priority == priority && !entry.prefetched) {
+                    entry.prefetched = true;
+
+                    if (pipeline.canDecode(entry.name, entry.type)) {
+                        pipeline.prefetch(entry.name, entry.type);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the queued asset with the highest priority (the oldest one of them) out of
+     * the queue
+     * @return next asset to load or null if none are queued
+     */
+    private Entry next() {
+        int best = -1;
+
+        for (int i = 0; i < queue.size; i++) {
+            if (best == -1 || queue.get(i).priority < queue.get(best).priority) {
+                best = i;
+            }
+        }
+
+        return best == -1 ? null : queue.removeIndex(best);
+    }
+
+    /**
+     * Queues an asset in the asset manager
+     *
+     * @param name file name of the asset
+     * @param type class type of the asset
+     */
+    private <T> void load(String name, Class<T> type) {
+        assetManager.load(name, type);
+    }
+
+    /**
+     * Called once an asset is loaded. Unloads the least recently used assets if it's
+     * textures went over the memory budget
+     * @param entry loaded asset
+     */
+    private void finished(Entry entry) {
+        entry.state = STATE_LOADED;
+        entry.asset = assetManager.get(entry.name, entry.type);
+        pending[entry.priority]--;
+
+        // decoded for nothing if it was loaded some other way in the meantime
+        pipeline.discard(entry.name);
+
+        measureTextures();
+        peakTextureMemory = Math.max(peakTextureMemory, textureMemory);
+
+        enforceBudget();
+    }
+
+    /**
+     * Called once an asset failed to load. It's handles never get it, requesting it
+     * again tries loading it again
+     * @param entry failed asset
+     */
+    private void failed(Entry entry) {
+        entry.state = STATE_FAILED;
+        pending[entry.priority]--;
+        entries.remove(entry.name);
+        pipeline.discard(entry.name);
+    }
+
+    /**
+     * Called by the asset manager when an asset fails to load, the asset it was loaded
+     * for (if it's a dependency) fails too. The listener takes a raw descriptor
+     *
+     * @param asset asset that failed
+     * @param throwable cause
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void error(AssetDescriptor asset, Throwable throwable) {
+        Gdx.app.error("AssetStreamer", "Could not load '" + asset.fileName + "'", throwable);
+    }
+
+    /**
+     * Unloads the least recently used assets nobody holds a handle to until the textures
+     * fit into the budget or there's nothing left to unload
+     */
+    private void enforceBudget() {
+        while (textureMemory > textureBudget) {
+            Entry oldest = null;
+
+            for (Entry entry: entries.values()) {
+                if (entry.references == 0 && entry.state == STATE_LOADED && entry.owned
+                        && (oldest == null || entry.lastUsed < oldest.lastUsed)) {
+                    oldest = entry;
+                }
+            }
+
+            if (oldest == null) {
+                return;
+            }
+
+            unload(oldest.name);
+            assetManager.unload(oldest.name);
+
+            // textures shared with other assets stay loaded
+            measureTextures();
+        }
+    }
+
+    /**
+     * Forgets an asset that is about to be unloaded. Handles to it stop working
+     * @param name file name of the asset
+     */
+    void unload(String name) {
+        Entry entry = entries.remove(name);
+
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.state == STATE_QUEUED) {
+            queue.removeValue(entry, true);
+            pending[entry.priority]--;
+            pipeline.discard(entry.name);
+        } else if (entry == loading) {
+            // the asset manager drops it's task too
+            pending[entry.priority]--;
+            loading = null;
+        }
+
+        entry.state = STATE_UNLOADED;
+        entry.asset = null;
+    }
+
+    /**
+     * Forgets all assets, they are about to be cleared from the asset manager
+     */
+    void clear() {
+        for (Entry entry: entries.values()) {
+            entry.state = STATE_UNLOADED;
+            entry.asset = null;
+        }
+
+        entries.clear();
+        queue.clear();
+        loading = null;
+        pipeline.discardAll();
+        textureMemory = 0;
+
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            pending[i] = 0;
+        }
+    }
+
+    /**
+     * Adds up the memory taken by the textures of the asset manager (dependencies
+     * like the pages of atlases included). Pages of baked atlases are not loaded by the
+     * asset manager (see BakedAtlas), so they are taken from the atlases themselves
+     */
+    private void measureTextures() {
+        textures.clear();
+        assetManager.getAll(Texture.class, textures);
+
+        atlases.clear();
+        assetManager.getAll(TextureAtlas.class, atlases);
+
+        for (TextureAtlas atlas: atlases) {
+            for (Texture page: atlas.getTextures()) {
+                // pages loaded by the asset manager are counted already
+                if (!textures.contains(page, true)) {
+                    textures.add(page);
+                }
+            }
+        }
+
+        textureMemory = 0;
+
+        for (Texture texture: textures) {
+            textureMemory += textureSize(texture.getTextureData());
+        }
+    }
+
+    /**
+     * Estimates the memory a texture takes up on the GPU
+     * @param data data of the texture
+     * @return size in bytes
+     */
+    static long textureSize(TextureData data) {
+        long size = (long) data.getWidth() * data.getHeight() * bytesPerPixel(data.getFormat());
+
+        // the whole mipmap chain takes up a third more
+        return data.useMipMaps() ? size * 4 / 3 : size;
+    }
+
+    /**
+     * Gets the size of a pixel of a format
+     * @param format pixel format (null for custom texture data, assumed to be RGBA)
+     * @return size in bytes
+     */
+    private static int bytesPerPixel(Pixmap.Format format) {
+        if (format == null) {
+            return 4;
+        }
+
+        switch (format) {
+            case Alpha:
+            case Intensity:
+                return 1;
+            case LuminanceAlpha:
+            case RGB565:
+            case RGBA4444:
+                return 2;
+            case RGB888:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Sets the memory the textures of the loaded assets may take up. Assets are
+     * unloaded right away if they take up more
+     * @param bytes budget in bytes
+     */
+    public void setTextureBudget(long bytes) {
+        textureBudget = bytes;
+
+        enforceBudget();
+    }
+
+    /**
+     * Checks if every requested asset of a priority (and of the higher ones) is done
+     * loading, failed assets count as done
+     * @param priority priority (CRITICAL, VISIBLE_SOON or BACKGROUND)
+     * @return true if nothing of that priority is left to load
+     */
+    public boolean isLoaded(int priority) {
+        for (int i = 0; i <= priority; i++) {
+            if (pending[i] > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the number of assets of a priority that are queued or loading
+     * @param priority priority (CRITICAL, VISIBLE_SOON or BACKGROUND)
+     * @return number of assets
+     */
+    public int getPending(int priority) {
+        return pending[priority];
+    }
+
+    // memory getters
+    public long getTextureBudget() { return textureBudget; }
+    public long getTextureMemory() { return textureMemory; }
+    public long getPeakTextureMemory() { return peakTextureMemory; }
+
+    /**
+     * A requested asset
+     */
+    static class Entry {
+
+        // file name and class type of the asset
+        final String name;
+        final Class<?> type;
+
+        // priority it's loaded with
+        int priority;
+
+        // state (STATE_*)
+        int state = STATE_QUEUED;
+
+        // loaded asset (null until it's loaded)
+        Object asset;
+
+        // true if the streamer loaded the asset and may unload it
+        boolean owned = true;
+
+        // true if decoding it ahead was considered
+        boolean prefetched = false;
+
+        // number of handles that were not released
+        int references = 0;
+
+        // update the asset was last used at
+        int lastUsed;
+
+        /**
+         * Default class constructor
+         *
+         * @param name file name of the asset
+         * @param type class type of the asset
+         * @param priority priority it's loaded with
+         */
+        Entry(String name, Class<?> type, int priority) {
+            this.name = name;
+            this.type = type;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package com.gasis.digger.resources;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.AtlasRegion;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Texture atlas baked at build time (see AssetBaker in the desktop project): a binary
+ * index of the pages and regions and a blob of raw RGBA8888 pixels, both memory-mapped.
+ * Loading one is a straight upload of the mapped pixels, no text is parsed and no
+ * image is decoded. The baked files sit next to the text atlas they were baked from,
+ * named after it with INDEX_SUFFIX and PIXELS_SUFFIX
+ *
+ * Index layout (big endian):
+ * header: magic, version, page count, region count (ints)
+ * pages: width, height, min filter, mag filter, u wrap, v wrap (GL enums), offset of
+ * the pixels in the blob (ints), mipmaps (byte), image the page was baked from,
+ * relative to the atlas (UTF)
+ * regions: page, index, left, top, width, height, original width, original height
+ * (ints), offset x, offset y (floats), rotate, flip (bytes), name (UTF), splits and
+ * pads (count byte, then ints)
+ *
+ * Pixels of a page are stored row by row from the top, 4 bytes per pixel
+ */
+public class BakedAtlas {
+
+    // first bytes of every baked atlas index ("DIGA")
+    static final int MAGIC = 0x44494741;
+
+    // version of the format, increased when the layout changes
+    static final int VERSION = 2;
+
+    // suffixes of the baked files, appended to the name of the text atlas
+    public static final String INDEX_SUFFIX = ".index";
+    public static final String PIXELS_SUFFIX = ".rgba";
+
+    // bytes per baked pixel
+    private static final int PIXEL_SIZE = 4;
+
+    // baked pages
+    private final Page[] pages;
+
+    // baked regions
+    private final Region[] regions;
+
+    /**
+     * Checks if an atlas was baked and neither the text atlas nor the images of it's
+     * pages changed since
+     * @param atlas text atlas file
+     * @return true if the baked files can be opened instead
+     */
+    public static boolean isBaked(FileHandle atlas) {
+        // only files on disk can be mapped, not the ones inside a jar
+        File index = atlas.sibling(atlas.name() + INDEX_SUFFIX).file();
+        File pixels = atlas.sibling(atlas.name() + PIXELS_SUFFIX).file();
+
+        if (!index.isFile() || !pixels.isFile()) {
+            return false;
+        }
+
+        // the older of the two, a bake that was cut short leaves one of them stale
+        long baked = Math.min(index.lastModified(), pixels.lastModified());
+
+        if (baked < atlas.file().lastModified()) {
+            return false;
+        }
+
+        try {
+            for (String image: readPageImages(index)) {
+                if (atlas.sibling(image).file().lastModified() > baked) {
+                    return false;
+                }
+            }
+        } catch (IOException ex) {
+            // baked by an older version or broken, the text atlas is loaded instead
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the names of the images the pages were baked from, the rest of the index
+     * is skipped
+     * @param index index file
+     * @return image files relative to the atlas
+     * @throws IOException if the file can't be read or is not a baked atlas
+     */
+    private static String[] readPageImages(File index) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a baked atlas of this version");
+            }
+
+            String[] images = new String[in.readInt()];
+
+            // region count
+            in.readInt();
+
+            for (int i = 0; i < images.length; i++) {
+                // size, filters, wraps, offset and mipmaps
+                if (in.skipBytes(7 * 4 + 1) != 7 * 4 + 1) {
+                    throw new IOException("Corrupted baked atlas");
+                }
+
+                images[i] = in.readUTF();
+            }
+
+            return images;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Maps the baked files of an atlas and reads the index. The files stay mapped
+     * until the object is garbage collected
+     *
+     * @param atlas text atlas file the atlas was baked from
+     * @return baked atlas
+     * @throws IOException if the files can't be mapped or are not a baked atlas
+     */
+    public static BakedAtlas open(FileHandle atlas) throws IOException {
+        ByteBuffer index;
+        ByteBuffer pixels;
+
+        try {
+            index = atlas.sibling(atlas.name() + INDEX_SUFFIX).map(FileChannel.MapMode.READ_ONLY);
+            pixels = atlas.sibling(atlas.name() + PIXELS_SUFFIX).map(FileChannel.MapMode.READ_ONLY);
+        } catch (GdxRuntimeException ex) {
+            // files inside a jar can't be mapped
+            throw new IOException("Could not map baked atlas", ex);
+        }
+
+        // FileHandle maps files in native order
+        index.order(ByteOrder.BIG_ENDIAN);
+
+        return new BakedAtlas(index, pixels);
+    }
+
+    /**
+     * Reads the index
+     *
+     * @param index contents of the index
+     * @param pixels contents of the pixel blob
+     * @throws IOException if the contents are not a baked atlas
+     */
+    private BakedAtlas(ByteBuffer index, ByteBuffer pixels) throws IOException {
+        try {
+            if (index.getInt() != MAGIC) {
+                throw new IOException("Not a baked atlas");
+            }
+
+            int version = index.getInt();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported baked atlas version: " + version);
+            }
+
+            pages = new Page[index.getInt()];
+            regions = new Region[index.getInt()];
+
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = readPage(index, pixels);
+            }
+
+            for (int i = 0; i < regions.length; i++) {
+                regions[i] = readRegion(index);
+
+                if (regions[i].page < 0 || regions[i].page >= pages.length) {
+                    throw new IOException("Corrupted baked atlas");
+                }
+            }
+        } catch (RuntimeException ex) {
+            // reading past the end of a truncated file and so on
+            throw new IOException("Corrupted baked atlas", ex);
+        }
+    }
+
+    /**
+     * Reads a page and slices it's pixels out of the blob
+     *
+     * @param index buffer to read the page from
+     * @param pixels contents of the pixel blob
+     * @return read page
+     * @throws IOException if the pixels are not in the blob
+     */
+    private static Page readPage(ByteBuffer index, ByteBuffer pixels) throws IOException {
+        Page page = new Page();
+        page.width = index.getInt();
+        page.height = index.getInt();
+        page.minFilter = filter(index.getInt());
+        page.magFilter = filter(index.getInt());
+        page.uWrap = wrap(index.getInt());
+        page.vWrap = wrap(index.getInt());
+
+        int offset = index.getInt();
+        long size = (long) page.width * page.height * PIXEL_SIZE;
+
+        page.mipMaps = index.get() != 0;
+        page.image = readName(index);
+
+        if (page.width <= 0 || page.height <= 0 || offset < 0 || offset + size > pixels.limit()) {
+            throw new IOException("Corrupted baked atlas");
+        }
+
+        ByteBuffer slice = pixels.duplicate();
+        slice.position(offset);
+        slice.limit((int) (offset + size));
+        page.pixels = slice.slice();
+
+        return page;
+    }
+
+    /**
+     * Reads a region
+     * @param index buffer to read the region from
+     * @return read region
+     */
+    private static Region readRegion(ByteBuffer index) {
+        Region region = new Region();
+        region.page = index.getInt();
+        region.index = index.getInt();
+        region.left = index.getInt();
+        region.top = index.getInt();
+        region.width = index.getInt();
+        region.height = index.getInt();
+        region.originalWidth = index.getInt();
+        region.originalHeight = index.getInt();
+        region.offsetX = index.getFloat();
+        region.offsetY = index.getFloat();
+        region.rotate = index.get() != 0;
+        region.flip = index.get() != 0;
+        region.name = readName(index);
+        region.splits = readInts(index);
+        region.pads = readInts(index);
+
+        return region;
+    }
+
+    /**
+     * Reads a name written by DataOutputStream.writeUTF()
+     * @param index buffer to read the name from
+     * @return read name
+     */
+    private static String readName(ByteBuffer index) {
+        byte[] bytes = new byte[index.getShort() & 0xffff];
+        index.get(bytes);
+
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Reads an array of ints prefixed with it's length
+     * @param index buffer to read the array from
+     * @return read array or null if it's empty
+     */
+    private static int[] readInts(ByteBuffer index) {
+        int count = index.get();
+
+        if (count == 0) {
+            return null;
+        }
+
+        int[] values = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            values[i] = index.getInt();
+        }
+
+        return values;
+    }
+
+    /**
+     * Gets a texture filter by it's GL enum
+     * @param glEnum GL enum of the filter
+     * @return texture filter
+     */
+    private static Texture.TextureFilter filter(int glEnum) {
+        for (Texture.TextureFilter filter: Texture.TextureFilter.values()) {
+            if (filter.getGLEnum() == glEnum) {
+                return filter;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown texture filter " + glEnum);
+    }
+
+    /**
+     * Gets a texture wrap by it's GL enum
+     * @param glEnum GL enum of the wrap
+     * @return texture wrap
+     */
+    private static Texture.TextureWrap wrap(int glEnum) {
+        for (Texture.TextureWrap wrap: Texture.TextureWrap.values()) {
+            if (wrap.getGLEnum() == glEnum) {
+                return wrap;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown texture wrap " + glEnum);
+    }
+
+    /**
+     * Uploads the pages and puts the atlas together, the same way TextureAtlas does for
+     * a text atlas. Must be called on the rendering thread
+     * @return loaded atlas, it owns the textures of the pages
+     */
+    public TextureAtlas createAtlas() {
+        Texture[] textures = new Texture[pages.length];
+
+        for (int i = 0; i < pages.length; i++) {
+            Page page = pages[i];
+
+            textures[i] = new Texture(new PixelData(page));
+            textures[i].setFilter(page.minFilter, page.magFilter);
+            textures[i].setWrap(page.uWrap, page.vWrap);
+        }
+
+        TextureAtlas atlas = new TextureAtlas();
+
+        for (Region region: regions) {
+            AtlasRegion atlasRegion = atlas.addRegion(region.name, textures[region.page], region.left, region.top,
+                    region.rotate ? region.height : region.width, region.rotate ? region.width : region.height);
+
+            atlasRegion.index = region.index;
+            atlasRegion.offsetX = region.offsetX;
+            atlasRegion.offsetY = region.offsetY;
+            atlasRegion.originalWidth = region.originalWidth;
+            atlasRegion.originalHeight = region.originalHeight;
+            atlasRegion.rotate = region.rotate;
+            atlasRegion.splits = region.splits;
+            atlasRegion.pads = region.pads;
+
+            if (region.flip) {
+                atlasRegion.flip(false, true);
+            }
+        }
+
+        // pages without regions are still owned by the atlas
+        for (Texture texture: textures) {
+            atlas.getTextures().add(texture);
+        }
+
+        return atlas;
+    }
+
+    /**
+     * Writes a baked atlas
+     *
+     * @param data parsed text atlas
+     * @param imagesDir folder the images of the pages were looked up in when the atlas
+     * was parsed, names of the images are written relative to it
+     * @param widths widths of the pages' images
+     * @param pixels RGBA8888 pixels of every page, rows from the top
+     * @param index stream to write the index to
+     * @param blob stream to write the pixels to
+     * @throws IOException if writing fails
+     */
+    public static void write(TextureAtlasData data, FileHandle imagesDir, int[] widths, byte[][] pixels, OutputStream index, OutputStream blob) throws IOException {
+        DataOutputStream out = new DataOutputStream(index);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(data.getPages().size);
+        out.writeInt(data.getRegions().size);
+
+        int offset = 0;
+
+        for (int i = 0; i < data.getPages().size; i++) {
+            TextureAtlasData.Page page = data.getPages().get(i);
+            int width = widths[i];
+            int height = pixels[i].length / PIXEL_SIZE / width;
+
+            if (height * width * PIXEL_SIZE != pixels[i].length) {
+                throw new IllegalArgumentException("Pixels of page " + i + " don't fit it's width");
+            }
+
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(page.minFilter.getGLEnum());
+            out.writeInt(page.magFilter.getGLEnum());
+            out.writeInt(page.uWrap.getGLEnum());
+            out.writeInt(page.vWrap.getGLEnum());
+            out.writeInt(offset);
+            out.writeByte(page.useMipMaps ? 1 : 0);
+            out.writeUTF(relativePath(imagesDir, page.textureFile));
+
+            blob.write(pixels[i]);
+            offset += pixels[i].length;
+        }
+
+        for (TextureAtlasData.Region region: data.getRegions()) {
+            out.writeInt(data.getPages().indexOf(region.page, true));
+            out.writeInt(region.index);
+            out.writeInt(region.left);
+            out.writeInt(region.top);
+            out.writeInt(region.width);
+            out.writeInt(region.height);
+            out.writeInt(region.originalWidth);
+            out.writeInt(region.originalHeight);
+            out.writeFloat(region.offsetX);
+            out.writeFloat(region.offsetY);
+            out.writeByte(region.rotate ? 1 : 0);
+            out.writeByte(region.flip ? 1 : 0);
+            out.writeUTF(region.name);
+            writeInts(out, region.splits);
+            writeInts(out, region.pads);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Gets the path of a file relative to a folder
+     *
+     * @param dir folder
+     * @param file file in the folder or one of it's subfolders
+     * @return relative path, just the name if the file is somewhere else
+     */
+    private static String relativePath(FileHandle dir, FileHandle file) {
+        String prefix = dir.path().replace('\\', '/') + "/";
+        String path = file.path().replace('\\', '/');
+
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : file.name();
+    }
+
+    /**
+     * Writes an array of ints prefixed with it's length
+     *
+     * @param out stream to write to
+     * @param values array to write (may be null)
+     * @throws IOException if writing fails
+     */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        if (values == null) {
+            out.writeByte(0);
+            return;
+        }
+
+        out.writeByte(values.length);
+
+        for (int value: values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Baked page
+     */
+    private static class Page {
+        int width;
+        int height;
+        Texture.TextureFilter minFilter;
+        Texture.TextureFilter magFilter;
+        Texture.TextureWrap uWrap;
+        Texture.TextureWrap vWrap;
+        boolean mipMaps;
+
+        // image the page was baked from, relative to the atlas
+        String image;
+
+        // mapped pixels
+        ByteBuffer pixels;
+    }
+
+    /**
+     * Baked region, the same fields as a region of a text atlas
+     */
+    private static class Region {
+        int page;
+        int index;
+        String name;
+        int left;
+        int top;
+        int width;
+        int height;
+        int originalWidth;
+        int originalHeight;
+        float offsetX;
+        float offsetY;
+        boolean rotate;
+        boolean flip;
+        int[] splits;
+        int[] pads;
+    }
+
+    /**
+     * Texture data uploaded straight from the mapped pixels of a page. The mapping
+     * stays valid, so the texture can be uploaded again when the GL context is lost
+     */
+    private static class PixelData implements TextureData {
+
+        // uploaded page
+        private final Page page;
+
+        /**
+         * Default class constructor
+         * @param page uploaded page
+         */
+        PixelData(Page page) {
+            this.page = page;
+        }
+
+        @Override
+        public TextureDataType getType() {
+            return TextureDataType.Custom;
+        }
+
+        @Override
+        public boolean isPrepared() {
+            return true;
+        }
+
+        @Override
+        public void prepare() {
+            // the pixels are ready as they are
+        }
+
+        @Override
+        public Pixmap consumePixmap() {
+            throw new GdxRuntimeException("Baked texture data has no pixmap");
+        }
+
+        @Override
+        public boolean disposePixmap() {
+            return false;
+        }
+
+        /**
+         * Uploads the pixels
+         * @param target texture target
+         */
+        @Override
+        public void consumeCustomData(int target) {
+            Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+            Gdx.gl.glTexImage2D(target, 0, GL20.GL_RGBA, page.width, page.height, 0,
+                    GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, page.pixels);
+
+            if (page.mipMaps) {
+                Gdx.gl.glGenerateMipmap(target);
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return page.width;
+        }
+
+        @Override
+        public int getHeight() {
+            return page.height;
+        }
+
+        @Override
+        public Pixmap.Format getFormat() {
+            return Pixmap.Format.RGBA8888;
+        }
+
+        @Override
+        public boolean useMipMaps() {
+            return page.mipMaps;
+        }
+
+        @Override
+        public boolean isManaged() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.gasis.digger.resources;
+
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.gasis.digger.utils.DaemonThreadFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes images and parses texture atlases on a pool of worker threads, ahead of the
+ * asset manager. The asset manager loads one asset at a time, it's loaders take the
+ * decoded results (see DecodedTextureLoader and DecodedAtlasLoader) and only upload
+ * them on the rendering thread. The pages of an atlas are decoded in parallel too
+ */
+public class DecodePipeline implements Disposable {
+
+    // resolves file names of assets
+    private final FileHandleResolver resolver;
+
+    // threads decoding is done on
+    private final ExecutorService workers;
+    private final int threads;
+
+    // started decodes by file name of the asset, taken by the loaders
+    private final ConcurrentHashMap<String, Decode> decodes = new ConcurrentHashMap<String, Decode>();
+
+    /**
+     * Creates a pipeline with a thread for every core
+     * @param resolver resolves file names of assets
+     */
+    public DecodePipeline(FileHandleResolver resolver) {
+        this(resolver, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Default class constructor
+     *
+     * @param resolver resolves file names of assets
+     * @param threads number of worker threads
+     */
+    public DecodePipeline(FileHandleResolver resolver, int threads) {
+        this.resolver = resolver;
+        this.threads = threads;
+
+        workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("asset-decoder"));
+    }
+
+    /**
+     * Checks if an asset can be decoded ahead
+     * @param name file name of the asset
+     * @param type class type of the asset
+     * @return true if it's an image or a texture atlas that was not baked (baked ones
+     * are only mapped, see BakedAtlas)
+     */
+    public boolean canDecode(String name, Class<?> type) {
+        if (type == TextureAtlas.class) {
+            return !BakedAtlas.isBaked(resolver.resolve(name));
+        }
+
+        return type == Texture.class && isImage(name);
+    }
+
+    /**
+     * Checks if a texture file is an image a pixmap can be decoded from, other files
+     * (ETC1, KTX) hold data that is uploaded as it is
+     * @param name file name of the texture
+     * @return true if it's an image
+     */
+    static boolean isImage(String name) {
+        String lower = name.toLowerCase();
+
+        return !lower.endsWith(".etc1") && !lower.endsWith(".ktx") && !lower.endsWith(".zktx") && !lower.endsWith(".cim");
+    }
+
+    /**
+     * Starts decoding an asset if it's not being decoded yet
+     *
+     * @param name file name of the asset
+     * @param type class type of the asset (see canDecode())
+     */
+    public void prefetch(String name, Class<?> type) {
+        start(new Decode(name, null, type == TextureAtlas.class));
+    }
+
+    /**
+     * Hands a decode to the workers unless one for the same file was started
+     * @param decode decode to start
+     */
+    private void start(Decode decode) {
+        if (decodes.putIfAbsent(decode.name, decode) == null) {
+            workers.execute(decode);
+        }
+    }
+
+    /**
+     * Takes a decoded image, waits for it if it's still being decoded. Images that
+     * were not prefetched are decoded on the calling thread
+     * @param file image file
+     * @return decoded pixmap, the caller owns it
+     */
+    public Pixmap takePixmap(FileHandle file) {
+        Decode decode = decodes.remove(name(file));
+
+        if (decode == null) {
+            return new Pixmap(file);
+        }
+
+        return (Pixmap) decode.await();
+    }
+
+    /**
+     * Takes a parsed atlas, waits for it if it's still being parsed. The decoding of
+     * it's pages is started if it was not prefetched
+     * @param file atlas file
+     * @return parsed atlas data
+     */
+    public TextureAtlasData takeAtlas(FileHandle file) {
+        Decode decode = decodes.remove(name(file));
+
+        if (decode == null) {
+            decode = new Decode(name(file), file, true);
+            decode.run();
+        }
+
+        return (TextureAtlasData) decode.await();
+    }
+
+    /**
+     * Drops a prefetched asset nobody is going to take, it's freed once decoded
+     * @param name file name of the asset
+     */
+    public void discard(String name) {
+        Decode decode = decodes.remove(name);
+
+        if (decode != null) {
+            decode.discard();
+        }
+    }
+
+    /**
+     * Drops all prefetched assets
+     */
+    public void discardAll() {
+        for (String name: decodes.keySet()) {
+            discard(name);
+        }
+    }
+
+    /**
+     * Gets the number of decodes that were started and not taken yet (pages of
+     * atlases included)
+     * @return number of decodes
+     */
+    public int getOutstanding() {
+        return decodes.size();
+    }
+
+    /**
+     * Gets the number of worker threads
+     * @return thread count
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Gets the key a file is decoded under, the same file name the asset manager uses
+     * @param file decoded file
+     * @return file name
+     */
+    private static String name(FileHandle file) {
+        return file.path().replaceAll("\\\\", "/");
+    }
+
+    /**
+     * Drops everything prefetched and stops the workers
+     */
+    @Override
+    public void dispose() {
+        workers.shutdownNow();
+        discardAll();
+    }
+
+    /**
+     * Decoding of a single file: an image into a pixmap or an atlas into it's data
+     */
+    private class Decode implements Runnable {
+
+        // file name of the asset
+        final String name;
+
+        // decoded file (null until it's resolved)
+        private FileHandle file;
+
+        // true if the file is an atlas
+        private final boolean atlas;
+
+        // decoded pixmap or atlas data (null until done)
+        private Object result;
+
+        // set if decoding failed
+        private Throwable error;
+
+        // set once done
+        private boolean done = false;
+
+        // set if nobody is going to take the result
+        private boolean discarded = false;
+
+        /**
+         * Default class constructor
+         *
+         * @param name file name of the asset
+         * @param file decoded file, null to resolve it from the name
+         * @param atlas true if the file is an atlas
+         */
+        Decode(String name, FileHandle file, boolean atlas) {
+            this.name = name;
+            this.file = file;
+            this.atlas = atlas;
+        }
+
+        /**
+         * Decodes the file
+         */
+        @Override
+        public void run() {
+            Object result = null;
+            Throwable error = null;
+
+            try {
+                if (file == null) {
+                    file = resolver.resolve(name);
+                }
+
+                if (atlas) {
+                    TextureAtlasData data = new TextureAtlasData(file, file.parent(), false);
+
+                    // pages are decoded by other workers while this one goes on
+                    for (TextureAtlasData.Page page: data.getPages()) {
+                        if (isImage(page.textureFile.name())) {
+                            start(new Decode(name(page.textureFile), page.textureFile, false));
+                        }
+                    }
+
+                    result = data;
+                } else {
+                    result = new Pixmap(file);
+                }
+            } catch (Throwable ex) {
+                // running out of memory on a huge image must not leave the loader waiting
+                error = ex;
+            }
+
+            synchronized (this) {
+                if (discarded) {
+                    free(result);
+                } else {
+                    this.result = result;
+                    this.error = error;
+                }
+
+                done = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until the file is decoded
+         * @return decoded pixmap or atlas data
+         */
+        synchronized Object await() {
+            boolean interrupted = false;
+
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (error != null) {
+                throw new GdxRuntimeException("Could not decode '" + name + "'", error);
+            }
+
+            return result;
+        }
+
+        /**
+         * Frees the result (once it's decoded)
+         */
+        synchronized void discard() {
+            discarded = true;
+
+            if (done) {
+                free(result);
+                result = null;
+            }
+        }
+
+        /**
+         * Frees a decoded result: the memory of a pixmap or the decodes of an atlas's pages
+         * @param result decoded pixmap or atlas data
+         */
+        private void free(Object result) {
+            if (result instanceof Pixmap) {
+                ((Pixmap) result).dispose();
+            } else if (result instanceof TextureAtlasData) {
+                for (TextureAtlasData.Page page: ((TextureAtlasData) result).getPages()) {
+                    DecodePipeline.this.discard(name(page.textureFile));
+                }
+            }
+        }
+    }
+}
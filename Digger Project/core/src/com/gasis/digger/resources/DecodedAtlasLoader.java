@@ -0,0 +1,139 @@
+package com.gasis.digger.resources;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.AsynchronousAssetLoader;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.TextureAtlasLoader.TextureAtlasParameter;
+import com.badlogic.gdx.assets.loaders.TextureLoader.TextureParameter;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData;
+import com.badlogic.gdx.utils.Array;
+
+import java.io.IOException;
+
+/**
+ * Loads texture atlases parsed by a DecodePipeline. The pages are loaded as texture
+ * dependencies (decoded by the pipeline too), so the rendering thread only puts the
+ * atlas together. An atlas that was baked is mapped and uploaded instead (see
+ * BakedAtlas)
+ */
+public class DecodedAtlasLoader extends AsynchronousAssetLoader<TextureAtlas, TextureAtlasParameter> {
+
+    // parses the atlases
+    private final DecodePipeline pipeline;
+
+    // data of the atlas being loaded, the asset manager loads one asset at a time
+    private TextureAtlasData data;
+
+    // baked atlas being loaded (null if the text atlas is loaded)
+    private BakedAtlas baked;
+
+    /**
+     * Default class constructor
+     *
+     * @param resolver resolves file names of atlases
+     * @param pipeline pipeline the atlases are parsed by
+     */
+    public DecodedAtlasLoader(FileHandleResolver resolver, DecodePipeline pipeline) {
+        super(resolver);
+
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Takes the parsed atlas and lists it's pages as dependencies. Called on the asset
+     * manager's loading thread
+     *
+     * @param fileName file name of the atlas
+     * @param file atlas file
+     * @param parameter loading parameters (may be null)
+     * @return textures of the pages (none for a baked atlas)
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Array<AssetDescriptor> getDependencies(String fileName, FileHandle file, TextureAtlasParameter parameter) {
+        baked = null;
+
+        // baked atlases are not flipped
+        if ((parameter == null || !parameter.flip) && BakedAtlas.isBaked(file)) {
+            try {
+                baked = BakedAtlas.open(file);
+                return null;
+            } catch (IOException ex) {
+                Gdx.app.error("DecodedAtlasLoader", "Could not open baked atlas, loading '" + fileName + "'", ex);
+            }
+        }
+
+        if (parameter != null && parameter.flip) {
+            // prefetched atlases are not flipped
+            pipeline.discard(fileName);
+            data = new TextureAtlasData(file, file.parent(), true);
+        } else {
+            data = pipeline.takeAtlas(file);
+        }
+
+        Array<AssetDescriptor> dependencies = new Array<AssetDescriptor>();
+
+        for (TextureAtlasData.Page page: data.getPages()) {
+            TextureParameter pageParameter = new TextureParameter();
+            pageParameter.format = page.format;
+            pageParameter.genMipMaps = page.useMipMaps;
+            pageParameter.minFilter = page.minFilter;
+            pageParameter.magFilter = page.magFilter;
+
+            dependencies.add(new AssetDescriptor<Texture>(page.textureFile, Texture.class, pageParameter));
+        }
+
+        return dependencies;
+    }
+
+    /**
+     * Nothing left to do off the rendering thread
+     *
+     * @param manager asset manager
+     * @param fileName file name of the atlas
+     * @param file atlas file
+     * @param parameter loading parameters (may be null)
+     */
+    @Override
+    public void loadAsync(AssetManager manager, String fileName, FileHandle file, TextureAtlasParameter parameter) {
+    }
+
+    /**
+     * Puts the atlas together from the loaded pages. Called on the rendering thread
+     *
+     * @param manager asset manager
+     * @param fileName file name of the atlas
+     * @param file atlas file
+     * @param parameter loading parameters (may be null)
+     * @return loaded atlas
+     */
+    @Override
+    public TextureAtlas loadSync(AssetManager manager, String fileName, FileHandle file, TextureAtlasParameter parameter) {
+        if (baked != null) {
+            TextureAtlas atlas = baked.createAtlas();
+            baked = null;
+
+            return atlas;
+        }
+
+        for (TextureAtlasData.Page page: data.getPages()) {
+            page.texture = manager.get(page.textureFile.path().replaceAll("\\\\", "/"), Texture.class);
+        }
+
+        TextureAtlas atlas = new TextureAtlas(data);
+
+        // pages that were loaded already were decoded for nothing
+        for (TextureAtlasData.Page page: data.getPages()) {
+            pipeline.discard(page.textureFile.path().replaceAll("\\\\", "/"));
+        }
+
+        data = null;
+
+        return atlas;
+    }
+}
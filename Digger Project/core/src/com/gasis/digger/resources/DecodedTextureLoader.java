@@ -0,0 +1,109 @@
+package com.gasis.digger.resources;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.AsynchronousAssetLoader;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.TextureLoader.TextureParameter;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.graphics.glutils.FileTextureData;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Loads textures from images decoded by a DecodePipeline, only the upload is left for
+ * the rendering thread. Takes the same parameters as the default texture loader
+ */
+public class DecodedTextureLoader extends AsynchronousAssetLoader<Texture, TextureParameter> {
+
+    // decodes the images
+    private final DecodePipeline pipeline;
+
+    // data of the texture being loaded, the asset manager loads one asset at a time
+    private TextureData data;
+
+    /**
+     * Default class constructor
+     *
+     * @param resolver resolves file names of textures
+     * @param pipeline pipeline the images are decoded by
+     */
+    public DecodedTextureLoader(FileHandleResolver resolver, DecodePipeline pipeline) {
+        super(resolver);
+
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Takes the decoded image (or loads data to upload as it is). Called on the asset
+     * manager's loading thread
+     *
+     * @param manager asset manager
+     * @param fileName file name of the texture
+     * @param file texture file
+     * @param parameter loading parameters (may be null)
+     */
+    @Override
+    public void loadAsync(AssetManager manager, String fileName, FileHandle file, TextureParameter parameter) {
+        Pixmap.Format format = parameter != null ? parameter.format : null;
+        boolean mipMaps = parameter != null && parameter.genMipMaps;
+
+        if (parameter != null && parameter.textureData != null) {
+            data = parameter.textureData;
+        } else if (DecodePipeline.isImage(fileName)) {
+            data = new FileTextureData(file, pipeline.takePixmap(file), format, mipMaps);
+        } else {
+            data = TextureData.Factory.loadFromFile(file, format, mipMaps);
+        }
+
+        if (!data.isPrepared()) {
+            data.prepare();
+        }
+    }
+
+    /**
+     * Uploads the texture. Called on the rendering thread
+     *
+     * @param manager asset manager
+     * @param fileName file name of the texture
+     * @param file texture file
+     * @param parameter loading parameters (may be null)
+     * @return loaded texture
+     */
+    @Override
+    public Texture loadSync(AssetManager manager, String fileName, FileHandle file, TextureParameter parameter) {
+        Texture texture;
+
+        if (parameter != null && parameter.texture != null) {
+            texture = parameter.texture;
+            texture.load(data);
+        } else {
+            texture = new Texture(data);
+        }
+
+        data = null;
+
+        if (parameter != null) {
+            texture.setFilter(parameter.minFilter, parameter.magFilter);
+            texture.setWrap(parameter.wrapU, parameter.wrapV);
+        }
+
+        return texture;
+    }
+
+    /**
+     * Gets the dependencies of a texture
+     *
+     * @param fileName file name of the texture
+     * @param file texture file
+     * @param parameter loading parameters
+     * @return null, textures have none
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Array<AssetDescriptor> getDependencies(String fileName, FileHandle file, TextureParameter parameter) {
+        return null;
+    }
+}
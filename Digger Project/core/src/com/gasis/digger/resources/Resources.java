@@ -14,18 +14,94 @@ import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import java.util.Map;
 
 /**
- * Manages game's resources (Textures and so on...)
+ * Manages game's resources (Textures and so on...). The getters look assets up by
+ * name on every call, code that runs every frame should hold an AssetHandle instead
  */
 public class Resources {
 
     // asset manager to load, retrieve and dispose of assets
     private AssetManager assetManager;
 
+    // decodes images and atlases on worker threads
+    private DecodePipeline pipeline;
+
+    // loads assets in the background by priority
+    private AssetStreamer streamer;
+
     /**
      * Default class constructor
      */
     public Resources() {
         assetManager = new AssetManager();
+
+        pipeline = new DecodePipeline(assetManager.getFileHandleResolver());
+        assetManager.setLoader(Texture.class, new DecodedTextureLoader(assetManager.getFileHandleResolver(), pipeline));
+        assetManager.setLoader(TextureAtlas.class, new DecodedAtlasLoader(assetManager.getFileHandleResolver(), pipeline));
+
+        streamer = new AssetStreamer(assetManager, pipeline);
+    }
+
+    /**
+     * Loads requested assets for a while. Must be called every frame on the rendering
+     * thread (see AssetStreamer.update())
+     *
+     * @param millis time to spend loading (in milliseconds)
+     * @return true if all requested assets are loaded
+     */
+    public boolean stream(int millis) {
+        return streamer.update(millis);
+    }
+
+    /**
+     * Requests an asset to be loaded in the background
+     *
+     * @param name file name of the asset
+     * @param type class type of the asset
+     * @param priority priority (AssetStreamer.CRITICAL, VISIBLE_SOON or BACKGROUND)
+     * @return handle to the asset, must be released once the asset is not needed
+     */
+    public <T> AssetHandle<T> request(String name, Class<T> type, int priority) {
+        return streamer.request(name, type, priority);
+    }
+
+    /**
+     * Requests a tiled map to be loaded in the background
+     *
+     * @param name file name of the map
+     * @param priority priority (AssetStreamer.CRITICAL, VISIBLE_SOON or BACKGROUND)
+     * @return handle to the map, must be released once the map is not needed
+     */
+    public AssetHandle<TiledMap> requestMap(String name, int priority) {
+        assetManager.setLoader(TiledMap.class, new TmxMapLoader(new InternalFileHandleResolver()));
+
+        return streamer.request(name, TiledMap.class, priority);
+    }
+
+    /**
+     * Gets a handle to a loaded asset. Getting the asset through it doesn't look it up
+     * again, it stops working once the asset is unloaded
+     *
+     * @param name file name of the asset
+     * @param type class type of the asset
+     * @return handle to the asset, must be released once the asset is not needed
+     */
+    public <T> AssetHandle<T> handle(String name, Class<T> type) {
+        AssetHandle<T> handle = streamer.request(name, type, AssetStreamer.CRITICAL);
+
+        if (!handle.isLoaded()) {
+            handle.release();
+            throw new NotLoadedException(type.getSimpleName() + " '" + name + "' is not loaded");
+        }
+
+        return handle;
+    }
+
+    /**
+     * Gets the streamer that loads requested assets
+     * @return asset streamer
+     */
+    public AssetStreamer getStreamer() {
+        return streamer;
     }
 
     /**
@@ -186,6 +262,7 @@ public class Resources {
      * @param name file name of the asset
      */
     public void unload(String name) {
+        streamer.unload(name);
         assetManager.unload(name);
     }
 
@@ -193,6 +270,7 @@ public class Resources {
      * Gets rid of all loaded assets
      */
     public void clear() {
+        streamer.clear();
         assetManager.clear();
     }
 
@@ -201,5 +279,6 @@ public class Resources {
      */
     public void dispose() {
         assetManager.dispose();
+        pipeline.dispose();
     }
 }
@@ -6,6 +6,7 @@ import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.utils.viewport.Viewport;
 import com.gasis.digger.resources.Resources;
+import com.gasis.digger.utils.FrameProfiler;
 
 /**
  * Basic screen class with no input handling
@@ -24,6 +25,9 @@ public abstract class BasicScreen extends ScreenAdapter {
     // viewport used by the screen
     protected Viewport port;
 
+    // measures the phases of every frame (null if the game is not profiled)
+    protected FrameProfiler profiler;
+
     // used in render() to check if draw() needs to be called or not
     private boolean disposed = false;
 
@@ -45,8 +49,19 @@ public abstract class BasicScreen extends ScreenAdapter {
         Gdx.gl.glClearColor(0, 0, 0, 1);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 
+        // update() advances the game state and draw() only renders it, screens with a
+        // simulation run zero or more fixed length ticks inside update() and
+        // interpolate between them when drawing, so the two don't depend on each other
+        if (profiler != null) {
+            profiler.begin(FrameProfiler.PHASE_UPDATE);
+        }
+
         update(delta);
 
+        if (profiler != null) {
+            profiler.end(FrameProfiler.PHASE_UPDATE);
+        }
+
         // if the screen was disposed of inside update(), then do not draw.
         // of course I could call draw() before update() to avoid this issue,
         // but I think it is better for game state to update before drawing, so...
@@ -92,6 +107,23 @@ public abstract class BasicScreen extends ScreenAdapter {
         this.port = port;
     }
 
+    /**
+     * Sets the profiler the phases of frames are measured with. Must be set before
+     * initialize() for the profiler to be shown
+     * @param profiler profiler, null to not measure anything
+     */
+    public void setProfiler(FrameProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Gets the sprite batch used by the screen
+     * @return sprite batch
+     */
+    public SpriteBatch getBatch() {
+        return batch;
+    }
+
     /**
      * Gets rid of heavy resources
      */
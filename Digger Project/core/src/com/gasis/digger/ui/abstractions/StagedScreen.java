@@ -2,8 +2,12 @@ package com.gasis.digger.ui.abstractions;
 
 import com.badlogic.gdx.InputMultiplexer;
 import com.badlogic.gdx.InputProcessor;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.scenes.scene2d.Stage;
+import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.viewport.ScreenViewport;
+import com.gasis.digger.ui.widgets.ProfilerOverlay;
+import com.gasis.digger.utils.FrameProfiler;
 
 /**
  * Screen class with a stage and input handling
@@ -13,6 +17,12 @@ public abstract class StagedScreen extends ScreenWithInput {
     // stage used by this screen
     private Stage stage;
 
+    // passes input to the stage first and then to the screen (created when first needed)
+    private InputMultiplexer input;
+
+    // font of the profiler overlay (null if the game is not profiled)
+    private BitmapFont profilerFont;
+
     /**
      * Performs required initialization
      */
@@ -22,6 +32,25 @@ public abstract class StagedScreen extends ScreenWithInput {
 
         stage = new Stage(new ScreenViewport(), batch);
         setupUI(stage);
+
+        if (profiler != null) {
+            addProfilerOverlay();
+        }
+    }
+
+    /**
+     * Shows the profiler's metrics in the top left corner, above the rest of the ui
+     */
+    private void addProfilerOverlay() {
+        // libGDX's built in font, there's no font among the game's assets
+        profilerFont = new BitmapFont();
+
+        Table table = new Table();
+        table.setFillParent(true);
+        table.top().left().pad(4);
+        table.add(new ProfilerOverlay(profiler, profilerFont));
+
+        stage.addActor(table);
     }
 
     /**
@@ -32,8 +61,22 @@ public abstract class StagedScreen extends ScreenWithInput {
     public void render(float delta) {
         super.render(delta);
 
+        if (profiler != null) {
+            profiler.begin(FrameProfiler.PHASE_STAGE_ACT);
+        }
+
         stage.act(delta);
+
+        if (profiler != null) {
+            profiler.end(FrameProfiler.PHASE_STAGE_ACT);
+            profiler.begin(FrameProfiler.PHASE_STAGE_DRAW);
+        }
+
         stage.draw();
+
+        if (profiler != null) {
+            profiler.end(FrameProfiler.PHASE_STAGE_DRAW);
+        }
     }
 
     /**
@@ -52,15 +95,17 @@ public abstract class StagedScreen extends ScreenWithInput {
     public abstract void setupUI(Stage stage);
 
     /**
-     * Gets this screen's input processor
+     * Gets this screen's input processor, the same one every time
      * @return input processor
      */
     @Override
     public InputProcessor getInputProcessor() {
-        InputMultiplexer input = new InputMultiplexer();
+        if (input == null) {
+            input = new InputMultiplexer();
 
-        input.addProcessor(stage);
-        input.addProcessor(super.getInputProcessor());
+            input.addProcessor(stage);
+            input.addProcessor(super.getInputProcessor());
+        }
 
         return input;
     }
@@ -73,5 +118,9 @@ public abstract class StagedScreen extends ScreenWithInput {
         super.dispose();
 
         stage.dispose();
+
+        if (profilerFont != null) {
+            profilerFont.dispose();
+        }
     }
 }
@@ -1,25 +1,105 @@
 package com.gasis.digger.ui.implementations;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.gasis.digger.logic.GameWorld;
+import com.gasis.digger.logic.replay.InputRecorder;
+import com.gasis.digger.logic.save.SaveFile;
 import com.gasis.digger.ui.abstractions.StagedScreen;
+import com.gasis.digger.utils.FrameProfiler;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Game screen. Displays game world and ui
  */
 public class GameScreen extends StagedScreen {
 
+    // name of the save file (in the local storage)
+    private static final String SAVE_FILE = "world.sav";
+
     // instance of the game-world
     private GameWorld game;
 
+    // file the input is recorded to (null if the game is not recorded)
+    private final File recording;
+
+    // records the input of the game (null if the game is not recorded)
+    private InputRecorder recorder;
+
+    // autosave error that was already logged (null if none)
+    private IOException autosaveError;
+
+    /**
+     * Default class constructor
+     */
+    public GameScreen() {
+        this(null);
+    }
+
+    /**
+     * Creates a game screen that records the input of the game
+     * @param recording file to record to, null to play the saved world without recording
+     */
+    public GameScreen(File recording) {
+        this.recording = recording;
+    }
+
     /**
      * Called when the screen becomes the current screen
      */
     @Override
     public void show() {
-        game = new GameWorld(resources);
+        if (recording != null) {
+            startRecording();
+        }
+
+        if (recorder == null) {
+            game = new GameWorld(resources, loadSave());
+            game.setAutosave(Gdx.files.local(SAVE_FILE).file(), GameWorld.AUTOSAVE_INTERVAL);
+        }
+    }
+
+    /**
+     * Starts a new world and records it's input. Only new worlds generated up front
+     * can be replayed, so the save is left alone
+     */
+    private void startRecording() {
+        game = new GameWorld(resources, GameWorld.MAP_SEED, 1);
+
+        try {
+            recorder = new InputRecorder(game, new BufferedOutputStream(new FileOutputStream(recording)));
+            game.setInputRecorder(recorder);
+        } catch (IOException ex) {
+            Gdx.app.error("GameScreen", "Could not start recording, playing the saved world", ex);
+            game.unloadResources();
+        }
+    }
+
+    /**
+     * Opens the save file if there is one
+     * @return opened save or null if there is no save or it can't be read
+     */
+    private SaveFile loadSave() {
+        File file = Gdx.files.local(SAVE_FILE).file();
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            return SaveFile.open(file);
+        } catch (IOException ex) {
+            Gdx.app.error("GameScreen", "Could not load the save, starting a new world", ex);
+            return null;
+        }
     }
 
     /**
@@ -39,19 +119,50 @@ public class GameScreen extends StagedScreen {
     public void draw(SpriteBatch batch, float delta) {
         OrthographicCamera cam = (OrthographicCamera) port.getCamera();
 
+        if (profiler != null) {
+            profiler.begin(FrameProfiler.PHASE_TERRAIN);
+        }
+
+        game.updateCamera(cam);
+        game.drawTerrain(cam);
+
+        if (profiler != null) {
+            profiler.end(FrameProfiler.PHASE_TERRAIN);
+            profiler.begin(FrameProfiler.PHASE_VEHICLES);
+        }
+
         batch.setProjectionMatrix(cam.combined);
         batch.begin();
         game.draw(batch, delta);
         batch.end();
+
+        if (profiler != null) {
+            profiler.end(FrameProfiler.PHASE_VEHICLES);
+        }
     }
 
     /**
-     * Updates the game state
+     * Updates the game state (runs simulation ticks)
      * @param delta time elapsed since last update
      */
     @Override
     public void update(float delta) {
-        game.update((OrthographicCamera) port.getCamera(), delta);
+        game.update(delta);
+
+        checkAutosave();
+    }
+
+    /**
+     * Logs the error of a failed autosave, once per failure
+     */
+    private void checkAutosave() {
+        IOException error = game.getAutosaveError();
+
+        if (error != null && error != autosaveError) {
+            Gdx.app.error("GameScreen", "Could not autosave the world", error);
+        }
+
+        autosaveError = error;
     }
 
     /**
@@ -97,6 +208,49 @@ public class GameScreen extends StagedScreen {
     public void dispose() {
         super.dispose();
 
+        Future<Void> save = null;
+
+        if (recorder != null) {
+            stopRecording();
+        } else {
+            // the save is written in the background, unloadResources() waits for it
+            save = game.save(Gdx.files.local(SAVE_FILE).file());
+        }
+
         game.unloadResources();
+
+        if (save != null) {
+            checkSave(save);
+        }
+    }
+
+    /**
+     * Logs the error of a save that failed or didn't finish in time
+     * @param save result of the save
+     */
+    private void checkSave(Future<Void> save) {
+        if (!save.isDone()) {
+            Gdx.app.error("GameScreen", "The world is still being saved, progress may be lost");
+            return;
+        }
+
+        try {
+            save.get();
+        } catch (ExecutionException ex) {
+            Gdx.app.error("GameScreen", "Could not save the world", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Finishes the recording
+     */
+    private void stopRecording() {
+        try {
+            recorder.close();
+        } catch (IOException ex) {
+            Gdx.app.error("GameScreen", "Could not write the recording", ex);
+        }
     }
 }
@@ -4,23 +4,35 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.utils.Array;
+import com.gasis.digger.resources.AssetHandle;
+import com.gasis.digger.resources.AssetStreamer;
 import com.gasis.digger.ui.abstractions.BasicScreen;
-import com.gasis.digger.resources.NotLoadedException;
 
 import java.util.Map;
 
 /**
- * Loading screen. Loads resources and switches to another screen
+ * Loading screen. Requests resources as critical and switches to another screen as soon
+ * as they are loaded, assets requested with a lower priority keep loading in the
+ * background. The screen switched to takes handles of it's own to the resources
+ * it needs, the loading screen's are released once it's shown
  */
 public class LoadingScreen extends BasicScreen {
 
+    // part of a frame spent loading on top of the game's own slice (in milliseconds),
+    // there's nothing else to do while loading
+    private static final int LOADING_TIME_SLICE = 12;
+
     // screen to switch to
     private BasicScreen screenToSwitch;
 
-    // image to display while loading
+    // image to display while loading, a texture or an atlas whose first page is shown
     private String image;
+    private Class<?> imageType;
 
-    // image displayed while loading
+    // image displayed while loading (null until it's loaded)
+    private AssetHandle<?> imageHandle;
     private Sprite sprite;
 
     // assets to load
@@ -32,16 +44,21 @@ public class LoadingScreen extends BasicScreen {
     // should the displayed image be unloaded when done loading
     private boolean unloadImage;
 
+    // handles to the loaded assets and maps
+    private final Array<AssetHandle<?>> handles = new Array<AssetHandle<?>>();
+
     /**
      * Default class constructor
      *
      * @param screenToSwitch screen to switch to when done loading
      * @param image image to display while loading
-     * @param unloadImage should the image be unloaded once done
-     * @param assets assets to load
+     * @param imageType Texture.class or TextureAtlas.class to display the first page of
+     * an atlas, an atlas that is loaded anyway is not decoded a second time this way
+     * @param unloadImage should the image be released once done
+     * @param assets assets to load before switching
      * @param maps tiled maps to load
      */
-    public LoadingScreen(BasicScreen screenToSwitch, String image, boolean unloadImage, Map<String, Class> assets, String[] maps) {
+    public LoadingScreen(BasicScreen screenToSwitch, String image, Class<?> imageType, boolean unloadImage, Map<String, Class> assets, String[] maps) {
         this.screenToSwitch = screenToSwitch;
 
         if (assets == null && maps == null) {
@@ -49,6 +66,7 @@ public class LoadingScreen extends BasicScreen {
         }
 
         this.image = image;
+        this.imageType = imageType;
         this.assets = assets;
         this.maps = maps;
         this.unloadImage = unloadImage;
@@ -59,19 +77,8 @@ public class LoadingScreen extends BasicScreen {
      */
     @Override
     public void show() {
-        Texture texture;
-
-        try {
-            texture = resources.texture(image);
-        } catch(NotLoadedException ex) {
-            resources.load(image, Texture.class);
-            resources.finishLoading();
-
-            texture = resources.texture(image);
-        }
-
-        sprite = new Sprite(texture);
-        sprite.setSize(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+        // requested first, so it's loaded first
+        imageHandle = resources.request(image, imageType, AssetStreamer.CRITICAL);
 
         enqueueAssets();
     }
@@ -96,11 +103,34 @@ public class LoadingScreen extends BasicScreen {
      */
     @Override
     public void draw(SpriteBatch batch, float delta) {
+        if (sprite == null) {
+            if (!imageHandle.isLoaded()) {
+                return;
+            }
+
+            sprite = new Sprite(getImageTexture());
+            sprite.setSize(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+        }
+
         batch.begin();
         sprite.draw(batch);
         batch.end();
     }
 
+    /**
+     * Gets the texture of the loaded image
+     * @return the image itself or the first page of the atlas
+     */
+    private Texture getImageTexture() {
+        Object asset = imageHandle.get();
+
+        if (asset instanceof TextureAtlas) {
+            return ((TextureAtlas) asset).getTextures().first();
+        }
+
+        return (Texture) asset;
+    }
+
     /**
      * Called when the screen should update itself
      *
@@ -108,12 +138,21 @@ public class LoadingScreen extends BasicScreen {
      */
     @Override
     public void update(float delta) {
-        if (resources.update()) {
+        resources.stream(LOADING_TIME_SLICE);
+
+        if (resources.getStreamer().isLoaded(AssetStreamer.CRITICAL)) {
+            // it's unloaded once the texture budget runs out
             if (unloadImage) {
-                resources.unload(image);
+                imageHandle.release();
             }
 
             switchScreen();
+
+            for (AssetHandle<?> handle: handles) {
+                handle.release();
+            }
+
+            handles.clear();
         }
     }
 
@@ -124,7 +163,8 @@ public class LoadingScreen extends BasicScreen {
      */
     private void loadAssets(Map<String, Class> assets) {
         for (Map.Entry<String, Class> asset: assets.entrySet()) {
-            resources.load(asset.getKey(), asset.getValue());
+            Class<?> type = asset.getValue();
+            handles.add(resources.request(asset.getKey(), type, AssetStreamer.CRITICAL));
         }
     }
 
@@ -135,7 +175,7 @@ public class LoadingScreen extends BasicScreen {
      */
     private void loadMaps(String[] maps) {
         for (String map: maps) {
-            resources.loadMap(map);
+            handles.add(resources.requestMap(map, AssetStreamer.CRITICAL));
         }
     }
 
@@ -0,0 +1,106 @@
+package com.gasis.digger.ui.widgets;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.utils.StringBuilder;
+import com.gasis.digger.utils.FrameProfiler;
+
+/**
+ * Shows the metrics of a frame profiler, averaged over the last frames. The text is
+ * refreshed a few times a second and built without creating garbage
+ */
+public class ProfilerOverlay extends Label {
+
+    // time between refreshes of the text (in seconds)
+    private static final float REFRESH_INTERVAL = 0.5f;
+
+    // number of frames the metrics are averaged over
+    private static final int AVERAGE_FRAMES = 30;
+
+    // shown profiler
+    private final FrameProfiler profiler;
+
+    // text being built
+    private final StringBuilder text = new StringBuilder();
+
+    // time since the text was last refreshed
+    private float sinceRefresh = REFRESH_INTERVAL;
+
+    /**
+     * Default class constructor
+     *
+     * @param profiler profiler to show
+     * @param font font to show it with
+     */
+    public ProfilerOverlay(FrameProfiler profiler, BitmapFont font) {
+        super("", new LabelStyle(font, Color.WHITE));
+
+        this.profiler = profiler;
+    }
+
+    /**
+     * Refreshes the text if it's time to
+     * @param delta time elapsed since last act
+     */
+    @Override
+    public void act(float delta) {
+        super.act(delta);
+
+        sinceRefresh += delta;
+
+        if (sinceRefresh >= REFRESH_INTERVAL) {
+            sinceRefresh = 0;
+            refresh();
+        }
+    }
+
+    /**
+     * Builds the text from the averages of the last frames
+     */
+    private void refresh() {
+        text.setLength(0);
+
+        appendMillis("frame", FrameProfiler.METRIC_FRAME_TIME);
+        appendMillis("update", FrameProfiler.PHASE_UPDATE);
+        appendMillis("terrain", FrameProfiler.PHASE_TERRAIN);
+        appendMillis("vehicles", FrameProfiler.PHASE_VEHICLES);
+        appendMillis("stage act", FrameProfiler.PHASE_STAGE_ACT);
+        appendMillis("stage draw", FrameProfiler.PHASE_STAGE_DRAW);
+
+        appendCount("render calls", FrameProfiler.METRIC_RENDER_CALLS);
+        appendCount("draw calls", FrameProfiler.METRIC_DRAW_CALLS);
+        appendCount("texture binds", FrameProfiler.METRIC_TEXTURE_BINDINGS);
+        appendCount("shader switches", FrameProfiler.METRIC_SHADER_SWITCHES);
+        appendCount(profiler.isMeasuringThreadAllocations() ? "bytes allocated" : "heap growth",
+                FrameProfiler.METRIC_ALLOCATED_BYTES);
+
+        // no empty line at the bottom
+        text.setLength(text.length() - 1);
+
+        setText(text);
+    }
+
+    /**
+     * Appends a line with a time in milliseconds (with two decimals)
+     *
+     * @param name name of the metric
+     * @param metric metric holding the time in nanoseconds
+     */
+    private void appendMillis(String name, int metric) {
+        long hundredths = Math.round(profiler.getAverage(metric, AVERAGE_FRAMES) / 10000);
+
+        text.append(name).append(": ").append(hundredths / 100).append('.')
+                .append((int) (hundredths % 100), 2, '0').append(" ms\n");
+    }
+
+    /**
+     * Appends a line with a count per frame
+     *
+     * @param name name of the metric
+     * @param metric metric holding the count
+     */
+    private void appendCount(String name, int metric) {
+        text.append(name).append(": ").append(Math.round(profiler.getAverage(metric, AVERAGE_FRAMES))).append('\n');
+    }
+}
@@ -0,0 +1,39 @@
+package com.gasis.digger.utils;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates named daemon threads for background work, so worker pools never keep
+ * the game running after the main thread is done
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    // prefix of thread names
+    private final String name;
+
+    // number of threads created so far
+    private int count = 0;
+
+    /**
+     * Default class constructor
+     *
+     * @param name prefix of thread names
+     */
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a new thread
+     *
+     * @param task task the thread runs
+     * @return created thread
+     */
+    @Override
+    public synchronized Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, name + "-" + (++count));
+        thread.setDaemon(true);
+
+        return thread;
+    }
+}
@@ -0,0 +1,415 @@
+package com.gasis.digger.utils;
+
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.profiling.GLProfiler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures every frame: how long each phase took, how many times the sprite batch and
+ * GL drew and bound textures and how much memory the rendering thread allocated.
+ * Keeps the metrics of the last frames (as many as the capacity) for the overlay and
+ * for exporting them to CSV or JSON. Nothing is allocated while profiling, so the
+ * profiler doesn't add to the allocation rate it measures.
+ *
+ * Phases are measured with begin() and end(), a frame with beginFrame() and endFrame()
+ */
+public class FrameProfiler {
+
+    // measured phases of a frame
+    public static final int PHASE_UPDATE = 0;
+    public static final int PHASE_TERRAIN = 1;
+    public static final int PHASE_VEHICLES = 2;
+    public static final int PHASE_STAGE_ACT = 3;
+    public static final int PHASE_STAGE_DRAW = 4;
+    public static final int PHASE_COUNT = 5;
+
+    // metrics of a frame, the first ones are the times of the phases (in nanoseconds)
+    public static final int METRIC_FRAME_TIME = PHASE_COUNT;
+    public static final int METRIC_RENDER_CALLS = PHASE_COUNT + 1;
+    public static final int METRIC_TOTAL_RENDER_CALLS = PHASE_COUNT + 2;
+    public static final int METRIC_DRAW_CALLS = PHASE_COUNT + 3;
+    public static final int METRIC_TEXTURE_BINDINGS = PHASE_COUNT + 4;
+    public static final int METRIC_SHADER_SWITCHES = PHASE_COUNT + 5;
+    public static final int METRIC_ALLOCATED_BYTES = PHASE_COUNT + 6;
+    public static final int METRIC_COUNT = PHASE_COUNT + 7;
+
+    // names of the metrics in exported files
+    private static final String[] METRIC_NAMES = {
+            "update_ns", "terrain_ns", "vehicles_ns", "stage_act_ns", "stage_draw_ns", "frame_ns",
+            "render_calls", "total_render_calls", "draw_calls", "texture_bindings", "shader_switches",
+            "allocated_bytes"
+    };
+
+    // default number of frames kept (5 minutes at 60 fps)
+    public static final int DEFAULT_CAPACITY = 5 * 60 * 60;
+
+    // metrics of the kept frames by metric, frame n is at n % capacity
+    private final long[][] metrics;
+    private final int capacity;
+
+    // number of frames measured so far
+    private long frames = 0;
+
+    // metrics of the frame being measured
+    private final long[] current = new long[METRIC_COUNT];
+
+    // start of the frame and of every phase (System.nanoTime())
+    private long frameStart;
+    private final long[] phaseStart = new long[PHASE_COUNT];
+
+    // counts GL calls (null if GL is not profiled)
+    private GLProfiler gl;
+
+    // batch the total render calls were last read from and it's count back then
+    private SpriteBatch batch;
+    private int lastTotalRenderCalls;
+
+    // measures the bytes allocated by the rendering thread (null if the JVM can't)
+    private final ThreadAllocations allocations = createThreadAllocations();
+
+    // bytes allocated (or used on the heap, if allocations can't be measured) at the
+    // start of the frame
+    private long allocatedAtStart;
+
+    /**
+     * Creates a profiler that keeps DEFAULT_CAPACITY frames
+     */
+    public FrameProfiler() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Default class constructor
+     * @param capacity number of frames to keep
+     */
+    public FrameProfiler(int capacity) {
+        this.capacity = capacity;
+
+        metrics = new long[METRIC_COUNT][capacity];
+    }
+
+    /**
+     * Creates the allocation counter of the current thread
+     * @return counter or null if the JVM can't measure allocations
+     */
+    private static ThreadAllocations createThreadAllocations() {
+        try {
+            return ThreadAllocations.create();
+        } catch (LinkageError ex) {
+            // no com.sun.management
+            return null;
+        }
+    }
+
+    /**
+     * Starts counting GL calls, draw calls and texture bindings. Must be called on the
+     * rendering thread once GL is set up
+     * @param gl GL profiler, it's enabled and reset every frame
+     */
+    public void setGLProfiler(GLProfiler gl) {
+        this.gl = gl;
+
+        gl.enable();
+        gl.reset();
+    }
+
+    /**
+     * Starts measuring a frame
+     */
+    public void beginFrame() {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            current[i] = 0;
+        }
+
+        allocatedAtStart = allocatedBytes();
+        frameStart = System.nanoTime();
+    }
+
+    /**
+     * Starts measuring a phase
+     * @param phase phase (PHASE_*)
+     */
+    public void begin(int phase) {
+        phaseStart[phase] = System.nanoTime();
+    }
+
+    /**
+     * Finishes measuring a phase. A phase can run more than once a frame, the times add up
+     * @param phase phase (PHASE_*)
+     */
+    public void end(int phase) {
+        current[phase] += System.nanoTime() - phaseStart[phase];
+    }
+
+    /**
+     * Finishes measuring a frame and keeps it's metrics
+     * @param batch batch the frame was drawn with
+     */
+    public void endFrame(SpriteBatch batch) {
+        current[METRIC_FRAME_TIME] = System.nanoTime() - frameStart;
+
+        // allocations can't be measured for every JVM, -1 if it was not measured
+        long allocated = allocatedBytes() - allocatedAtStart - (allocations != null ? allocations.overhead : 0);
+        current[METRIC_ALLOCATED_BYTES] = allocations != null || allocated >= 0 ? allocated : -1;
+
+        // a new screen comes with a new batch
+        if (batch != this.batch) {
+            this.batch = batch;
+            lastTotalRenderCalls = 0;
+        }
+
+        current[METRIC_RENDER_CALLS] = batch.totalRenderCalls - lastTotalRenderCalls;
+        current[METRIC_TOTAL_RENDER_CALLS] = batch.totalRenderCalls;
+        lastTotalRenderCalls = batch.totalRenderCalls;
+
+        if (gl != null) {
+            current[METRIC_DRAW_CALLS] = gl.getDrawCalls();
+            current[METRIC_TEXTURE_BINDINGS] = gl.getTextureBindings();
+            current[METRIC_SHADER_SWITCHES] = gl.getShaderSwitches();
+            gl.reset();
+        }
+
+        int index = (int) (frames % capacity);
+
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            metrics[i][index] = current[i];
+        }
+
+        frames++;
+    }
+
+    /**
+     * Gets the number of bytes allocated by the rendering thread, or the bytes used on
+     * the heap if the JVM can't measure allocations (a garbage collection in between
+     * makes the difference negative, those frames are not measured)
+     * @return allocated bytes
+     */
+    private long allocatedBytes() {
+        if (allocations != null) {
+            return allocations.get();
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Averages a metric over the last frames. Frames where the metric was not measured
+     * (-1) are left out
+     *
+     * @param metric metric (METRIC_* or PHASE_*)
+     * @param frames number of frames to average over
+     * @return average or 0 if no frames were measured
+     */
+    public double getAverage(int metric, int frames) {
+        int count = (int) Math.min(frames, Math.min(this.frames, capacity));
+
+        long sum = 0;
+        int measured = 0;
+
+        for (int i = 1; i <= count; i++) {
+            long value = metrics[metric][(int) ((this.frames - i) % capacity)];
+
+            if (value >= 0) {
+                sum += value;
+                measured++;
+            }
+        }
+
+        return measured == 0 ? 0 : sum / (double) measured;
+    }
+
+    /**
+     * Writes the metrics of the kept frames to a file, as JSON if it's name ends with
+     * ".json", as CSV otherwise
+     *
+     * @param file file to write to
+     * @throws IOException if the file can't be written
+     */
+    public void export(File file) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(file));
+
+        try {
+            if (file.getName().endsWith(".json")) {
+                writeJson(out);
+            } else {
+                writeCsv(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the metrics of the kept frames as CSV: a header with the names of the
+     * metrics and a line per frame
+     *
+     * @param out writer to write to
+     * @throws IOException if writing fails
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("frame");
+
+        for (String name: METRIC_NAMES) {
+            out.write(',');
+            out.write(name);
+        }
+
+        out.write('\n');
+
+        for (long frame = getFirstKeptFrame(); frame < frames; frame++) {
+            out.write(Long.toString(frame));
+
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                out.write(',');
+                out.write(Long.toString(metrics[i][(int) (frame % capacity)]));
+            }
+
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Writes the metrics of the kept frames as JSON: an object with an array of frames,
+     * every frame being an object with the metrics
+     *
+     * @param out writer to write to
+     * @throws IOException if writing fails
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\"allocations\":\"");
+        out.write(allocations != null ? "thread" : "heap");
+        out.write("\",\"frames\":[");
+
+        for (long frame = getFirstKeptFrame(); frame < frames; frame++) {
+            out.write(frame == getFirstKeptFrame() ? "\n{\"frame\":" : ",\n{\"frame\":");
+            out.write(Long.toString(frame));
+
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                out.write(",\"");
+                out.write(METRIC_NAMES[i]);
+                out.write("\":");
+                out.write(Long.toString(metrics[i][(int) (frame % capacity)]));
+            }
+
+            out.write('}');
+        }
+
+        out.write("\n]}\n");
+    }
+
+    /**
+     * Gets the first frame that is still kept
+     * @return index of the frame
+     */
+    private long getFirstKeptFrame() {
+        return Math.max(0, frames - capacity);
+    }
+
+    /**
+     * Gets the number of frames measured so far
+     * @return frame count
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Checks if allocations are measured per thread. If not, the allocation metric is
+     * the growth of the heap, which misses frames with a garbage collection
+     * @return true if allocations of the rendering thread are measured
+     */
+    public boolean isMeasuringThreadAllocations() {
+        return allocations != null;
+    }
+
+    /**
+     * Measures the bytes allocated by a thread. Kept in a class of it's own, so a JVM
+     * without com.sun.management only fails to load this class and not the profiler.
+     * Reading the counter allocates a little itself, that much is left out
+     */
+    private static class ThreadAllocations {
+
+        // thread bean of the JVM
+        private final com.sun.management.ThreadMXBean threads;
+
+        // id of the measured thread
+        private final long thread;
+
+        // bytes allocated by reading the counter
+        long overhead = 0;
+
+        // number of reads the overhead is the smallest difference of
+        private static final int CALIBRATION_READS = 16;
+
+        /**
+         * Default class constructor
+         *
+         * @param threads thread bean of the JVM
+         * @param thread id of the thread to measure
+         */
+        private ThreadAllocations(com.sun.management.ThreadMXBean threads, long thread) {
+            this.threads = threads;
+            this.thread = thread;
+        }
+
+        /**
+         * Creates a counter for the current thread
+         * @return counter or null if the JVM can't measure allocations
+         */
+        static ThreadAllocations create() {
+            try {
+                ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+                if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                    return null;
+                }
+
+                com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+
+                if (!sunThreads.isThreadAllocatedMemorySupported()) {
+                    return null;
+                }
+
+                sunThreads.setThreadAllocatedMemoryEnabled(true);
+
+                ThreadAllocations allocations = new ThreadAllocations(sunThreads, Thread.currentThread().getId());
+                allocations.calibrate();
+
+                return allocations;
+            } catch (UnsupportedOperationException ex) {
+                return null;
+            }
+        }
+
+        /**
+         * Measures how much reading the counter allocates
+         */
+        private void calibrate() {
+            long last = get();
+            overhead = Long.MAX_VALUE;
+
+            for (int i = 0; i < CALIBRATION_READS; i++) {
+                long allocated = get();
+                overhead = Math.min(overhead, allocated - last);
+                last = allocated;
+            }
+        }
+
+        /**
+         * Gets the bytes allocated by the thread so far
+         * @return allocated bytes
+         */
+        long get() {
+            return threads.getThreadAllocatedBytes(thread);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.gasis.digger.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length integers: 7 bits per byte, the highest bit is set if more bytes
+ * follow. Small numbers take a single byte. Signed numbers are zigzag encoded first
+ * (0, -1, 1, -2, 2... become 0, 1, 2, 3, 4...), so small negative numbers are small too
+ */
+public final class Varints {
+
+    // most bytes a 32 bit varint can take
+    public static final int MAX_SIZE = 5;
+
+    /**
+     * Not meant to be instantiated
+     */
+    private Varints() {
+
+    }
+
+    /**
+     * Writes a non-negative number
+     *
+     * @param buffer buffer to write to
+     * @param value number to write
+     */
+    public static void put(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes a signed number
+     *
+     * @param buffer buffer to write to
+     * @param value number to write
+     */
+    public static void putSigned(ByteBuffer buffer, int value) {
+        put(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads a non-negative number
+     *
+     * @param buffer buffer to read from
+     * @return read number
+     */
+    public static int get(ByteBuffer buffer) {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+
+            if (b >= 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /**
+     * Reads a signed number
+     *
+     * @param buffer buffer to read from
+     * @return read number
+     */
+    public static int getSigned(ByteBuffer buffer) {
+        int value = get(buffer);
+
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
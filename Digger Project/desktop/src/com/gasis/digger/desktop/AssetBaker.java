@@ -0,0 +1,105 @@
+package com.gasis.digger.desktop;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData;
+import com.gasis.digger.resources.BakedAtlas;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Bakes texture atlases at build time: parses the text atlas and decodes the images of
+ * it's pages once, so the game only maps the baked files and uploads them (see
+ * BakedAtlas). Needs no display, images are decoded with ImageIO
+ *
+ * Arguments: text atlas files to bake (textures.atlas if none)
+ */
+public class AssetBaker {
+
+	/**
+	 * Bakes the atlases
+	 *
+	 * @param args text atlas files
+	 * @throws IOException if an atlas can't be read or baked
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			args = new String[] { "textures.atlas" };
+		}
+
+		for (String path: args) {
+			bake(new File(path));
+		}
+	}
+
+	/**
+	 * Bakes a single atlas next to it
+	 *
+	 * @param file text atlas file
+	 * @throws IOException if the atlas can't be read or baked
+	 */
+	private static void bake(File file) throws IOException {
+		// a relative file without a folder would have it's images looked up in the root
+		FileHandle atlas = new FileHandle(file.getAbsoluteFile());
+		TextureAtlasData data = new TextureAtlasData(atlas, atlas.parent(), false);
+
+		int pageCount = data.getPages().size;
+		int[] widths = new int[pageCount];
+		byte[][] pixels = new byte[pageCount][];
+
+		for (int i = 0; i < pageCount; i++) {
+			File image = data.getPages().get(i).textureFile.file();
+			BufferedImage decoded = ImageIO.read(image);
+
+			if (decoded == null) {
+				throw new IOException("Could not decode " + image);
+			}
+
+			widths[i] = decoded.getWidth();
+			pixels[i] = toRgba(decoded);
+		}
+
+		File index = new File(file.getPath() + BakedAtlas.INDEX_SUFFIX);
+		File blob = new File(file.getPath() + BakedAtlas.PIXELS_SUFFIX);
+
+		OutputStream indexOut = new BufferedOutputStream(new FileOutputStream(index));
+		OutputStream blobOut = new BufferedOutputStream(new FileOutputStream(blob));
+
+		try {
+			BakedAtlas.write(data, atlas.parent(), widths, pixels, indexOut, blobOut);
+		} finally {
+			indexOut.close();
+			blobOut.close();
+		}
+
+		System.out.println(String.format("%s: %d pages, %d regions baked into %d + %d bytes",
+				file, pageCount, data.getRegions().size, index.length(), blob.length()));
+	}
+
+	/**
+	 * Gets the pixels of an image as RGBA8888, rows from the top
+	 * @param image decoded image
+	 * @return pixels
+	 */
+	private static byte[] toRgba(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+		byte[] rgba = new byte[argb.length * 4];
+
+		for (int i = 0; i < argb.length; i++) {
+			rgba[i * 4] = (byte) (argb[i] >> 16);
+			rgba[i * 4 + 1] = (byte) (argb[i] >> 8);
+			rgba[i * 4 + 2] = (byte) argb[i];
+			rgba[i * 4 + 3] = (byte) (argb[i] >>> 24);
+		}
+
+		return rgba;
+	}
+}
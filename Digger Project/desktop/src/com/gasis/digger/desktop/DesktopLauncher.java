@@ -4,6 +4,8 @@ import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 import com.gasis.digger.Main;
 
+import java.io.File;
+
 /**
  * Launches the desktop version of the game
  */
@@ -12,7 +14,9 @@ public class DesktopLauncher {
 	/**
 	 * Entry point of the program
 	 *
-	 * @param args arguments for the program
+	 * @param args arguments for the program: "--record file" plays a new world and
+	 * records it's input to the file (see InputRecorder), "--profile file" shows the
+	 * time every phase of a frame takes and exports them to the file (CSV or JSON)
 	 */
 	public static void main (String[] args) {
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
@@ -23,6 +27,17 @@ public class DesktopLauncher {
 		config.height = 936;
 		config.title = "Digger";
 
-		new LwjglApplication(new Main(), config);
+		File recording = null;
+		File metrics = null;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--record")) {
+				recording = new File(args[i + 1]);
+			} else if (args[i].equals("--profile")) {
+				metrics = new File(args[i + 1]);
+			}
+		}
+
+		new LwjglApplication(new Main(recording, metrics), config);
 	}
 }